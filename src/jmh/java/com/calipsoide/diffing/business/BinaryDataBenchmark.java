@@ -0,0 +1,34 @@
+package com.calipsoide.diffing.business;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures base64 decoding of request payloads through {@link BinaryData#read(String)}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class BinaryDataBenchmark {
+
+    @Param({"1024", "65536", "1048576", "16777216"})
+    private int size;
+
+    private String encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        encoded = Base64.getEncoder().encodeToString(bytes);
+    }
+
+    @Benchmark
+    public BinaryData read() {
+        return BinaryData.read(encoded);
+    }
+
+}
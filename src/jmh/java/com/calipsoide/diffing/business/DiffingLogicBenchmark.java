@@ -0,0 +1,92 @@
+package com.calipsoide.diffing.business;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@link DiffingLogic#diff(BinaryData, BinaryData)} for several payload sizes
+ * and difference densities.
+ * <p>
+ * Sides are generated once per trial, so setup cost is not part of the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class DiffingLogicBenchmark {
+
+    public enum Density {
+
+        /**
+         * Both sides hold the very same bytes.
+         */
+        IDENTICAL,
+
+        /**
+         * A single byte differs every 4 KB.
+         */
+        SPARSE,
+
+        /**
+         * Roughly half of the bytes differ, at random positions.
+         */
+        DENSE,
+
+        /**
+         * Every other byte differs, which is the worst case in number of insights.
+         */
+        ALTERNATING
+
+    }
+
+    @Param({"1024", "65536", "1048576", "16777216", "268435456"})
+    private int size;
+
+    @Param({"IDENTICAL", "SPARSE", "DENSE", "ALTERNATING"})
+    private Density density;
+
+    private final DiffingLogic logic = new DiffingLogic();
+
+    private BinaryData leftData;
+
+    private BinaryData rightData;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(size);
+        final byte[] leftBytes = new byte[size];
+        random.nextBytes(leftBytes);
+        final byte[] rightBytes = Arrays.copyOf(leftBytes, size);
+        switch (density) {
+            case SPARSE:
+                for (int i = 0; i < size; i += 4096) {
+                    rightBytes[i] = (byte) ~rightBytes[i];
+                }
+                break;
+            case DENSE:
+                for (int i = 0; i < size; i++) {
+                    if (random.nextBoolean()) {
+                        rightBytes[i] = (byte) ~rightBytes[i];
+                    }
+                }
+                break;
+            case ALTERNATING:
+                for (int i = 0; i < size; i += 2) {
+                    rightBytes[i] = (byte) ~rightBytes[i];
+                }
+                break;
+            default:
+                break;
+        }
+        leftData = BinaryData.of(leftBytes);
+        rightData = BinaryData.of(rightBytes);
+    }
+
+    @Benchmark
+    public DiffReport diff() {
+        return logic.diff(leftData, rightData);
+    }
+
+}
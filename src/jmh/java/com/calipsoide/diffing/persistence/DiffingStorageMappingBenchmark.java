@@ -0,0 +1,66 @@
+package com.calipsoide.diffing.persistence;
+
+import com.calipsoide.diffing.business.BinaryData;
+import com.calipsoide.diffing.business.DiffCase;
+import com.calipsoide.diffing.business.DiffInsight;
+import com.calipsoide.diffing.business.DiffReport;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.calipsoide.diffing.business.DiffReport.Status.NOT_EQUAL;
+
+/**
+ * Measures the object-document mapping done by {@link DiffingStorage} on every read and write,
+ * for several side sizes and numbers of insights.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class DiffingStorageMappingBenchmark {
+
+    @Param({"1024", "1048576"})
+    private int size;
+
+    @Param({"0", "1000", "100000"})
+    private int insightCount;
+
+    private DiffCase diffCase;
+
+    private DiffCaseDocument document;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(size);
+        final byte[] leftBytes = new byte[size];
+        final byte[] rightBytes = new byte[size];
+        random.nextBytes(leftBytes);
+        random.nextBytes(rightBytes);
+        final List<DiffInsight> insights = new ArrayList<>(insightCount);
+        for (int i = 0; i < insightCount; i++) {
+            insights.add(new DiffInsight(i * 2, 1));
+        }
+        diffCase = DiffCase.builder()
+                .withId("5c0a9b3e2f1d4a0001a1b2c3")
+                .withName("benchmark")
+                .withLeftData(BinaryData.of(leftBytes))
+                .withRightData(BinaryData.of(rightBytes))
+                .withReport(DiffReport.of(NOT_EQUAL, insights))
+                .build();
+        document = DiffingStorage.toDiffCaseDocument(diffCase);
+    }
+
+    @Benchmark
+    public DiffCaseDocument toDiffCaseDocument() {
+        return DiffingStorage.toDiffCaseDocument(diffCase);
+    }
+
+    @Benchmark
+    public DiffCase toDiffCaseEntity() {
+        return DiffingStorage.toDiffCaseEntity(document, diffCase.getLeftData(), diffCase.getRightData());
+    }
+
+}
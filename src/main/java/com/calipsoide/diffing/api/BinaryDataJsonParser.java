@@ -0,0 +1,320 @@
+package com.calipsoide.diffing.api;
+
+import com.calipsoide.diffing.business.BinaryData;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Incremental parser of a JSON object carrying base64 encoded binary data in one of its fields.
+ * <p>
+ * Input is fed in chunks, as they arrive from the network. The binary field is decoded on the fly,
+ * so the encoded text is never materialized as a {@link String}. Any other field is skipped.
+ * <p>
+ * Malformed JSON or base64 data results in an {@link IllegalArgumentException}.
+ */
+class BinaryDataJsonParser {
+
+    private static final int MAX_KEY_LENGTH = 1024;
+
+    private static final int MORE = -1;
+
+    private static final int END = -2;
+
+    private enum State {
+        START, KEY_OR_END, KEY_START, KEY, COLON, VALUE, BINARY, SKIP_STRING, SKIP_NESTED, LITERAL,
+        NEXT_OR_END, DONE
+    }
+
+    private final String binaryField;
+
+    private final int sizeHint;
+
+    private final int maxInlineLength;
+
+    private final ByteArrayOutputStream token = new ByteArrayOutputStream();
+
+    private State state = State.START;
+
+    private String key;
+
+    private StreamingBase64Decoder decoder;
+
+    private BinaryData binary;
+
+    private int escape;
+
+    private int codePoint;
+
+    /**
+     * High surrogate of a key character escaped as a surrogate pair, waiting for its low surrogate, or zero.
+     */
+    private char highSurrogate;
+
+    private int depth;
+
+    private boolean nestedString;
+
+    /**
+     * @param binaryField     name of the field holding base64 data
+     * @param sizeHint        expected size of the decoded data, in bytes
+     * @param maxInlineLength size of the decoded data up to which it is stored inline, in bytes
+     */
+    BinaryDataJsonParser(String binaryField, int sizeHint, int maxInlineLength) {
+        this.binaryField = binaryField;
+        this.sizeHint = sizeHint;
+        this.maxInlineLength = maxInlineLength;
+    }
+
+    /**
+     * Consumes bytes from the given chunk until it is exhausted or the JSON object is complete.
+     * In the latter case, the chunk is left positioned right after the closing brace.
+     *
+     * @param chunk next piece of JSON input
+     */
+    void feed(ByteBuffer chunk) {
+        while (chunk.hasRemaining() && state != State.DONE) {
+            final byte current = chunk.get();
+            switch (state) {
+                case START:
+                    if (!isWhitespace(current)) {
+                        expect(current == '{', current);
+                        state = State.KEY_OR_END;
+                    }
+                    break;
+                case KEY_OR_END:
+                    if (current == '}') {
+                        state = State.DONE;
+                        break;
+                    }
+                    // fall through: otherwise a key is expected
+                case KEY_START:
+                    if (!isWhitespace(current)) {
+                        expect(current == '"', current);
+                        token.reset();
+                        state = State.KEY;
+                    }
+                    break;
+                case KEY:
+                    if (readString(current)) {
+                        key = new String(token.toByteArray(), UTF_8);
+                        state = State.COLON;
+                    }
+                    break;
+                case COLON:
+                    if (!isWhitespace(current)) {
+                        expect(current == ':', current);
+                        state = State.VALUE;
+                    }
+                    break;
+                case VALUE:
+                    startValue(current);
+                    break;
+                case BINARY:
+                    final int character = unescape(current);
+                    if (character == END) {
+                        binary = BinaryData.of(decoder.finish());
+                        decoder = null;
+                        state = State.NEXT_OR_END;
+                    } else if (character != MORE) {
+                        decoder.decode(character);
+                    }
+                    break;
+                case SKIP_STRING:
+                    if (unescape(current) == END) {
+                        state = State.NEXT_OR_END;
+                    }
+                    break;
+                case SKIP_NESTED:
+                    skipNested(current);
+                    break;
+                case LITERAL:
+                    if (current == ',' || current == '}' || isWhitespace(current)) {
+                        endLiteral();
+                        chunk.position(chunk.position() - 1); // delimiter belongs to the next state
+                        state = State.NEXT_OR_END;
+                    } else {
+                        token.write(current);
+                    }
+                    break;
+                case NEXT_OR_END:
+                    if (!isWhitespace(current)) {
+                        expect(current == ',' || current == '}', current);
+                        state = current == ',' ? State.KEY_START : State.DONE;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("unexpected parser state " + state);
+            }
+        }
+    }
+
+    /**
+     * Checks that no more input is accepted after the JSON object.
+     *
+     * @param chunk remaining input
+     */
+    void feedTrailing(ByteBuffer chunk) {
+        while (chunk.hasRemaining()) {
+            final byte current = chunk.get();
+            expect(isWhitespace(current), current);
+        }
+    }
+
+    /**
+     * @return decoded binary field, if present (and not null) in the parsed object
+     */
+    Optional<BinaryData> getBinary() {
+        checkComplete();
+        return Optional.ofNullable(binary);
+    }
+
+    private void checkComplete() {
+        checkArgument(state == State.DONE, "incomplete JSON object");
+    }
+
+    private void startValue(byte current) {
+        if (isWhitespace(current)) {
+            return;
+        }
+        final boolean binaryValue = binaryField.equals(key);
+        if (current == '"') {
+            if (binaryValue) {
+                decoder = new StreamingBase64Decoder(sizeHint, maxInlineLength);
+                state = State.BINARY;
+            } else {
+                state = State.SKIP_STRING;
+            }
+        } else if (current == '{' || current == '[') {
+            checkArgument(!binaryValue, "%s must be a base64 string", binaryField);
+            depth = 1;
+            nestedString = false;
+            state = State.SKIP_NESTED;
+        } else {
+            token.reset();
+            token.write(current);
+            state = State.LITERAL;
+        }
+    }
+
+    private void skipNested(byte current) {
+        if (nestedString) {
+            nestedString = unescape(current) != END;
+        } else if (current == '"') {
+            nestedString = true;
+        } else if (current == '{' || current == '[') {
+            depth++;
+        } else if ((current == '}' || current == ']') && --depth == 0) {
+            state = State.NEXT_OR_END;
+        }
+    }
+
+    private void endLiteral() {
+        final String literal = new String(token.toByteArray(), UTF_8);
+        if (binaryField.equals(key)) {
+            checkArgument("null".equals(literal), "%s must be a base64 string", binaryField);
+            binary = null;
+        }
+    }
+
+    /**
+     * Accumulates the next byte of a string into the token buffer, as UTF-8.
+     * Characters escaped as a surrogate pair are joined into a single code point, while lone surrogates are rejected.
+     *
+     * @return true if the string is over
+     */
+    private boolean readString(byte current) {
+        final int character = unescape(current);
+        if (character == END) {
+            checkArgument(highSurrogate == 0, "invalid JSON surrogate pair");
+            return true;
+        }
+        if (character != MORE) {
+            checkArgument(token.size() < MAX_KEY_LENGTH, "JSON key is too long");
+            final boolean escaped = current >= 0 && character >= 0x80; // raw bytes of that range are negative
+            if (highSurrogate != 0) {
+                checkArgument(escaped && Character.isLowSurrogate((char) character), "invalid JSON surrogate pair");
+                writeCodePoint(Character.toCodePoint(highSurrogate, (char) character));
+                highSurrogate = 0;
+            } else if (character < 0x80) {
+                token.write(character);
+            } else if (!escaped) {
+                token.write(current); // raw UTF-8 byte, decoded when the string is over
+            } else if (Character.isHighSurrogate((char) character)) {
+                highSurrogate = (char) character;
+            } else {
+                checkArgument(!Character.isLowSurrogate((char) character), "invalid JSON surrogate pair");
+                writeCodePoint(character);
+            }
+        }
+        return false;
+    }
+
+    private void writeCodePoint(int codePoint) {
+        final byte[] encoded = new String(Character.toChars(codePoint)).getBytes(UTF_8);
+        token.write(encoded, 0, encoded.length);
+    }
+
+    /**
+     * Resolves JSON escape sequences inside strings.
+     *
+     * @return the next character, {@link #MORE} if the escape sequence is not complete yet
+     * or {@link #END} if the string is over
+     */
+    private int unescape(byte current) {
+        if (escape == 0) {
+            if (current == '"') {
+                return END;
+            } else if (current == '\\') {
+                escape = 1;
+                return MORE;
+            }
+            return current & 0xFF;
+        } else if (escape == 1) {
+            escape = 0;
+            switch (current) {
+                case '"':
+                case '\\':
+                case '/':
+                    return current;
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'u':
+                    escape = 2;
+                    codePoint = 0;
+                    return MORE;
+                default:
+                    throw new IllegalArgumentException("invalid JSON escape sequence");
+            }
+        }
+        final int digit = Character.digit(current, 16);
+        checkArgument(digit >= 0, "invalid JSON unicode escape sequence");
+        codePoint = codePoint << 4 | digit;
+        if (++escape == 6) {
+            escape = 0;
+            return codePoint;
+        }
+        return MORE;
+    }
+
+    private static boolean isWhitespace(byte current) {
+        return current == ' ' || current == '\t' || current == '\n' || current == '\r';
+    }
+
+    private static void expect(boolean condition, byte current) {
+        checkArgument(condition, "malformed JSON: unexpected character %s", (char) current);
+    }
+
+}
@@ -1,11 +1,16 @@
 package com.calipsoide.diffing.api;
 
+import com.calipsoide.diffing.business.BinaryData;
+
 /**
  * Represents the API contract (request body) of the endpoints that receive base64 binary encoded data.
  * It has only public fields to avoid hidden logic here.
+ * <p>
+ * On the wire, data is a base64 string. It is decoded while the request body is read
+ * (see {@link BinaryDataResourceReader}), so this object holds the resulting binary data.
  */
 public class BinaryDataResource {
 
-    public String data;
+    public BinaryData data;
 
 }
@@ -0,0 +1,17 @@
+package com.calipsoide.diffing.api;
+
+/**
+ * Represents the API contract of each line of the request body of the bulk endpoint.
+ * It has only public fields to avoid hidden logic here.
+ * <p>
+ * On the wire, data is a base64 string, which is decoded into bytes when the line is read.
+ */
+public class BulkItemResource {
+
+    public String name;
+
+    public String side;
+
+    public byte[] data;
+
+}
@@ -0,0 +1,29 @@
+package com.calipsoide.diffing.api;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Represents the API contract of each line of the response body of the bulk endpoint.
+ * It has only public fields to avoid hidden logic here.
+ * <p>
+ * Status is the HTTP status code that processing the item on its own would have responded with.
+ */
+public class BulkItemResultResource {
+
+    public final String name;
+
+    public final String side;
+
+    public final int status;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public final String error;
+
+    public BulkItemResultResource(String name, String side, int status, String error) {
+        this.name = name;
+        this.side = side;
+        this.status = status;
+        this.error = error;
+    }
+
+}
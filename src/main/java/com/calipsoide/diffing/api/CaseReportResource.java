@@ -0,0 +1,26 @@
+package com.calipsoide.diffing.api;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Represents the API contract of each line of the response body of the endpoint that returns
+ * the diff results of many cases. It has only public fields to avoid hidden logic here.
+ * <p>
+ * Status is the HTTP status code that requesting the results of the case on their own would have responded with.
+ */
+public class CaseReportResource {
+
+    public final String name;
+
+    public final int status;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public final DiffReportResource report;
+
+    public CaseReportResource(String name, int status, DiffReportResource report) {
+        this.name = name;
+        this.status = status;
+        this.report = report;
+    }
+
+}
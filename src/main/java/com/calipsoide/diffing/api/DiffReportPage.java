@@ -0,0 +1,51 @@
+package com.calipsoide.diffing.api;
+
+import com.calipsoide.diffing.business.DiffReport;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+/**
+ * Represents the API contract (response body) of the endpoint that returns a page of diff results.
+ * <p>
+ * Unlike {@link DiffReportResource}, results are not copied into resources, but written straight from the report
+ * for every media type the endpoint produces: JSON and its binary equivalents by {@link DiffReportPageSerializer},
+ * with the same fields as {@link DiffReportResource}, and the packed format by {@link PackedDiffReportWriter}.
+ * <p>
+ * Only insights are paged. Edits are not, as they come from a different engine than insights and there are few of
+ * them, since each one takes a whole range: the first page, requested without cursor, carries all of them, and
+ * the following ones none, so that paging through a report does not send its edits again with every page.
+ * It has only public fields to avoid hidden logic here.
+ */
+@JsonSerialize(using = DiffReportPageSerializer.class)
+public class DiffReportPage {
+
+    public final DiffReport report;
+
+    /**
+     * Index of the first insight of the page (inclusive).
+     */
+    public final int from;
+
+    /**
+     * Index of the last insight of the page (exclusive).
+     */
+    public final int to;
+
+    /**
+     * Cursor to request the next page of insights with, present only if there are more.
+     */
+    public final Integer next;
+
+    /**
+     * Whether this is the first page, which carries the edits of the report.
+     */
+    public final boolean first;
+
+    public DiffReportPage(DiffReport report, int from, int to, boolean first) {
+        this.report = report;
+        this.from = from;
+        this.to = to;
+        this.first = first;
+        this.next = to < report.getInsightCount() ? report.getOffsetAt(to - 1) : null;
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.calipsoide.diffing.api;
+
+import com.calipsoide.diffing.business.DiffEdit;
+import com.calipsoide.diffing.business.DiffReport;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes a {@link DiffReportPage} with the same fields as a {@link DiffReportResource}, reading them straight
+ * from the report, so dense reports do not take an object per insight before being written.
+ * <p>
+ * As it goes through the Jackson generator API only, it writes JSON, Smile and CBOR alike.
+ */
+class DiffReportPageSerializer extends StdSerializer<DiffReportPage> {
+
+    DiffReportPageSerializer() {
+        super(DiffReportPage.class);
+    }
+
+    @Override
+    public void serialize(DiffReportPage page, JsonGenerator generator, SerializerProvider provider)
+            throws IOException {
+        final DiffReport report = page.report;
+        generator.writeStartObject();
+        generator.writeStringField("status", report.getStatus().toString().toLowerCase());
+        if (page.to > page.from) {
+            generator.writeArrayFieldStart("insights");
+            for (int i = page.from; i < page.to; i++) {
+                generator.writeStartObject();
+                generator.writeNumberField("offset", report.getOffsetAt(i));
+                generator.writeNumberField("length", report.getLengthAt(i));
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        final List<DiffEdit> edits = report.getEdits();
+        if (page.first && !edits.isEmpty()) {
+            generator.writeArrayFieldStart("edits");
+            for (DiffEdit edit : edits) {
+                generator.writeStartObject();
+                generator.writeStringField("type", edit.getType().toString().toLowerCase());
+                generator.writeNumberField("leftOffset", edit.getLeftOffset());
+                generator.writeNumberField("leftLength", edit.getLeftLength());
+                generator.writeNumberField("rightOffset", edit.getRightOffset());
+                generator.writeNumberField("rightLength", edit.getRightLength());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        if (page.next != null) {
+            generator.writeNumberField("next", page.next);
+        }
+        generator.writeEndObject();
+    }
+
+}
@@ -13,9 +13,13 @@ public class DiffReportResource {
     @JsonInclude(JsonInclude.Include.NON_EMPTY)
     public final DiffInsightResource[] insights;
 
-    public DiffReportResource(String status, DiffInsightResource[] insights) {
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public final DiffEditResource[] edits;
+
+    public DiffReportResource(String status, DiffInsightResource[] insights, DiffEditResource[] edits) {
         this.status = status;
         this.insights = insights;
+        this.edits = edits;
     }
 
     public static class DiffInsightResource {
@@ -31,4 +35,26 @@ public class DiffReportResource {
 
     }
 
+    public static class DiffEditResource {
+
+        public final String type;
+
+        public final int leftOffset;
+
+        public final int leftLength;
+
+        public final int rightOffset;
+
+        public final int rightLength;
+
+        public DiffEditResource(String type, int leftOffset, int leftLength, int rightOffset, int rightLength) {
+            this.type = type;
+            this.leftOffset = leftOffset;
+            this.leftLength = leftLength;
+            this.rightOffset = rightOffset;
+            this.rightLength = rightLength;
+        }
+
+    }
+
 }
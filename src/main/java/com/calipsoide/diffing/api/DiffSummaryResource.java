@@ -0,0 +1,40 @@
+package com.calipsoide.diffing.api;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Represents the API contract (response body) of the endpoint that returns just aggregate statistics
+ * of some diff operation. It has only public fields to avoid hidden logic here.
+ */
+public class DiffSummaryResource {
+
+    public final String status;
+
+    public final long differingBytes;
+
+    public final int runCount;
+
+    public final int longestRun;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public final Integer firstOffset;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public final Integer lastOffset;
+
+    public DiffSummaryResource(
+            String status,
+            long differingBytes,
+            int runCount,
+            int longestRun,
+            Integer firstOffset,
+            Integer lastOffset) {
+        this.status = status;
+        this.differingBytes = differingBytes;
+        this.runCount = runCount;
+        this.longestRun = longestRun;
+        this.firstOffset = firstOffset;
+        this.lastOffset = lastOffset;
+    }
+
+}
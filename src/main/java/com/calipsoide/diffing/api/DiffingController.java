@@ -1,26 +1,43 @@
 package com.calipsoide.diffing.api;
 
+import com.calipsoide.diffing.api.DiffReportResource.DiffEditResource;
 import com.calipsoide.diffing.api.DiffReportResource.DiffInsightResource;
 import com.calipsoide.diffing.business.BinaryData;
+import com.calipsoide.diffing.business.BulkItem;
+import com.calipsoide.diffing.business.DiffEngine;
+import com.calipsoide.diffing.business.DiffReport;
 import com.calipsoide.diffing.business.DiffSide;
 import com.calipsoide.diffing.business.DiffingService;
 import com.google.common.collect.ImmutableMap;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
-import static com.google.common.collect.Iterables.toArray;
-import static java.util.stream.Collectors.toList;
+import static org.springframework.http.HttpHeaders.RETRY_AFTER;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.CONFLICT;
+import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
+import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.http.MediaType.APPLICATION_OCTET_STREAM_VALUE;
 import static org.springframework.http.ResponseEntity.*;
 import static org.springframework.web.bind.annotation.RequestMethod.GET;
+import static org.springframework.web.bind.annotation.RequestMethod.PATCH;
 import static org.springframework.web.bind.annotation.RequestMethod.POST;
 
 /**
@@ -51,6 +68,12 @@ import static org.springframework.web.bind.annotation.RequestMethod.POST;
 @RequestMapping(path = "/v1/diff")
 public class DiffingController {
 
+    private static final String BUSY_ERROR = "too many diffs in progress";
+
+    private static final String CONFLICT_ERROR = "case is being updated concurrently";
+
+    private static final int MAX_REPORT_NAMES = 1000;
+
     private final DiffingService diffingService;
 
     @Autowired
@@ -62,53 +85,360 @@ public class DiffingController {
      * POST endpoint that links binary data to a diff case.
      * The ID provided in the URI path is used as "case name" in order to link both sides of the diff.
      * Note that this endpoint accepts the both sides, "left" and "right".
+     * <p>
+     * An engine can be chosen to diff the case with, "positional", "myers" or "blocks", which is kept for further
+     * updates. Positional engine compares sides byte by byte, while the other ones find inserted and deleted data too:
+     * Myers engine finds the shortest edits, and blocks engine is faster on large data.
      *
-     * @param name of the diff resource to add this side data to
-     * @param side of the data provided in request body
-     * @param body JSON with base64 encoded binary data
-     * @return 204 if operation succeeded, 400 if data is not readable
+     * @param name   of the diff resource to add this side data to
+     * @param side   of the data provided in request body
+     * @param engine to diff the case with, if it is to be changed
+     * @param body   JSON with base64 encoded binary data, decoded while it is received
+     * @return 204 if operation succeeded, 202 if case is diffed in the background,
+     * 400 if data is not readable or engine is unknown,
+     * 409 if case is being updated concurrently, 503 if server is too busy to diff it now
      */
     @RequestMapping(method = POST, path = "/{name}/{side:left|right}", consumes = APPLICATION_JSON_VALUE)
     public Mono<ResponseEntity<Object>> saveDataToDiff(
             @PathVariable("name") String name,
             @PathVariable("side") String side,
-            @RequestBody BinaryDataResource body) {
-        return Mono
-                .justOrEmpty(body.data)
+            @RequestParam(name = "engine", required = false) String engine,
+            @RequestBody Mono<BinaryDataResource> body) {
+        final Mono<BinaryData> data = body.flatMap(resource -> Mono.justOrEmpty(resource.data));
+        return saveDataToDiff(name, side, engine, data);
+    }
+
+    /**
+     * POST endpoint that links raw binary data to a diff case.
+     * Works just like the JSON one, but data is sent as is in the request body, avoiding the base64 overhead.
+     * Body is assembled from the incoming network buffers with a single copy.
+     *
+     * @param name   of the diff resource to add this side data to
+     * @param side   of the data provided in request body
+     * @param engine to diff the case with, if it is to be changed
+     * @param body   raw binary data
+     * @return 204 if operation succeeded, 202 if case is diffed in the background,
+     * 400 if data is missing or engine is unknown,
+     * 409 if case is being updated concurrently, 503 if server is too busy to diff it now
+     */
+    @RequestMapping(method = POST, path = "/{name}/{side:left|right}", consumes = APPLICATION_OCTET_STREAM_VALUE)
+    public Mono<ResponseEntity<Object>> saveRawDataToDiff(
+            @PathVariable("name") String name,
+            @PathVariable("side") String side,
+            @RequestParam(name = "engine", required = false) String engine,
+            @RequestBody Flux<DataBuffer> body) {
+        return saveDataToDiff(name, side, engine, readBytes(body).map(BinaryData::of));
+    }
+
+    /**
+     * PATCH endpoint that overwrites a range of the data of one side of an existing diff case.
+     * Bytes in request body are written at the given offset, which must leave them within current side data.
+     * Diff results are updated by diffing the overwritten range only.
+     *
+     * @param name   of the diff resource whose data is modified
+     * @param side   of the data to modify
+     * @param offset position of the first byte to overwrite
+     * @param body   raw bytes to write
+     * @return 204 if operation succeeded, 202 if case is diffed in the background, 400 if range is not valid,
+     * 404 if no case is present with the URI path name,
+     * 409 if case is being updated concurrently, 503 if server is too busy to diff it now
+     */
+    @RequestMapping(method = PATCH, path = "/{name}/{side:left|right}", consumes = APPLICATION_OCTET_STREAM_VALUE)
+    public Mono<ResponseEntity<Object>> patchDataToDiff(
+            @PathVariable("name") String name,
+            @PathVariable("side") String side,
+            @RequestParam("offset") int offset,
+            @RequestBody Flux<DataBuffer> body) {
+        final Mono<ResponseEntity<Object>> response = readBytes(body)
                 .switchIfEmpty(Mono.error(() -> new IllegalArgumentException("missing data")))
-                .map(BinaryData::read)
-                .flatMap(data -> {
+                .flatMap(bytes -> {
                     final DiffSide diffSide = DiffSide.valueOf(side.toUpperCase());
-                    return diffingService.process(name, diffSide, data);
+                    return diffingService.patch(name, diffSide, offset, bytes);
                 })
-                .thenReturn(noContent().build())
+                .map(patched -> patched ? processed() : notFound().<Object>build());
+        return withErrorResponses(response);
+    }
+
+    /**
+     * POST endpoint that links binary data to many diff cases at once.
+     * Request body is newline delimited JSON, with one item per line: case name, side, and base64 encoded data.
+     * Items are processed in batches as lines arrive, with the storage writes of each batch grouped together,
+     * so loading many cases does not take a request per side.
+     * <p>
+     * Response body streams the result of each item, in the same order, as newline delimited JSON too:
+     * case name and side of the item, and the status code processing it on its own would have responded with,
+     * along with an error message if it failed. Items fail on their own, without stopping the rest.
+     *
+     * @param body stream of items
+     * @return 200 with the stream of item results
+     */
+    @RequestMapping(
+            method = POST,
+            path = "/_bulk",
+            consumes = WebConfiguration.APPLICATION_NDJSON_VALUE,
+            produces = WebConfiguration.APPLICATION_NDJSON_VALUE)
+    public Flux<BulkItemResultResource> saveBulkDataToDiff(@RequestBody Flux<BulkItemResource> body) {
+        final Flux<BulkItem> items = body.map(resource -> new BulkItem(
+                resource.name,
+                resource.side == null ? null : toDiffSide(resource.side),
+                resource.data == null ? null : BinaryData.of(resource.data)));
+        final int processed = processed().getStatusCodeValue();
+        return diffingService
+                .processAll(items)
+                .map(result -> {
+                    final BulkItem item = result.getItem();
+                    final String side = item.getSide() == null ? null : item.getSide().toString().toLowerCase();
+                    return result
+                            .getError()
+                            .map(e -> toBulkItemResultResource(item.getName(), side, e))
+                            .orElseGet(() ->
+                                    new BulkItemResultResource(item.getName(), side, processed, null));
+                });
+    }
+
+    private static DiffSide toDiffSide(String side) {
+        return "left".equals(side) || "right".equals(side) ? DiffSide.valueOf(side.toUpperCase()) : null;
+    }
+
+    private static BulkItemResultResource toBulkItemResultResource(String name, String side, Throwable error) {
+        if (error instanceof IllegalArgumentException) {
+            return new BulkItemResultResource(name, side, BAD_REQUEST.value(), error.getMessage());
+        } else if (error instanceof RejectedExecutionException) {
+            return new BulkItemResultResource(name, side, SERVICE_UNAVAILABLE.value(), BUSY_ERROR);
+        } else if (error instanceof OptimisticLockingFailureException) {
+            return new BulkItemResultResource(name, side, CONFLICT.value(), CONFLICT_ERROR);
+        }
+        return new BulkItemResultResource(name, side, INTERNAL_SERVER_ERROR.value(), "internal error");
+    }
+
+    /**
+     * Assembles the request body from the incoming network buffers with a single copy.
+     */
+    private static Mono<byte[]> readBytes(Flux<DataBuffer> body) {
+        return DataBufferUtils
+                .join(body)
+                .map(buffer -> {
+                    final byte[] bytes = new byte[buffer.readableByteCount()];
+                    buffer.read(bytes);
+                    DataBufferUtils.release(buffer);
+                    return bytes;
+                });
+    }
+
+    private Mono<ResponseEntity<Object>> saveDataToDiff(
+            String name, String side, String engine, Mono<BinaryData> data) {
+        final Mono<ResponseEntity<Object>> response = data
+                .switchIfEmpty(Mono.error(() -> new IllegalArgumentException("missing data")))
+                .flatMap(binaryData -> {
+                    final DiffSide diffSide = DiffSide.valueOf(side.toUpperCase());
+                    final DiffEngine diffEngine = engine == null ? null : toDiffEngine(engine);
+                    return diffingService.process(name, diffSide, binaryData, diffEngine);
+                })
+                .then(Mono.fromSupplier(this::processed));
+        return withErrorResponses(response);
+    }
+
+    /**
+     * Response of a successful upload: 202 if the case is diffed in the background, 204 if it is not.
+     */
+    private ResponseEntity<Object> processed() {
+        return DiffingService.Mode.ASYNC.equals(diffingService.getMode())
+                ? accepted().build()
+                : noContent().build();
+    }
+
+    private static DiffEngine toDiffEngine(String engine) {
+        try {
+            return DiffEngine.valueOf(engine.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown engine " + engine, e);
+        }
+    }
+
+    private static Mono<ResponseEntity<Object>> withErrorResponses(Mono<ResponseEntity<Object>> response) {
+        return response
                 .onErrorResume(IllegalArgumentException.class, e -> {
                     final Map<String, String> errorBody = ImmutableMap.of("error", e.getMessage());
                     return Mono.just(badRequest().body(errorBody));
+                })
+                .onErrorResume(RejectedExecutionException.class, e -> {
+                    final Map<String, String> errorBody = ImmutableMap.of("error", BUSY_ERROR);
+                    return Mono.just(status(SERVICE_UNAVAILABLE).header(RETRY_AFTER, "1").body(errorBody));
+                })
+                .onErrorResume(OptimisticLockingFailureException.class, e -> {
+                    final Map<String, String> errorBody = ImmutableMap.of("error", CONFLICT_ERROR);
+                    return Mono.just(status(CONFLICT).body(errorBody));
                 });
     }
 
     /**
      * GET endpoint that returns diff results, if present.
+     * <p>
+     * Insights can be requested in pages: up to "limit" insights are returned, starting after the one at the offset
+     * given as "after" cursor. If there are more, the cursor of the next page is returned too.
+     * Edits are not paged: all of them are returned in the first page, the one requested without cursor, and none
+     * in the following ones.
+     * <p>
+     * With "summary" view, just aggregate statistics of the results are returned, which are read
+     * without loading the insights.
+     * <p>
+     * Diff results are negotiated with the Accept header: JSON by default, Smile or CBOR with the same fields,
+     * or the packed binary format of {@link PackedDiffReportWriter}, the most compact one for dense reports.
+     * All of them are written straight from the report. Summaries and errors are not available in the packed format.
      *
      * @param caseName to find diff results of
-     * @return 200 with the diff results, 404 if no case is present with the URI path name
+     * @param view     "full" for the diff results, "summary" for their statistics only
+     * @param after    offset of the last insight already read, if any
+     * @param limit    maximum number of insights to return, all of them if absent
+     * @return 200 with the diff results, 400 if view is unknown or limit is not positive,
+     * 404 if no case is present with the URI path name, 503 if an outdated case cannot be diffed now,
+     * as when its sides do not fit in the memory budget
+     */
+    @RequestMapping(
+            method = GET,
+            path = "/{name}",
+            produces = {
+                    APPLICATION_JSON_VALUE,
+                    WebConfiguration.APPLICATION_SMILE_VALUE,
+                    WebConfiguration.APPLICATION_CBOR_VALUE,
+                    WebConfiguration.APPLICATION_PACKED_REPORT_VALUE})
+    public Mono<ResponseEntity<Object>> getDiffReport(
+            @PathVariable("name") String caseName,
+            @RequestParam(name = "view", defaultValue = "full") String view,
+            @RequestParam(name = "after", required = false) Integer after,
+            @RequestParam(name = "limit", required = false) Integer limit) {
+        if (!"full".equals(view) && !"summary".equals(view)) {
+            final Map<String, String> errorBody = ImmutableMap.of("error", "unknown view " + view);
+            return Mono.just(badRequest().body(errorBody));
+        }
+        if (limit != null && limit <= 0) {
+            final Map<String, String> errorBody = ImmutableMap.of("error", "limit must be positive");
+            return Mono.just(badRequest().body(errorBody));
+        }
+        final Mono<ResponseEntity<Object>> response = "summary".equals(view)
+                ? getDiffSummary(caseName)
+                : getDiffPage(caseName, after, limit);
+        // outdated cases are diffed on read in LAZY mode, which is rejected like uploads when resources are short
+        return response.onErrorResume(RejectedExecutionException.class, e -> {
+            final Map<String, String> errorBody = ImmutableMap.of("error", BUSY_ERROR);
+            return Mono.just(status(SERVICE_UNAVAILABLE).header(RETRY_AFTER, "1").body(errorBody));
+        });
+    }
+
+    private Mono<ResponseEntity<Object>> getDiffPage(String caseName, Integer after, Integer limit) {
+        return diffingService
+                .getReportOf(caseName)
+                .map(report -> ok().<Object>body(toDiffReportPage(report, after, limit)))
+                .defaultIfEmpty(notFound().build());
+    }
+
+    private static DiffReportPage toDiffReportPage(DiffReport report, Integer after, Integer limit) {
+        final int from = after == null ? 0 : report.getInsightIndexAfter(after);
+        final int to = limit == null ? report.getInsightCount()
+                : (int) Math.min(report.getInsightCount(), (long) from + limit);
+        return new DiffReportPage(report, from, to, after == null);
+    }
+
+    private static DiffReportResource toDiffReportResource(DiffReport report) {
+        final String status = report.getStatus().toString().toLowerCase();
+        final DiffInsightResource[] insights = new DiffInsightResource[report.getInsightCount()];
+        for (int i = 0; i < insights.length; i++) {
+            insights[i] = new DiffInsightResource(report.getOffsetAt(i), report.getLengthAt(i));
+        }
+        final DiffEditResource[] edits = report.getEdits().stream()
+                .map(edit -> new DiffEditResource(
+                        edit.getType().toString().toLowerCase(),
+                        edit.getLeftOffset(),
+                        edit.getLeftLength(),
+                        edit.getRightOffset(),
+                        edit.getRightLength()))
+                .toArray(DiffEditResource[]::new);
+        return new DiffReportResource(status, insights, edits);
+    }
+
+    private Mono<ResponseEntity<Object>> getDiffSummary(String caseName) {
+        return diffingService
+                .getSummaryOf(caseName)
+                .map(summary -> ok().<Object>body(new DiffSummaryResource(
+                        summary.getStatus().toString().toLowerCase(),
+                        summary.getDifferingBytes(),
+                        summary.getRunCount(),
+                        summary.getLongestRun(),
+                        summary.getFirstOffset() < 0 ? null : summary.getFirstOffset(),
+                        summary.getLastOffset() < 0 ? null : summary.getLastOffset())))
+                .defaultIfEmpty(notFound().build());
+    }
+
+    /**
+     * GET endpoint that streams the insights of diff results as newline delimited JSON, one insight per line.
+     * Streaming can be resumed with the "after" cursor.
+     * <p>
+     * This endpoint only changes the response format. The whole report is loaded, from the cache or from storage,
+     * just as for the paged report endpoint, so server memory use is the same. Insights are then written from
+     * the report as the client consumes them, without a resource per insight, and clients can process them
+     * line by line instead of parsing a single document.
+     * <p>
+     * It is served on its own URI rather than negotiated on the report one, so that clients accepting any media type
+     * keep getting the JSON report.
+     *
+     * @param caseName to find diff insights of
+     * @param after    offset of the last insight already read, if any
+     * @return 200 with the stream of insights, 404 if no case is present with the URI path name,
+     * 503 if an outdated case cannot be diffed now
      */
-    @RequestMapping(method = GET, path = "/{name}", produces = APPLICATION_JSON_VALUE)
-    public Mono<ResponseEntity<DiffReportResource>> getDiffReport(@PathVariable("name") String caseName) {
+    @RequestMapping(method = GET, path = "/{name}/insights", produces = WebConfiguration.APPLICATION_NDJSON_VALUE)
+    public Mono<ResponseEntity<Flux<DiffInsightResource>>> streamDiffInsights(
+            @PathVariable("name") String caseName,
+            @RequestParam(name = "after", required = false) Integer after) {
         return diffingService
                 .getReportOf(caseName)
                 .map(report -> {
-                    final String status = report.getStatus().toString().toLowerCase();
-                    final List<DiffInsightResource> insights =
-                            report.getInsights().stream()
-                                    .map(insight -> new DiffInsightResource(insight.getOffset(), insight.getLength()))
-                                    .collect(toList());
-                    final DiffReportResource resource =
-                            new DiffReportResource(status, toArray(insights, DiffInsightResource.class));
-                    return ok(resource);
+                    final int from = after == null ? 0 : report.getInsightIndexAfter(after);
+                    final Flux<DiffInsightResource> insights = Flux
+                            .range(from, report.getInsightCount() - from)
+                            .map(i -> new DiffInsightResource(report.getOffsetAt(i), report.getLengthAt(i)));
+                    return ok().body(insights);
                 })
-                .defaultIfEmpty(notFound().build());
+                .defaultIfEmpty(notFound().build())
+                .onErrorResume(RejectedExecutionException.class, e ->
+                        Mono.just(status(SERVICE_UNAVAILABLE).header(RETRY_AFTER, "1").build()));
+    }
+
+    /**
+     * POST endpoint that returns the diff results of many cases at once.
+     * Request body is a JSON array with the case names, up to a thousand of them.
+     * Results are read with a single storage query, rather than one per case as when requested one by one.
+     * <p>
+     * Response body streams the results as they are read, in no particular order, as newline delimited JSON:
+     * case name, status code requesting its results on their own would have responded with,
+     * and the diff results if present. Names of cases that do not exist come last, with a 404 status.
+     *
+     * @param body JSON array of case names
+     * @return 200 with the stream of case results, 400 if no names or too many of them are given,
+     * or if any of them is null or empty
+     */
+    @RequestMapping(
+            method = POST,
+            path = "/_reports",
+            consumes = APPLICATION_JSON_VALUE,
+            produces = WebConfiguration.APPLICATION_NDJSON_VALUE)
+    public Mono<ResponseEntity<Flux<CaseReportResource>>> getDiffReports(@RequestBody Mono<List<String>> body) {
+        return body
+                .filter(names -> !names.isEmpty() && names.size() <= MAX_REPORT_NAMES)
+                // checked before responding, as a bad name found while streaming could not change the status anymore
+                .filter(names -> names.stream().noneMatch(name -> name == null || name.isEmpty()))
+                .map(names -> {
+                    final Flux<CaseReportResource> reports = diffingService
+                            .getReportsOf(names)
+                            .map(caseReport -> caseReport
+                                    .getReport()
+                                    .map(report -> new CaseReportResource(
+                                            caseReport.getName(), OK.value(), toDiffReportResource(report)))
+                                    .orElseGet(() ->
+                                            new CaseReportResource(caseReport.getName(), NOT_FOUND.value(), null)));
+                    return ok().body(reports);
+                })
+                .defaultIfEmpty(badRequest().build());
     }
 
 }
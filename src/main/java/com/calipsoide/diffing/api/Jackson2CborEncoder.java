@@ -0,0 +1,28 @@
+package com.calipsoide.diffing.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.springframework.http.codec.json.AbstractJackson2Encoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import static com.calipsoide.diffing.api.WebConfiguration.APPLICATION_CBOR;
+
+/**
+ * Encodes response bodies as CBOR, with the same Jackson mapping JSON ones are encoded with.
+ */
+class Jackson2CborEncoder extends AbstractJackson2Encoder {
+
+    /**
+     * @param builder the one JSON mappers are built with, whose settings are applied to a CBOR mapper of its own
+     */
+    Jackson2CborEncoder(Jackson2ObjectMapperBuilder builder) {
+        super(cborMapper(builder), APPLICATION_CBOR);
+    }
+
+    private static ObjectMapper cborMapper(Jackson2ObjectMapperBuilder builder) {
+        final ObjectMapper mapper = new ObjectMapper(new CBORFactory());
+        builder.configure(mapper);
+        return mapper;
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.calipsoide.diffing.api;
+
+import com.calipsoide.diffing.business.DiffEdit;
+import com.calipsoide.diffing.business.DiffReport;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.http.codec.HttpMessageWriter;
+import reactor.core.publisher.Mono;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.calipsoide.diffing.api.WebConfiguration.APPLICATION_PACKED_REPORT;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Writes {@link DiffReportPage} response bodies in a compact binary format, straight from the report.
+ * <p>
+ * Layout is the same as the one insights and edits are stored with, all of it varints:
+ * <ul>
+ * <li>status, as the length of its name followed by the name in lower case ASCII</li>
+ * <li>cursor of the next page, plus one, or zero if there are no more insights</li>
+ * <li>number of insights in the page, followed by a (gap, length) pair per insight, where the gap is the distance
+ * from the end of the previous insight to the offset of the current one, zigzag-encoded</li>
+ * <li>number of edits, followed by a (gap, length) pair for each side per edit, encoded the same way,
+ * or zero past the first page, see {@link DiffReportPage}</li>
+ * </ul>
+ * Insights are sorted and usually close to each other, so most of them take two or three bytes,
+ * instead of the tens of bytes taken by a JSON object.
+ */
+public class PackedDiffReportWriter implements HttpMessageWriter<DiffReportPage> {
+
+    @Override
+    public List<MediaType> getWritableMediaTypes() {
+        return Collections.singletonList(APPLICATION_PACKED_REPORT);
+    }
+
+    @Override
+    public boolean canWrite(ResolvableType elementType, MediaType mediaType) {
+        return DiffReportPage.class.equals(elementType.resolve())
+                && (mediaType == null || APPLICATION_PACKED_REPORT.isCompatibleWith(mediaType));
+    }
+
+    @Override
+    public Mono<Void> write(
+            Publisher<? extends DiffReportPage> input,
+            ResolvableType elementType,
+            MediaType mediaType,
+            ReactiveHttpOutputMessage message,
+            Map<String, Object> hints) {
+        message.getHeaders().setContentType(APPLICATION_PACKED_REPORT);
+        final Mono<DataBuffer> body = Mono
+                .from(input)
+                .map(page -> encode(page, message.bufferFactory()))
+                .doOnNext(buffer -> message.getHeaders().setContentLength(buffer.readableByteCount()));
+        return message.writeWith(body);
+    }
+
+    static DataBuffer encode(DiffReportPage page, DataBufferFactory bufferFactory) {
+        final DiffReport report = page.report;
+        final List<DiffEdit> edits = page.first ? report.getEdits() : Collections.emptyList();
+        final DataBuffer buffer = bufferFactory.allocateBuffer(32 + (page.to - page.from) * 3 + edits.size() * 6);
+        final byte[] status = report.getStatus().toString().toLowerCase().getBytes(US_ASCII);
+        writeVarint(buffer, status.length);
+        buffer.write(status);
+        writeVarint(buffer, page.next == null ? 0 : page.next + 1L);
+        writeVarint(buffer, page.to - page.from);
+        long previousEnd = 0;
+        for (int i = page.from; i < page.to; i++) {
+            final int offset = report.getOffsetAt(i);
+            final int length = report.getLengthAt(i);
+            writeZigzag(buffer, offset - previousEnd);
+            writeVarint(buffer, length);
+            previousEnd = (long) offset + length;
+        }
+        writeVarint(buffer, edits.size());
+        long previousLeftEnd = 0;
+        long previousRightEnd = 0;
+        for (DiffEdit edit : edits) {
+            writeZigzag(buffer, edit.getLeftOffset() - previousLeftEnd);
+            writeVarint(buffer, edit.getLeftLength());
+            writeZigzag(buffer, edit.getRightOffset() - previousRightEnd);
+            writeVarint(buffer, edit.getRightLength());
+            previousLeftEnd = (long) edit.getLeftOffset() + edit.getLeftLength();
+            previousRightEnd = (long) edit.getRightOffset() + edit.getRightLength();
+        }
+        return buffer;
+    }
+
+    private static void writeZigzag(DataBuffer buffer, long value) {
+        writeVarint(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    private static void writeVarint(DataBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.write((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.write((byte) value);
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.calipsoide.diffing.api;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Base64 decoder that takes its input one character at a time, so that encoded data never needs to be held
+ * as a whole in memory.
+ * <p>
+ * It accepts the same input as Guava's {@code BaseEncoding.base64()}, used by
+ * {@link com.calipsoide.diffing.business.BinaryData#read(String)}: standard alphabet, with optional trailing padding.
+ * Invalid input results in an {@link IllegalArgumentException}.
+ */
+class StreamingBase64Decoder {
+
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    private static final byte[] VALUES = new byte[128];
+
+    /**
+     * Decoded bytes are trimmed if the unused end of the output array is larger than this fraction of them (1/8).
+     */
+    private static final int MAX_UNUSED_FRACTION = 8;
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < ALPHABET.length(); i++) {
+            VALUES[ALPHABET.charAt(i)] = (byte) i;
+        }
+    }
+
+    private final int maxInlineLength;
+
+    private byte[] output;
+
+    private int size;
+
+    private int quantum;
+
+    private int count;
+
+    private boolean padding;
+
+    /**
+     * @param sizeHint        expected number of decoded bytes, used to size the output buffer up front
+     * @param maxInlineLength number of decoded bytes up to which they are stored inline, so always trimmed
+     */
+    StreamingBase64Decoder(int sizeHint, int maxInlineLength) {
+        this.output = new byte[Math.max(sizeHint, 16)];
+        this.maxInlineLength = maxInlineLength;
+    }
+
+    void decode(int character) {
+        if (character == '=') {
+            padding = true;
+            return;
+        }
+        checkArgument(!padding, "Unrecognized character: %s", (char) character);
+        checkArgument(character < VALUES.length && VALUES[character] >= 0,
+                "Unrecognized character: %s", (char) character);
+        quantum = quantum << 6 | VALUES[character];
+        if (++count == 4) {
+            ensureCapacity(3);
+            output[size++] = (byte) (quantum >> 16);
+            output[size++] = (byte) (quantum >> 8);
+            output[size++] = (byte) quantum;
+            quantum = 0;
+            count = 0;
+        }
+    }
+
+    /**
+     * Decodes the last incomplete group of characters, if any.
+     * <p>
+     * Decoded bytes are handed over without copying them, in a buffer over the output array, unless too much
+     * of the array is left unused, as when it grew without a size hint, in which case they are trimmed.
+     * Bytes to be stored inline are always trimmed, as storing them takes an array of their exact length:
+     * they are copied once here rather than each time they are read as an array.
+     *
+     * @return all the decoded bytes, from position 0 to limit
+     */
+    ByteBuffer finish() {
+        checkArgument(count != 1, "Invalid input length");
+        if (count == 2) {
+            ensureCapacity(1);
+            output[size++] = (byte) (quantum >> 4);
+        } else if (count == 3) {
+            ensureCapacity(2);
+            output[size++] = (byte) (quantum >> 10);
+            output[size++] = (byte) (quantum >> 2);
+        }
+        count = 0;
+        final boolean trimmed = output.length != size
+                && (size <= maxInlineLength || output.length - size > size / MAX_UNUSED_FRACTION);
+        return ByteBuffer.wrap(trimmed ? Arrays.copyOf(output, size) : output, 0, size);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > output.length) {
+            output = Arrays.copyOf(output, Math.max(size + extra, output.length * 2));
+        }
+    }
+
+}
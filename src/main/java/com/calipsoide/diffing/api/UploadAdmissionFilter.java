@@ -0,0 +1,134 @@
+package com.calipsoide.diffing.api;
+
+import com.calipsoide.diffing.business.MemoryBudget;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.springframework.http.HttpHeaders.RETRY_AFTER;
+import static org.springframework.http.HttpStatus.PAYLOAD_TOO_LARGE;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+/**
+ * Admits side uploads only while their payloads fit in the {@link MemoryBudget}.
+ * <p>
+ * Uploads declaring their length reserve it before their body is read, waiting in the budget queue if needed,
+ * and release it once the response is sent, after their case is saved. Uploads that cannot be admitted are
+ * responded with 503, as when too many diffs are in progress, and the ones larger than the whole budget with 413.
+ * <p>
+ * Chunked uploads, whose length is not known up front, reserve each chunk as it arrives instead, and fail
+ * with a {@link RejectedExecutionException} as soon as one does not fit, which the controller responds with 503 too.
+ * <p>
+ * Bulk uploads are not filtered, since they are not held whole until they are done: instead, each of their items
+ * is reserved once decoded and released once its batch is saved, see
+ * {@link com.calipsoide.diffing.business.DiffingService#processAll(Flux)}.
+ */
+@Component
+public class UploadAdmissionFilter implements WebFilter {
+
+    private static final PathPattern UPLOAD_PATH = new PathPatternParser().parse("/v1/diff/{name}/{side:left|right}");
+
+    private static final String BUSY_ERROR = "too many uploads in progress";
+
+    private static final String TOO_LARGE_ERROR = "payload is larger than the memory budget";
+
+    private final MemoryBudget budget;
+
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public UploadAdmissionFilter(MemoryBudget budget, ObjectMapper objectMapper) {
+        this.budget = budget;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        final ServerHttpRequest request = exchange.getRequest();
+        if (!isUpload(request)) {
+            return chain.filter(exchange);
+        }
+        final long length = request.getHeaders().getContentLength();
+        if (length < 0) {
+            final AtomicLong reserved = new AtomicLong();
+            return chain
+                    .filter(exchange.mutate().request(new ReservingRequest(request, reserved)).build())
+                    .doFinally(signal -> budget.release(reserved.get()));
+        } else if (length > budget.getLimit()) {
+            return reject(exchange.getResponse(), PAYLOAD_TOO_LARGE, TOO_LARGE_ERROR);
+        }
+        return budget
+                .reserve(length)
+                .thenReturn(true)
+                .onErrorResume(RejectedExecutionException.class, e -> Mono.just(false))
+                .flatMap(admitted -> admitted
+                        ? chain.filter(exchange).doFinally(signal -> budget.release(length))
+                        : reject(exchange.getResponse(), SERVICE_UNAVAILABLE, BUSY_ERROR));
+    }
+
+    private static boolean isUpload(ServerHttpRequest request) {
+        final HttpMethod method = request.getMethod();
+        return (HttpMethod.POST.equals(method) || HttpMethod.PATCH.equals(method))
+                && UPLOAD_PATH.matches(request.getPath().pathWithinApplication());
+    }
+
+    private Mono<Void> reject(ServerHttpResponse response, HttpStatus status, String error) {
+        response.setStatusCode(status);
+        response.getHeaders().setContentType(APPLICATION_JSON);
+        if (SERVICE_UNAVAILABLE.equals(status)) {
+            response.getHeaders().set(RETRY_AFTER, "1");
+        }
+        return response.writeWith(Mono.fromCallable(() -> {
+            final byte[] body = objectMapper.writeValueAsBytes(ImmutableMap.of("error", error));
+            return response.bufferFactory().wrap(body);
+        }));
+    }
+
+    /**
+     * Request whose body chunks are reserved from the budget as they arrive.
+     */
+    private class ReservingRequest extends ServerHttpRequestDecorator {
+
+        private final AtomicLong reserved;
+
+        ReservingRequest(ServerHttpRequest request, AtomicLong reserved) {
+            super(request);
+            this.reserved = reserved;
+        }
+
+        @Override
+        public Flux<DataBuffer> getBody() {
+            return super
+                    .getBody()
+                    .doOnNext(buffer -> {
+                        final int bytes = buffer.readableByteCount();
+                        if (!budget.tryReserve(bytes)) {
+                            DataBufferUtils.release(buffer);
+                            throw new RejectedExecutionException("memory budget is exhausted");
+                        }
+                        reserved.addAndGet(bytes);
+                    });
+        }
+
+    }
+
+}
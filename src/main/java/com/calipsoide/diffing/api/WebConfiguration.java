@@ -0,0 +1,76 @@
+package com.calipsoide.diffing.api;
+
+import com.calipsoide.diffing.business.DiffingMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+
+import java.util.Collections;
+
+/**
+ * Customizes the Spring Web Reactive setup of the API.
+ * <p>
+ * Custom readers registered here take precedence over the default JSON codecs for the types they handle.
+ * A JSON encoder and decoder for newline delimited JSON are registered too, writing each element of a stream in its
+ * own line, and reading a stream of elements from the lines of a body.
+ * <p>
+ * Diff reports can be negotiated in binary media types as well: Smile and CBOR, with the same fields as JSON,
+ * and a packed format of varints specific to them. Smile codecs are registered by default, as long as
+ * the Jackson Smile format is available, so only CBOR and the packed format are registered here.
+ */
+@Configuration
+public class WebConfiguration implements WebFluxConfigurer {
+
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    public static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType(APPLICATION_NDJSON_VALUE);
+
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+
+    public static final String APPLICATION_CBOR_VALUE = "application/cbor";
+
+    public static final MediaType APPLICATION_CBOR = MediaType.parseMediaType(APPLICATION_CBOR_VALUE);
+
+    public static final String APPLICATION_PACKED_REPORT_VALUE = "application/x-packed-diff-report";
+
+    public static final MediaType APPLICATION_PACKED_REPORT = MediaType.parseMediaType(APPLICATION_PACKED_REPORT_VALUE);
+
+    private final ObjectMapper objectMapper;
+
+    private final Jackson2ObjectMapperBuilder objectMapperBuilder;
+
+    private final DiffingMetrics metrics;
+
+    private final int gridFsThreshold;
+
+    @Autowired
+    public WebConfiguration(
+            ObjectMapper objectMapper,
+            Jackson2ObjectMapperBuilder objectMapperBuilder,
+            DiffingMetrics metrics,
+            @Value("${diffing.storage.gridfs-threshold}") int gridFsThreshold) {
+        this.objectMapper = objectMapper;
+        this.objectMapperBuilder = objectMapperBuilder;
+        this.metrics = metrics;
+        this.gridFsThreshold = gridFsThreshold;
+    }
+
+    @Override
+    public void configureHttpMessageCodecs(ServerCodecConfigurer configurer) {
+        configurer.customCodecs().reader(new BinaryDataResourceReader(metrics, gridFsThreshold));
+        final Jackson2JsonEncoder ndjsonEncoder = new Jackson2JsonEncoder(objectMapper, APPLICATION_NDJSON);
+        ndjsonEncoder.setStreamingMediaTypes(Collections.singletonList(APPLICATION_NDJSON));
+        configurer.customCodecs().encoder(ndjsonEncoder);
+        configurer.customCodecs().decoder(new Jackson2JsonDecoder(objectMapper, APPLICATION_NDJSON));
+        configurer.customCodecs().encoder(new Jackson2CborEncoder(objectMapperBuilder));
+        configurer.customCodecs().writer(new PackedDiffReportWriter());
+    }
+
+}
@@ -1,27 +1,65 @@
 package com.calipsoide.diffing.business;
 
+import com.google.common.hash.Hashing;
+
+import java.nio.ByteBuffer;
+
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.io.BaseEncoding.base64;
 
 /**
- * Convenient wrapper for byte arrays.
+ * Convenient wrapper for byte arrays and buffers.
  * Represents the binary data on which diffs can be executed.
+ * <p>
+ * Data is backed by a heap or direct {@link ByteBuffer}, possibly a slice of a larger one, which is never copied
+ * nor written: callers handing bytes over must not modify them afterwards, and get read-only views of them.
+ * <p>
+ * Data is identified by a strong content hash (SHA-256), computed only when first needed.
  */
 public class BinaryData {
 
-    private final byte[] bytes;
+    /**
+     * Bytes from position 0 to limit. Its position and limit never change, so it is read with absolute
+     * methods only, or through duplicates.
+     */
+    private final ByteBuffer buffer;
+
+    private volatile String hash;
 
-    private BinaryData(byte[] bytes) {
-        this.bytes = checkNotNull(bytes, "cannot create binary data read no bytes");
+    private BinaryData(ByteBuffer buffer, String hash) {
+        this.buffer = checkNotNull(buffer, "cannot create binary data read no bytes").slice();
+        this.hash = hash;
     }
 
     public static BinaryData empty() {
-        return new BinaryData(new byte[0]);
+        return of(new byte[0]);
     }
 
     public static BinaryData of(byte[] bytes) {
-        return new BinaryData(bytes);
+        return new BinaryData(ByteBuffer.wrap(checkNotNull(bytes, "cannot create binary data read no bytes")), null);
+    }
+
+    /**
+     * Wraps the remaining bytes of a buffer, from its position to its limit, without copying them.
+     *
+     * @param buffer heap or direct buffer, whose position and limit are not changed
+     * @return a new instance of {@link BinaryData} backed by the buffer
+     */
+    public static BinaryData of(ByteBuffer buffer) {
+        return new BinaryData(buffer, null);
+    }
+
+    /**
+     * Wraps bytes whose content hash is already known, for instance because they were stored by it.
+     *
+     * @param bytes binary data
+     * @param hash  content hash of the bytes, as returned by {@link #getHash()}
+     * @return a new instance of {@link BinaryData} wrapping the bytes
+     */
+    public static BinaryData of(byte[] bytes, String hash) {
+        checkNotNull(bytes, "cannot create binary data read no bytes");
+        return new BinaryData(ByteBuffer.wrap(bytes), checkNotNull(hash, "hash required"));
     }
 
     /**
@@ -34,17 +72,63 @@ public class BinaryData {
         return of(base64().decode(data));
     }
 
+    /**
+     * Overwrites a range of the data. Data length cannot change, so the range must be within current data.
+     *
+     * @param offset position of the first overwritten byte
+     * @param patch  bytes to write at that position
+     * @return a new instance of {@link BinaryData} with the range overwritten
+     */
+    public BinaryData patch(int offset, byte[] patch) {
+        checkArgument(offset >= 0 && offset <= getLength() - patch.length, "patch out of bounds");
+        final byte[] patched = new byte[getLength()];
+        buffer.duplicate().get(patched);
+        System.arraycopy(patch, 0, patched, offset, patch.length);
+        return of(patched);
+    }
+
+    /**
+     * Gets the data as an array, for the consumers that need one.
+     * Data backed by a whole heap array, as the one read from arrays, returns that array as is,
+     * while data backed by a slice or a direct buffer is copied into a new one.
+     *
+     * @return the bytes of the data, not to be modified
+     */
     public byte[] getBytes() {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
+        }
+        final byte[] bytes = new byte[getLength()];
+        buffer.duplicate().get(bytes);
         return bytes;
     }
 
+    /**
+     * @return a read-only view of the data, from position 0 to its length, sharing its bytes
+     */
+    public ByteBuffer asByteBuffer() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return SHA-256 hash of the data, as a hex string
+     */
+    public String getHash() {
+        String result = hash;
+        if (result == null) {
+            result = Hashing.sha256().hashBytes(buffer.duplicate()).toString();
+            hash = result;
+        }
+        return result;
+    }
+
     public int getLength() {
-        return bytes.length;
+        return buffer.remaining();
     }
 
     public byte getByteAt(int position) {
-        checkArgument(position >= 0 && position < bytes.length, "invalid position");
-        return bytes[position];
+        checkArgument(position >= 0 && position < getLength(), "invalid position");
+        return buffer.get(position);
     }
 
 }
@@ -0,0 +1,255 @@
+package com.calipsoide.diffing.business;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Implements a block matching diff, in the style of rsync: left side is split in fixed-size blocks, indexed by
+ * a rolling checksum, and a window of the same size slides over right side looking for them. As the checksum of the
+ * window is rolled one byte at a time, right side is scanned in linear time, no matter where data was inserted.
+ * <p>
+ * Candidate blocks with the same checksum are verified by comparing their bytes, as both sides are at hand,
+ * and a verified match is extended byte by byte in both directions, so that edit bounds are exact.
+ * Blocks are only matched in order, so the result is an edit script where unmatched regions of both sides are
+ * reported as edits, with offsets on each side. Data that was moved around shows up as deleted and inserted.
+ * <p>
+ * Index is a sorted array of (checksum, block) keys, reached through a hash table by checksum. A bit set small
+ * enough to stay in CPU caches filters out most of the checksums that are not indexed before the table is read.
+ * The number of candidates verified per position is bounded, so that repetitive data does not make the scan
+ * quadratic.
+ */
+final class BlockDiff {
+
+    private static final int MAX_CANDIDATES = 8;
+
+    private static final int MULTIPLIER = 0x01000193;
+
+    private final int blockSize;
+
+    /**
+     * Factor of the byte leaving the window when it is rolled, the multiplier to the power of the block size.
+     */
+    private final int outFactor;
+
+    /**
+     * @param blockSize length in bytes of the blocks matched between both sides
+     */
+    BlockDiff(int blockSize) {
+        checkArgument(blockSize >= 4, "block size too small");
+        this.blockSize = blockSize;
+        int factor = 1;
+        for (int i = 0; i < blockSize; i++) {
+            factor *= MULTIPLIER;
+        }
+        this.outFactor = factor;
+    }
+
+    /**
+     * Sides are read with absolute methods only, from position 0 to limit, so they can be shared views of any data.
+     *
+     * @return left offset, left length, right offset and right length of each edit, one after the other
+     */
+    int[] diff(ByteBuffer left, ByteBuffer right) {
+        final EditBuffer edits = new EditBuffer();
+        int leftEnd = 0;
+        int rightEnd = 0;
+        while (leftEnd < left.limit() && rightEnd < right.limit() && left.get(leftEnd) == right.get(rightEnd)) {
+            leftEnd++;
+            rightEnd++;
+        }
+        final Index index = new Index(left);
+        final Checksum checksum = new Checksum();
+        int position = rightEnd;
+        if (position + blockSize <= right.limit()) {
+            checksum.reset(right, position);
+        }
+        while (position + blockSize <= right.limit()) {
+            final int match = index.find(checksum.value(), leftEnd, right, position);
+            if (match < 0) {
+                if (position + blockSize < right.limit()) {
+                    checksum.roll(right.get(position), right.get(position + blockSize));
+                }
+                position++;
+                continue;
+            }
+            int leftStart = match;
+            int rightStart = position;
+            while (leftStart > leftEnd && rightStart > rightEnd
+                    && left.get(leftStart - 1) == right.get(rightStart - 1)) {
+                leftStart--;
+                rightStart--;
+            }
+            edits.add(leftEnd, leftStart - leftEnd, rightEnd, rightStart - rightEnd);
+            leftEnd = match + blockSize;
+            rightEnd = position + blockSize;
+            while (leftEnd < left.limit() && rightEnd < right.limit() && left.get(leftEnd) == right.get(rightEnd)) {
+                leftEnd++;
+                rightEnd++;
+            }
+            position = rightEnd;
+            if (position + blockSize <= right.limit()) {
+                checksum.reset(right, position);
+            }
+        }
+        int leftStart = left.limit();
+        int rightStart = right.limit();
+        while (leftStart > leftEnd && rightStart > rightEnd && left.get(leftStart - 1) == right.get(rightStart - 1)) {
+            leftStart--;
+            rightStart--;
+        }
+        edits.add(leftEnd, leftStart - leftEnd, rightEnd, rightStart - rightEnd);
+        return edits.toArray();
+    }
+
+    /**
+     * Polynomial hash of a window of bytes (Rabin-Karp), that can be rolled one byte forward in constant time.
+     */
+    private class Checksum {
+
+        private int value;
+
+        private void reset(ByteBuffer bytes, int from) {
+            value = 0;
+            for (int i = 0; i < blockSize; i++) {
+                value = value * MULTIPLIER + (bytes.get(from + i) & 0xFF);
+            }
+        }
+
+        private void roll(byte out, byte in) {
+            value = value * MULTIPLIER - (out & 0xFF) * outFactor + (in & 0xFF);
+        }
+
+        private int value() {
+            return value;
+        }
+
+    }
+
+    /**
+     * Blocks of the left side, sorted by checksum and then by position, with a hash table from each checksum
+     * to its first block in that order.
+     */
+    private class Index {
+
+        private final ByteBuffer left;
+
+        private final long[] keys;
+
+        private final long[] table;
+
+        private final int tableShift;
+
+        private final long[] filter;
+
+        private final int filterShift;
+
+        private Index(ByteBuffer left) {
+            this.left = left;
+            final int blocks = left.limit() / blockSize;
+            this.keys = new long[blocks];
+            final Checksum checksum = new Checksum();
+            for (int block = 0; block < blocks; block++) {
+                checksum.reset(left, block * blockSize);
+                keys[block] = key(checksum.value(), block);
+            }
+            Arrays.sort(keys);
+            // at least twice as many slots as blocks, so that probe sequences are short
+            final int slots = Math.max(16, Integer.highestOneBit(Math.max(blocks, 1)) << 2);
+            this.table = new long[slots];
+            this.tableShift = Integer.SIZE - Integer.numberOfTrailingZeros(slots);
+            this.filter = new long[Math.max(1, slots >>> 4)];
+            this.filterShift = Integer.SIZE - Integer.numberOfTrailingZeros(filter.length * Long.SIZE);
+            for (int i = 0; i < blocks; i++) {
+                if (i == 0 || keys[i] >>> 32 != keys[i - 1] >>> 32) {
+                    final int bit = filterBitOf((int) (keys[i] >>> 32));
+                    filter[bit >>> 6] |= 1L << bit;
+                    int slot = slotOf((int) (keys[i] >>> 32));
+                    while (table[slot] != 0) {
+                        slot = (slot + 1) & (slots - 1);
+                    }
+                    table[slot] = keys[i] & 0xFFFFFFFF00000000L | (i + 1); // zero is left for empty slots
+                }
+            }
+        }
+
+        private long key(int checksum, int block) {
+            return (checksum & 0xFFFFFFFFL) << 32 | block;
+        }
+
+        private int slotOf(int checksum) {
+            return (checksum * 0x9E3779B9) >>> tableShift;
+        }
+
+        private int filterBitOf(int checksum) {
+            return (checksum * 0x85EBCA6B) >>> filterShift;
+        }
+
+        /**
+         * @return index of the first key with the given checksum, or -1 if there is none
+         */
+        private int firstKeyOf(int checksum) {
+            final int bit = filterBitOf(checksum);
+            if ((filter[bit >>> 6] & 1L << bit) == 0) {
+                return -1;
+            }
+            int slot = slotOf(checksum);
+            while (table[slot] != 0) {
+                if ((int) (table[slot] >>> 32) == checksum) {
+                    return (int) table[slot] - 1;
+                }
+                slot = (slot + 1) & (table.length - 1);
+            }
+            return -1;
+        }
+
+        /**
+         * Finds the first block starting at or after the given left offset with the same bytes as right window.
+         *
+         * @return offset of the block in left side, or -1 if there is none
+         */
+        private int find(int checksum, int leftFrom, ByteBuffer right, int position) {
+            int low = firstKeyOf(checksum);
+            if (low < 0) {
+                return -1;
+            }
+            final long first = key(checksum, (leftFrom + blockSize - 1) / blockSize);
+            if (keys[low] < first) {
+                // gallop over blocks of the same checksum that are behind, then search between the last two steps
+                int step = 1;
+                while (low + step < keys.length && keys[low + step] < first) {
+                    step <<= 1;
+                }
+                int high = Math.min(low + step, keys.length);
+                low += step >>> 1;
+                while (low < high) {
+                    final int middle = (low + high) >>> 1;
+                    if (keys[middle] < first) {
+                        low = middle + 1;
+                    } else {
+                        high = middle;
+                    }
+                }
+            }
+            for (int i = low; i < keys.length && i < low + MAX_CANDIDATES && (int) (keys[i] >>> 32) == checksum; i++) {
+                final int offset = (int) keys[i] * blockSize;
+                if (sameBytes(offset, right, position)) {
+                    return offset;
+                }
+            }
+            return -1;
+        }
+
+        private boolean sameBytes(int offset, ByteBuffer right, int position) {
+            for (int i = 0; i < blockSize; i++) {
+                if (left.get(offset + i) != right.get(position + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.calipsoide.diffing.business;
+
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admits the items of a bulk against the {@link MemoryBudget}, see {@link DiffingService#processAll}.
+ * <p>
+ * Each item reserves the bytes of its data once decoded, before the next one is read, and releases them once
+ * the batch it belongs to is saved. Items that cannot be admitted fail on their own, with the error of the budget.
+ * Batches are closed once they reach a number of items or of bytes, so that the batches being saved and the one
+ * being filled fit in the budget together, and as soon as an item is not admitted, so that the items already
+ * reserved are saved and released rather than waiting for more.
+ * <p>
+ * Whatever is still reserved when the bulk terminates, as when the client goes away, is released then.
+ * Instances hold the state of a single bulk, so they are not to be shared.
+ */
+class BulkAdmission {
+
+    private final MemoryBudget budget;
+
+    private final int maxBatchSize;
+
+    private final long maxBatchBytes;
+
+    private final Set<Item> admitted = ConcurrentHashMap.newKeySet();
+
+    private int batchSize;
+
+    private long batchBytes;
+
+    /**
+     * @param budget        to reserve the bytes of the items from
+     * @param maxBatchSize  maximum number of items of a batch
+     * @param maxBatchBytes number of bytes of the items of a batch from which it is closed
+     */
+    BulkAdmission(MemoryBudget budget, int maxBatchSize, long maxBatchBytes) {
+        this.budget = budget;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * Reserves the bytes of an item, waiting for them to be released if needed.
+     *
+     * @return the item once reserved, or failed if it could not be, never an error
+     */
+    Mono<Item> admit(BulkItem bulkItem) {
+        final Item item = new Item(bulkItem);
+        if (item.bytes == 0) {
+            return Mono.just(item);
+        }
+        admitted.add(item);
+        return budget
+                .reserve(item.bytes)
+                .doOnSuccess(reserved -> item.reserved(budget))
+                .thenReturn(item)
+                .onErrorResume(e -> {
+                    item.error = e;
+                    return Mono.just(item);
+                });
+    }
+
+    /**
+     * Tells whether an item is the last one of its batch, to be called once per item, in order.
+     */
+    boolean closesBatch(Item item) {
+        batchSize++;
+        batchBytes += item.bytes;
+        final boolean closes = batchSize >= maxBatchSize || batchBytes >= maxBatchBytes || item.error != null;
+        if (closes) {
+            batchSize = 0;
+            batchBytes = 0;
+        }
+        return closes;
+    }
+
+    /**
+     * Releases the bytes of the items of a batch, once it is saved.
+     */
+    void release(List<Item> batch) {
+        batch.forEach(this::release);
+    }
+
+    /**
+     * Releases the bytes of all the items still reserved, once the bulk terminates.
+     */
+    void close() {
+        admitted.forEach(this::release);
+    }
+
+    private void release(Item item) {
+        if (admitted.remove(item)) {
+            item.release(budget);
+        }
+    }
+
+    /**
+     * Item of the bulk, along with the outcome of its admission.
+     */
+    static class Item {
+
+        private static final int PENDING = 0;
+
+        private static final int RESERVED = 1;
+
+        private static final int RELEASED = 2;
+
+        private final BulkItem bulkItem;
+
+        private final long bytes;
+
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        private volatile Throwable error;
+
+        Item(BulkItem bulkItem) {
+            this.bulkItem = bulkItem;
+            this.bytes = bulkItem.getData() == null ? 0 : bulkItem.getData().getLength();
+        }
+
+        BulkItem getBulkItem() {
+            return bulkItem;
+        }
+
+        /**
+         * @return why the item was not admitted, null if it was
+         */
+        Throwable getError() {
+            return error;
+        }
+
+        private void reserved(MemoryBudget budget) {
+            if (!state.compareAndSet(PENDING, RESERVED)) {
+                budget.release(bytes); // released before it was reserved, as when the bulk was cancelled meanwhile
+            }
+        }
+
+        private void release(MemoryBudget budget) {
+            if (state.getAndSet(RELEASED) == RESERVED) {
+                budget.release(bytes);
+            }
+        }
+
+    }
+
+}
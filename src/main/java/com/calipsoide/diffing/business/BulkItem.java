@@ -0,0 +1,38 @@
+package com.calipsoide.diffing.business;
+
+/**
+ * Side data to process as part of a bulk, see {@link DiffingService#processAll(reactor.core.publisher.Flux)}.
+ * Items are validated while the bulk is processed, so that an invalid item fails on its own.
+ */
+public class BulkItem {
+
+    private final String name;
+
+    private final DiffSide side;
+
+    private final BinaryData data;
+
+    /**
+     * @param name of the diff case, null if missing
+     * @param side of the data, null if missing or not valid
+     * @param data binary to put in the case, null if missing
+     */
+    public BulkItem(String name, DiffSide side, BinaryData data) {
+        this.name = name;
+        this.side = side;
+        this.data = data;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public DiffSide getSide() {
+        return side;
+    }
+
+    public BinaryData getData() {
+        return data;
+    }
+
+}
@@ -0,0 +1,36 @@
+package com.calipsoide.diffing.business;
+
+import java.util.Optional;
+
+/**
+ * Outcome of processing a {@link BulkItem}: either it succeeded, or it failed with the same errors
+ * as {@link DiffingService#process(String, DiffSide, BinaryData)}.
+ */
+public class BulkItemResult {
+
+    private final BulkItem item;
+
+    private final Throwable error;
+
+    private BulkItemResult(BulkItem item, Throwable error) {
+        this.item = item;
+        this.error = error;
+    }
+
+    static BulkItemResult succeeded(BulkItem item) {
+        return new BulkItemResult(item, null);
+    }
+
+    static BulkItemResult failed(BulkItem item, Throwable error) {
+        return new BulkItemResult(item, error);
+    }
+
+    public BulkItem getItem() {
+        return item;
+    }
+
+    public Optional<Throwable> getError() {
+        return Optional.ofNullable(error);
+    }
+
+}
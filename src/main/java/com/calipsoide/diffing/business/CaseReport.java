@@ -0,0 +1,32 @@
+package com.calipsoide.diffing.business;
+
+import java.util.Optional;
+
+/**
+ * Report of a case found by name among many others, see {@link DiffingService#getReportsOf(java.util.Collection)}.
+ * Report is missing if no case exists with that name.
+ */
+public class CaseReport {
+
+    private final String name;
+
+    private final DiffReport report;
+
+    /**
+     * @param name   of the diff case
+     * @param report of the case, null if missing
+     */
+    public CaseReport(String name, DiffReport report) {
+        this.name = name;
+        this.report = report;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Optional<DiffReport> getReport() {
+        return Optional.ofNullable(report);
+    }
+
+}
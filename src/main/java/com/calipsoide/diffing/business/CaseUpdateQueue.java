@@ -0,0 +1,175 @@
+package com.calipsoide.diffing.business;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.calipsoide.diffing.business.DiffSide.LEFT;
+
+/**
+ * Serializes the side updates of each case, coalescing the ones that queue up.
+ * <p>
+ * Bursts of uploads to the same case would otherwise each load, diff and save the case, racing each other
+ * to save it. Instead, updates of a case are written one after the other, and the ones that arrive while another
+ * one is being written, or within a time window after the first of them arrives, are merged into a single write
+ * with the latest data of each side. Every caller is signalled with the outcome of the write its update is part of.
+ * <p>
+ * Updates are queued per case name, and a case queue is dropped as soon as it is empty, so that updates
+ * of different cases never wait for each other, and memory is held only for the cases being updated.
+ */
+class CaseUpdateQueue {
+
+    /**
+     * Writes the merged updates of a case.
+     */
+    @FunctionalInterface
+    interface Writer {
+
+        /**
+         * @param name      of the case
+         * @param leftData  latest data of the left side, null if it is not updated
+         * @param rightData latest data of the right side, null if it is not updated
+         * @param engine    latest engine to diff the case with, null if it is not changed
+         * @return completion signal once the case is saved
+         */
+        Mono<Void> write(String name, BinaryData leftData, BinaryData rightData, DiffEngine engine);
+
+    }
+
+    private final Duration window;
+
+    private final Writer writer;
+
+    private final ConcurrentMap<String, CaseUpdates> queues = new ConcurrentHashMap<>();
+
+    /**
+     * @param window time the first update of a batch waits for more updates to merge with, zero to merge
+     *               just the ones that queue up while the case is written
+     * @param writer of the merged updates
+     */
+    CaseUpdateQueue(Duration window, Writer writer) {
+        this.window = window;
+        this.writer = writer;
+    }
+
+    /**
+     * Queues an update of a side of a case.
+     *
+     * @param name   of the case
+     * @param side   to update
+     * @param data   to put in the side
+     * @param engine to diff the case with, null to keep the current one
+     * @return completion signal once the update is saved, possibly along with others
+     */
+    Mono<Void> submit(String name, DiffSide side, BinaryData data, DiffEngine engine) {
+        return Mono.defer(() -> {
+            while (true) {
+                final CaseUpdates updates = queues.computeIfAbsent(name, CaseUpdates::new);
+                final Batch batch;
+                final boolean start;
+                synchronized (updates) {
+                    if (updates.dropped) {
+                        continue; // queue was emptied right before, so get a new one
+                    }
+                    start = updates.pending == null && !updates.writing;
+                    if (updates.pending == null) {
+                        updates.pending = new Batch();
+                    }
+                    batch = updates.pending;
+                    batch.add(side, data, engine);
+                    updates.writing |= start;
+                }
+                if (start) {
+                    updates.writeAfter(window);
+                }
+                return batch.result;
+            }
+        });
+    }
+
+    int getQueuedCaseCount() {
+        return queues.size();
+    }
+
+    /**
+     * Queue of a case: whether a batch is being written, and the next batch, open to merge more updates.
+     * All fields are guarded by the instance lock, which is never held while writing.
+     */
+    private class CaseUpdates {
+
+        private final String name;
+
+        private Batch pending;
+
+        private boolean writing;
+
+        private boolean dropped;
+
+        CaseUpdates(String name) {
+            this.name = name;
+        }
+
+        void writeAfter(Duration delay) {
+            final Mono<Long> wait = delay.isZero() ? Mono.just(0L) : Mono.delay(delay);
+            wait.subscribe(tick -> write());
+        }
+
+        private void write() {
+            final Batch batch;
+            synchronized (this) {
+                batch = pending;
+                pending = null;
+            }
+            Mono
+                    .defer(() -> writer.write(name, batch.leftData, batch.rightData, batch.engine))
+                    .doOnTerminate(this::written) // before signalling callers, so they see the queue updated
+                    .subscribe(batch.result);
+        }
+
+        private void written() {
+            final boolean next;
+            synchronized (this) {
+                next = pending != null;
+                if (!next) {
+                    writing = false;
+                    dropped = true;
+                    queues.remove(name, this);
+                }
+            }
+            if (next) {
+                writeAfter(Duration.ZERO); // updates in it waited for the previous write already
+            }
+        }
+
+    }
+
+    /**
+     * Updates merged into a single write, and the outcome of that write shared by all of them.
+     */
+    private static class Batch {
+
+        private final MonoProcessor<Void> result = MonoProcessor.create();
+
+        private BinaryData leftData;
+
+        private BinaryData rightData;
+
+        private DiffEngine engine;
+
+        void add(DiffSide side, BinaryData data, DiffEngine engine) {
+            if (LEFT.equals(side)) {
+                leftData = data;
+            } else {
+                rightData = data;
+            }
+            if (engine != null) {
+                this.engine = engine;
+            }
+        }
+
+    }
+
+}
@@ -3,6 +3,8 @@ package com.calipsoide.diffing.business;
 /**
  * Represents the diff entity.
  * Contains both sides of data, internal persistence ID, external resource ID and related diff results.
+ * Version of the persisted state this entity was loaded from is kept too, to detect concurrent updates.
+ * Every case is diffed with the {@link DiffEngine} it was last requested with, positional by default.
  */
 public class DiffCase {
 
@@ -10,15 +12,28 @@ public class DiffCase {
 
     private String name;
 
+    private long version;
+
+    private DiffEngine engine;
+
     private BinaryData leftData;
 
     private BinaryData rightData;
 
     private DiffReport report;
 
-    private DiffCase(String id, String name, BinaryData leftData, BinaryData rightData, DiffReport report) {
+    private DiffCase(
+            String id,
+            String name,
+            long version,
+            DiffEngine engine,
+            BinaryData leftData,
+            BinaryData rightData,
+            DiffReport report) {
         this.id = id;
         this.name = name;
+        this.version = version;
+        this.engine = engine;
         this.leftData = leftData;
         this.rightData = rightData;
         this.report = report;
@@ -36,6 +51,14 @@ public class DiffCase {
         return name;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public DiffEngine getEngine() {
+        return engine;
+    }
+
     public BinaryData getLeftData() {
         return leftData;
     }
@@ -57,6 +80,8 @@ public class DiffCase {
         return builder()
                 .withId(id)
                 .withName(name)
+                .withVersion(version)
+                .withEngine(engine)
                 .withLeftData(leftData)
                 .withRightData(rightData)
                 .withReport(report);
@@ -68,6 +93,10 @@ public class DiffCase {
 
         private String name;
 
+        private long version;
+
+        private DiffEngine engine = DiffEngine.POSITIONAL;
+
         private BinaryData leftData;
 
         private BinaryData rightData;
@@ -84,6 +113,16 @@ public class DiffCase {
             return this;
         }
 
+        public Builder withVersion(long version) {
+            this.version = version;
+            return this;
+        }
+
+        public Builder withEngine(DiffEngine engine) {
+            this.engine = engine;
+            return this;
+        }
+
         public Builder withLeftData(BinaryData leftData) {
             this.leftData = leftData;
             return this;
@@ -100,7 +139,7 @@ public class DiffCase {
         }
 
         public DiffCase build() {
-            return new DiffCase(id, name, leftData, rightData, report);
+            return new DiffCase(id, name, version, engine, leftData, rightData, report);
         }
 
     }
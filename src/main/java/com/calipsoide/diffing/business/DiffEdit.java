@@ -0,0 +1,56 @@
+package com.calipsoide.diffing.business;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Edit operation that turns a range of the left side into a range of the right side.
+ * Type of the operation is given by which of both ranges is empty.
+ */
+public class DiffEdit {
+
+    public enum Type {
+        INSERT, DELETE, REPLACE
+    }
+
+    private final int leftOffset;
+
+    private final int leftLength;
+
+    private final int rightOffset;
+
+    private final int rightLength;
+
+    public DiffEdit(int leftOffset, int leftLength, int rightOffset, int rightLength) {
+        checkArgument(leftOffset >= 0 && rightOffset >= 0, "offset cannot be negative");
+        checkArgument(leftLength >= 0 && rightLength >= 0, "length cannot be negative");
+        checkArgument(leftLength > 0 || rightLength > 0, "edit cannot be empty");
+        this.leftOffset = leftOffset;
+        this.leftLength = leftLength;
+        this.rightOffset = rightOffset;
+        this.rightLength = rightLength;
+    }
+
+    public Type getType() {
+        if (leftLength == 0) {
+            return Type.INSERT;
+        }
+        return rightLength == 0 ? Type.DELETE : Type.REPLACE;
+    }
+
+    public int getLeftOffset() {
+        return leftOffset;
+    }
+
+    public int getLeftLength() {
+        return leftLength;
+    }
+
+    public int getRightOffset() {
+        return rightOffset;
+    }
+
+    public int getRightLength() {
+        return rightLength;
+    }
+
+}
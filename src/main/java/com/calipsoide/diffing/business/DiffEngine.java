@@ -0,0 +1,27 @@
+package com.calipsoide.diffing.business;
+
+/**
+ * Algorithms available to diff the sides of a case.
+ */
+public enum DiffEngine {
+
+    /**
+     * Compares sides byte by byte at the same positions, reporting the runs of differing bytes as insights.
+     * Only sides of equal length can be compared this way.
+     */
+    POSITIONAL,
+
+    /**
+     * Finds the shortest script of insertions, deletions and replacements that turns left side into right side,
+     * so sides of any length can be compared. See {@link MyersDiff}.
+     */
+    MYERS,
+
+    /**
+     * Matches blocks of left side at any offset of right side, reporting unmatched regions of both sides as edits.
+     * Not as precise as {@link #MYERS}, but it runs in near-linear time, so it is suitable for large sides where
+     * data was inserted or deleted. See {@link BlockDiff}.
+     */
+    BLOCKS
+
+}
@@ -0,0 +1,37 @@
+package com.calipsoide.diffing.business;
+
+/**
+ * Diff job claimed from the queue, see {@link DiffingService.Mode#ASYNC}.
+ */
+public class DiffJob {
+
+    private final String caseName;
+
+    private final long generation;
+
+    private final int attempts;
+
+    /**
+     * @param caseName   of the case to diff
+     * @param generation of the job when claimed, incremented on every upload to the case
+     * @param attempts   failed attempts to diff the case since it was last uploaded to
+     */
+    public DiffJob(String caseName, long generation, int attempts) {
+        this.caseName = caseName;
+        this.generation = generation;
+        this.attempts = attempts;
+    }
+
+    public String getCaseName() {
+        return caseName;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+}
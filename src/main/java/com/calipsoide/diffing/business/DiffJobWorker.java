@@ -0,0 +1,151 @@
+package com.calipsoide.diffing.business;
+
+import com.calipsoide.diffing.persistence.DiffingStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Pool of workers that diff the cases queued in {@link DiffingService.Mode#ASYNC} mode.
+ * <p>
+ * Queue is polled periodically, and on every poll each worker claims and diffs jobs one after the other,
+ * until there are none left. Diffs are computed on the {@link DiffingExecutor} threads, as any other diff.
+ * <p>
+ * A job is claimed for a lease time, and removed once its case is diffed. If the case was queued again
+ * in the meantime, the job is kept to diff it again with the latest sides. If the executor is full,
+ * the job is released to be claimed again on the next poll, and the worker stops claiming until then.
+ * If diffing fails otherwise, as when side data cannot be read, the job is retried after a backoff time that doubles
+ * on every failed attempt, while the worker goes on with other jobs. After a number of failed attempts the job
+ * is dropped, leaving the case outdated until it is uploaded to again or read, which queues it once more.
+ * Jobs claimed by an instance that stops before completing them are claimed again once their lease expires.
+ * <p>
+ * Workers run only in {@link DiffingService.Mode#ASYNC} mode.
+ */
+@Component
+public class DiffJobWorker implements InitializingBean, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(DiffJobWorker.class);
+
+    private static final int MAX_BACKOFF_SHIFT = 16;
+
+    private final DiffingService diffingService;
+
+    private final DiffingStorage diffingStorage;
+
+    private final int workers;
+
+    private final Duration pollInterval;
+
+    private final Duration lease;
+
+    private final int maxAttempts;
+
+    private final Duration retryBackoff;
+
+    private Disposable polling;
+
+    /**
+     * @param workers        number of jobs diffed at once
+     * @param pollIntervalMs milliseconds between queue polls
+     * @param leaseSeconds   seconds a job is claimed for, after which another worker can claim it
+     * @param maxAttempts    failed attempts after which a job is dropped
+     * @param retryBackoffMs milliseconds a job waits to be retried after its first failed attempt
+     */
+    @Autowired
+    DiffJobWorker(
+            DiffingService diffingService,
+            DiffingStorage diffingStorage,
+            @Value("${diffing.jobs.workers}") int workers,
+            @Value("${diffing.jobs.poll-interval-ms}") long pollIntervalMs,
+            @Value("${diffing.jobs.lease-seconds}") long leaseSeconds,
+            @Value("${diffing.jobs.max-attempts}") int maxAttempts,
+            @Value("${diffing.jobs.retry-backoff-ms}") long retryBackoffMs) {
+        checkArgument(workers > 0, "at least one worker is required");
+        checkArgument(pollIntervalMs > 0, "poll interval must be positive");
+        checkArgument(leaseSeconds > 0, "lease must be positive");
+        checkArgument(maxAttempts > 0, "at least one attempt is required");
+        checkArgument(retryBackoffMs > 0, "retry backoff must be positive");
+        this.diffingService = diffingService;
+        this.diffingStorage = diffingStorage;
+        this.workers = workers;
+        this.pollInterval = Duration.ofMillis(pollIntervalMs);
+        this.lease = Duration.ofSeconds(leaseSeconds);
+        this.maxAttempts = maxAttempts;
+        this.retryBackoff = Duration.ofMillis(retryBackoffMs);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (DiffingService.Mode.ASYNC.equals(diffingService.getMode())) {
+            polling = Flux
+                    .interval(pollInterval)
+                    .onBackpressureDrop()
+                    .concatMap(tick -> poll(), 1)
+                    .subscribe();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (polling != null) {
+            polling.dispose();
+        }
+    }
+
+    /**
+     * Lets every worker run jobs until there are none left to claim.
+     *
+     * @return completion signal once workers are done, never an error
+     */
+    Mono<Void> poll() {
+        return Flux
+                .range(0, workers)
+                .flatMap(worker -> runNext().expand(job -> runNext()))
+                .onErrorResume(e -> Mono.empty()) // storage is not available, so try again on the next poll
+                .then();
+    }
+
+    /**
+     * Claims a job and diffs its case.
+     *
+     * @return the job once run, empty if there is none to claim or the executor is full
+     */
+    private Mono<DiffJob> runNext() {
+        return diffingStorage
+                .claimDiff(lease)
+                .flatMap(job -> diffingService
+                        .diffQueued(job.getCaseName())
+                        .then(Mono.defer(() -> diffingStorage.completeDiff(job)))
+                        .thenReturn(job)
+                        .onErrorResume(RejectedExecutionException.class,
+                                e -> diffingStorage.releaseDiff(job).then(Mono.empty()))
+                        .onErrorResume(e -> retryLater(job, e).thenReturn(job)));
+    }
+
+    /**
+     * Retries a failed job after a backoff time, or drops it once it failed too many times.
+     */
+    private Mono<Void> retryLater(DiffJob job, Throwable error) {
+        final int attempts = job.getAttempts() + 1;
+        if (attempts >= maxAttempts) {
+            log.error("Dropping diff job of case {} after {} failed attempts", job.getCaseName(), attempts, error);
+            return diffingStorage.completeDiff(job);
+        }
+        final Duration backoff = retryBackoff.multipliedBy(1L << Math.min(attempts - 1, MAX_BACKOFF_SHIFT));
+        log.warn("Diff job of case {} failed, retrying in {}", job.getCaseName(), backoff, error);
+        return diffingStorage.retryDiff(job, backoff);
+    }
+
+}
@@ -1,46 +1,206 @@
 package com.calipsoide.diffing.business;
 
-import com.google.common.collect.ImmutableList;
-
+import java.util.AbstractList;
 import java.util.List;
-import java.util.Optional;
+import java.util.RandomAccess;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Represents the diff results, providing {@link Status} and a list of {@link DiffInsight}s if applicable.
+ * Reports of the {@link DiffEngine#MYERS} engine provide a list of {@link DiffEdit}s instead.
+ * <p>
+ * Reports can hold hundreds of thousands of insights, so they are kept packed in a single array
+ * of (offset, length) pairs instead of one object per insight. {@link #getInsights()} is a read-only view
+ * over that array, while {@link #getOffsetAt(int)} and {@link #getLengthAt(int)} read it without allocating.
+ * Aggregate statistics are kept along as a {@link DiffSummary}, for clients that do not need every insight.
  */
 public class DiffReport {
 
     public enum Status {
-        EQUAL, LENGTH_MISMATCH, NOT_EQUAL
+        EQUAL, LENGTH_MISMATCH, NOT_EQUAL,
+        /**
+         * Diff is queued to be computed in the background, see {@link DiffingService.Mode#ASYNC}.
+         */
+        PENDING
     }
 
+    private static final int[] NO_RUNS = new int[0];
+
     private final Status status;
 
-    private final List<DiffInsight> insights;
+    private final int[] runs;
+
+    private final int[] edits;
+
+    private final DiffSummary summary;
 
-    private DiffReport(Status status, List<DiffInsight> insights) {
+    private DiffReport(Status status, int[] runs, int[] edits, DiffSummary summary) {
         this.status = status;
-        this.insights = insights;
+        this.runs = runs;
+        this.edits = edits;
+        this.summary = summary;
     }
 
     public static DiffReport of(Status status) {
-        return new DiffReport(status, ImmutableList.of());
+        checkNotNull(status, "diff report status required");
+        return new DiffReport(status, NO_RUNS, NO_RUNS, new DiffSummary(status, 0, 0, 0, -1, -1));
     }
 
     public static DiffReport of(Status status, List<DiffInsight> insights) {
-        return new DiffReport(
-                checkNotNull(status, "diff report status required"),
-                Optional.ofNullable(insights).orElseGet(ImmutableList::of));
+        checkNotNull(status, "diff report status required");
+        if (insights == null || insights.isEmpty()) {
+            return of(status);
+        }
+        final int[] runs = new int[insights.size() * 2];
+        int i = 0;
+        for (DiffInsight insight : insights) {
+            runs[i++] = insight.getOffset();
+            runs[i++] = insight.getLength();
+        }
+        return of(status, runs);
+    }
+
+    /**
+     * Creates a report from packed insights. The array is not copied, so it must not be modified afterwards.
+     * Its {@link DiffSummary} is computed in the same pass that validates the insights.
+     *
+     * @param status of the diff
+     * @param runs   offset and length of each insight, one after the other
+     * @return a new instance of {@link DiffReport}
+     */
+    public static DiffReport of(Status status, int[] runs) {
+        checkNotNull(status, "diff report status required");
+        checkNotNull(runs, "insights required");
+        checkArgument(runs.length % 2 == 0, "insights must be (offset, length) pairs");
+        long differingBytes = 0;
+        int longestRun = 0;
+        for (int i = 0; i < runs.length; i += 2) {
+            checkArgument(runs[i] >= 0 && runs[i + 1] >= 0, "insight offset and length cannot be negative");
+            differingBytes += runs[i + 1];
+            longestRun = Math.max(longestRun, runs[i + 1]);
+        }
+        final int count = runs.length / 2;
+        final DiffSummary summary = count == 0
+                ? new DiffSummary(status, 0, 0, 0, -1, -1)
+                : new DiffSummary(status, differingBytes, count, longestRun,
+                runs[0], runs[runs.length - 2] + Math.max(runs[runs.length - 1] - 1, 0));
+        return new DiffReport(status, runs, NO_RUNS, summary);
+    }
+
+    /**
+     * Creates a report from packed edits. The array is not copied, so it must not be modified afterwards.
+     * Its {@link DiffSummary} is computed in the same pass that validates the edits.
+     *
+     * @param status of the diff
+     * @param edits  left offset, left length, right offset and right length of each edit, one after the other
+     * @return a new instance of {@link DiffReport}
+     */
+    public static DiffReport ofEdits(Status status, int[] edits) {
+        checkNotNull(status, "diff report status required");
+        checkNotNull(edits, "edits required");
+        checkArgument(edits.length % 4 == 0, "edits must be (left offset, left length, right offset, right length)");
+        long differingBytes = 0;
+        int longestRun = 0;
+        for (int i = 0; i < edits.length; i += 4) {
+            checkArgument(edits[i] >= 0 && edits[i + 1] >= 0 && edits[i + 2] >= 0 && edits[i + 3] >= 0,
+                    "edit offsets and lengths cannot be negative");
+            final int length = Math.max(edits[i + 1], edits[i + 3]);
+            differingBytes += length;
+            longestRun = Math.max(longestRun, length);
+        }
+        final int count = edits.length / 4;
+        final DiffSummary summary = count == 0
+                ? new DiffSummary(status, 0, 0, 0, -1, -1)
+                : new DiffSummary(status, differingBytes, count, longestRun,
+                edits[0], edits[edits.length - 4] + Math.max(edits[edits.length - 3] - 1, 0));
+        return new DiffReport(status, NO_RUNS, edits, summary);
     }
 
     public List<DiffInsight> getInsights() {
-        return insights;
+        return new InsightsView();
+    }
+
+    public int getInsightCount() {
+        return runs.length / 2;
+    }
+
+    public int getOffsetAt(int index) {
+        checkElementIndex(index, getInsightCount());
+        return runs[index * 2];
+    }
+
+    public int getLengthAt(int index) {
+        checkElementIndex(index, getInsightCount());
+        return runs[index * 2 + 1];
+    }
+
+    /**
+     * Finds where to resume reading insights, as they are sorted by offset.
+     *
+     * @param offset of the last insight already read
+     * @return index of the first insight starting after the given offset, the insight count if there is none
+     */
+    public int getInsightIndexAfter(int offset) {
+        int low = 0;
+        int high = getInsightCount();
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (runs[middle * 2] <= offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public List<DiffEdit> getEdits() {
+        return new EditsView();
+    }
+
+    public int getEditCount() {
+        return edits.length / 4;
     }
 
     public Status getStatus() {
         return status;
     }
 
+    public DiffSummary getSummary() {
+        return summary;
+    }
+
+    private class InsightsView extends AbstractList<DiffInsight> implements RandomAccess {
+
+        @Override
+        public DiffInsight get(int index) {
+            return new DiffInsight(getOffsetAt(index), getLengthAt(index));
+        }
+
+        @Override
+        public int size() {
+            return getInsightCount();
+        }
+
+    }
+
+    private class EditsView extends AbstractList<DiffEdit> implements RandomAccess {
+
+        @Override
+        public DiffEdit get(int index) {
+            checkElementIndex(index, getEditCount());
+            final int i = index * 4;
+            return new DiffEdit(edits[i], edits[i + 1], edits[i + 2], edits[i + 3]);
+        }
+
+        @Override
+        public int size() {
+            return getEditCount();
+        }
+
+    }
+
 }
@@ -0,0 +1,110 @@
+package com.calipsoide.diffing.business;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * In-process cache of diff reports, keyed by case name.
+ * <p>
+ * Reports only change when a side is processed, while they are read far more often than that,
+ * so keeping the latest ones in memory saves most database round-trips on reads.
+ * The cache is bounded by weight, where each report weighs one unit plus one per insight or edit,
+ * so that a few huge reports cannot take as much memory as many small ones.
+ * Least recently used entries are evicted first. Hits, misses and evictions are exported through
+ * {@link DiffingMetrics}.
+ * <p>
+ * Entries also expire some time after being written, which bounds how stale a report can be
+ * when the case is updated by another instance of the application.
+ * <p>
+ * Reports read from storage are only cached if no report of the same case was put or invalidated since the read
+ * started, so that a slow read never replaces a newer report with the one it read. To do so, writes bump
+ * a generation counter of the case, which readers take before reading and check when filling the cache.
+ * Counters are shared by cases whose names hash alike, so that they take a fixed amount of memory:
+ * a write to a case may then keep a read of another one from being cached, which is just a later cache miss.
+ */
+@Component
+public class DiffReportCache {
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final Cache<String, DiffReport> cache;
+
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    /**
+     * @param maxWeight  maximum total weight of the cached reports
+     * @param ttlSeconds time after which a cached report expires
+     * @param metrics    where cache statistics are exported
+     */
+    @Autowired
+    DiffReportCache(
+            @Value("${diffing.cache.max-weight}") long maxWeight,
+            @Value("${diffing.cache.ttl-seconds}") long ttlSeconds,
+            DiffingMetrics metrics) {
+        checkArgument(maxWeight > 0, "cache max weight must be positive");
+        checkArgument(ttlSeconds > 0, "cache TTL must be positive");
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((String name, DiffReport report) -> 1 + report.getInsightCount() + report.getEditCount())
+                .expireAfterWrite(ttlSeconds, SECONDS)
+                .recordStats()
+                .build();
+        metrics.monitorReportCache(cache);
+    }
+
+    Optional<DiffReport> get(String caseName) {
+        return Optional.ofNullable(cache.getIfPresent(caseName));
+    }
+
+    /**
+     * Caches the latest report of a case, as just written to storage.
+     */
+    void put(String caseName, DiffReport report) {
+        generations.incrementAndGet(stripeOf(caseName));
+        cache.put(caseName, report);
+    }
+
+    void invalidate(String caseName) {
+        generations.incrementAndGet(stripeOf(caseName));
+        cache.invalidate(caseName);
+    }
+
+    /**
+     * @return the current generation of a case, to be taken before reading its report from storage
+     */
+    long generation(String caseName) {
+        return generations.get(stripeOf(caseName));
+    }
+
+    /**
+     * Caches a report read from storage, unless the case was written since the given generation was taken,
+     * as the report read may be older than the one written then.
+     *
+     * @return true if the report was cached
+     */
+    boolean putIfCurrent(String caseName, DiffReport report, long generation) {
+        // checked and inserted under the lock of the entry, so that a concurrent put or invalidate
+        // either bumps the generation before the check or writes the entry after the insert
+        final DiffReport cached = cache.asMap().computeIfAbsent(
+                caseName, name -> generations.get(stripeOf(name)) == generation ? report : null);
+        return cached == report;
+    }
+
+    private static int stripeOf(String caseName) {
+        return Math.floorMod(caseName.hashCode(), GENERATION_STRIPES);
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+}
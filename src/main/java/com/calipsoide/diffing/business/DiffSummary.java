@@ -0,0 +1,77 @@
+package com.calipsoide.diffing.business;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Aggregate statistics of a {@link DiffReport}, telling how different both sides are without listing every run.
+ * <p>
+ * For reports of edits, each edit counts as a run as long as the larger of its sides,
+ * and offsets are the ones of left side.
+ */
+public class DiffSummary {
+
+    private final DiffReport.Status status;
+
+    private final long differingBytes;
+
+    private final int runCount;
+
+    private final int longestRun;
+
+    private final int firstOffset;
+
+    private final int lastOffset;
+
+    /**
+     * @param status         of the diff
+     * @param differingBytes total length of the runs
+     * @param runCount       number of runs
+     * @param longestRun     length of the longest run, zero if there is none
+     * @param firstOffset    offset of the first differing byte, -1 if there is none
+     * @param lastOffset     offset of the last differing byte, -1 if there is none
+     */
+    public DiffSummary(
+            DiffReport.Status status,
+            long differingBytes,
+            int runCount,
+            int longestRun,
+            int firstOffset,
+            int lastOffset) {
+        checkArgument(differingBytes >= 0, "differing bytes cannot be negative");
+        checkArgument(runCount >= 0, "run count cannot be negative");
+        checkArgument(longestRun >= 0, "longest run cannot be negative");
+        checkArgument(firstOffset >= -1 && lastOffset >= firstOffset, "invalid differing offsets");
+        this.status = checkNotNull(status, "diff summary status required");
+        this.differingBytes = differingBytes;
+        this.runCount = runCount;
+        this.longestRun = longestRun;
+        this.firstOffset = firstOffset;
+        this.lastOffset = lastOffset;
+    }
+
+    public DiffReport.Status getStatus() {
+        return status;
+    }
+
+    public long getDifferingBytes() {
+        return differingBytes;
+    }
+
+    public int getRunCount() {
+        return runCount;
+    }
+
+    public int getLongestRun() {
+        return longestRun;
+    }
+
+    public int getFirstOffset() {
+        return firstOffset;
+    }
+
+    public int getLastOffset() {
+        return lastOffset;
+    }
+
+}
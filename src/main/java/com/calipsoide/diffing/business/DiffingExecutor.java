@@ -0,0 +1,102 @@
+package com.calipsoide.diffing.business;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Bounded pool of threads where CPU-bound diff computations are run.
+ * <p>
+ * Diffing a big payload can take a long time, and doing it on an HTTP event loop thread would stall every other
+ * request served by that loop. This executor keeps that work on a fixed number of dedicated threads,
+ * with a limited queue of pending tasks. Once the queue is full, new tasks are rejected right away
+ * with a {@link RejectedExecutionException}, so callers can fail fast instead of piling up work.
+ * <p>
+ * Pool usage (active, queued, completed and rejected tasks) is exposed for monitoring purposes,
+ * and registered in {@link DiffingMetrics}.
+ */
+@Component
+public class DiffingExecutor implements DisposableBean {
+
+    private final ThreadPoolExecutor executor;
+
+    private final Scheduler scheduler;
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * @param threads    number of threads running diff computations
+     * @param queueLimit maximum number of diff computations waiting for a thread
+     * @param metrics    where pool usage is registered
+     */
+    @Autowired
+    DiffingExecutor(
+            @Value("${diffing.executor.threads}") int threads,
+            @Value("${diffing.executor.queue-limit}") int queueLimit,
+            DiffingMetrics metrics) {
+        checkArgument(threads > 0, "at least one thread is required");
+        checkArgument(queueLimit > 0, "queue limit must be positive");
+        this.executor = new ThreadPoolExecutor(
+                threads, threads, 0, MILLISECONDS,
+                new ArrayBlockingQueue<>(queueLimit),
+                new DiffingThreadFactory(),
+                (task, pool) -> {
+                    rejectedCount.incrementAndGet();
+                    throw new RejectedExecutionException("diffing queue is full");
+                });
+        this.scheduler = Schedulers.fromExecutorService(executor);
+        metrics.gaugeExecutor(this);
+    }
+
+    Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    public long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.dispose();
+    }
+
+    private static class DiffingThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            final Thread thread = new Thread(task, "diffing-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
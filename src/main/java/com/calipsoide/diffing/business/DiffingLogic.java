@@ -1,23 +1,93 @@
 package com.calipsoide.diffing.business;
 
 import com.calipsoide.diffing.business.DiffReport.Status;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import static com.calipsoide.diffing.business.DiffReport.Status.*;
-import static java.util.stream.IntStream.range;
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
 
 /**
  * Encapsulates the diff logic that this application applies on two streams of binary data.
  * Therefore, if API contract stays the same, diff logic could be evolved in complexity without
  * changing the rest of the system.
+ * <p>
+ * Comparison is done a word (8 bytes) at a time: both sides are read as little-endian longs, so XOR-ing them
+ * leaves non-zero bytes exactly where data differs, and trailing-zero counts on a per-byte mask give the
+ * boundaries of every difference run without looking at bytes one by one. Runs are collected in a primitive
+ * buffer, so no object is allocated while scanning.
+ * <p>
+ * Sides bigger than a configurable threshold are split in chunks that are diffed in parallel on the
+ * common {@link ForkJoinPool}. Chunk results are merged back in order, joining runs that cross a chunk
+ * boundary, so the report is exactly the same as the one produced by a sequential scan.
+ * <p>
+ * Sides can also be diffed with the {@link DiffEngine#MYERS} engine, which finds inserted and deleted data
+ * too, at a higher cost bounded by a maximum edit distance and a time budget (see {@link MyersDiff}),
+ * or with the {@link DiffEngine#BLOCKS} engine, which does it in near-linear time (see {@link BlockDiff}).
  */
 @Component
 class DiffingLogic {
 
+    private static final int WORD_SIZE = Long.BYTES;
+
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private static final int DEFAULT_PARALLEL_THRESHOLD = 8 * 1024 * 1024;
+
+    private static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private static final int DEFAULT_MAX_EDIT_DISTANCE = 10000;
+
+    private static final long DEFAULT_EDIT_TIMEOUT_MILLIS = 1000;
+
+    private static final int DEFAULT_BLOCK_SIZE = 64;
+
+    private final int parallelThreshold;
+
+    private final int chunkSize;
+
+    private final MyersDiff myersDiff;
+
+    private final BlockDiff blockDiff;
+
+    DiffingLogic() {
+        this(DEFAULT_PARALLEL_THRESHOLD, DEFAULT_CHUNK_SIZE);
+    }
+
+    DiffingLogic(int parallelThreshold, int chunkSize) {
+        this(parallelThreshold, chunkSize, DEFAULT_MAX_EDIT_DISTANCE, DEFAULT_EDIT_TIMEOUT_MILLIS, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param parallelThreshold minimum side length (in bytes) for the diff to run in parallel
+     * @param chunkSize         maximum length (in bytes) of the chunks diffed by each parallel task
+     * @param maxEditDistance   maximum number of inserted and deleted bytes searched for by the edit diff
+     * @param editTimeoutMillis time budget of each edit diff
+     * @param blockSize         length (in bytes) of the blocks matched by the block diff
+     */
+    @Autowired
+    DiffingLogic(
+            @Value("${diffing.logic.parallel-threshold}") int parallelThreshold,
+            @Value("${diffing.logic.chunk-size}") int chunkSize,
+            @Value("${diffing.logic.max-edit-distance}") int maxEditDistance,
+            @Value("${diffing.logic.edit-timeout-ms}") long editTimeoutMillis,
+            @Value("${diffing.logic.block-size}") int blockSize) {
+        checkArgument(chunkSize >= 2 * WORD_SIZE, "chunk size too small");
+        this.parallelThreshold = parallelThreshold;
+        this.chunkSize = chunkSize;
+        this.myersDiff = new MyersDiff(maxEditDistance, editTimeoutMillis);
+        this.blockDiff = new BlockDiff(blockSize);
+    }
+
     /**
      * Implements the diff algorithm between two binary data instances.
      * <p>
@@ -33,52 +103,250 @@ class DiffingLogic {
     DiffReport diff(BinaryData leftData, BinaryData rightData) {
         if (leftData.getLength() == rightData.getLength()) {
             final int length = leftData.getLength();
-            final DiffCounter counter = new DiffCounter();
-            range(0, length)
-                    .mapToObj(index -> leftData.getByteAt(index) == rightData.getByteAt(index))
-                    .forEach(counter::count);
-            final List<DiffInsight> insights = counter.results();
-            final Status status = insights.isEmpty() ? EQUAL : NOT_EQUAL;
-            return DiffReport.of(status, insights);
+            final ByteBuffer left = words(leftData);
+            final ByteBuffer right = words(rightData);
+            final RunBuffer runs;
+            if (length >= parallelThreshold) {
+                runs = ForkJoinPool.commonPool().invoke(new ChunkDiffTask(left, right, 0, length));
+            } else {
+                runs = new RunBuffer();
+                scan(left, right, 0, length, runs);
+            }
+            final Status status = runs.size == 0 ? EQUAL : NOT_EQUAL;
+            return DiffReport.of(status, runs.toArray());
         } else {
             return DiffReport.of(LENGTH_MISMATCH);
         }
     }
 
-    private static class DiffCounter {
+    /**
+     * Implements the {@link DiffEngine#MYERS} diff algorithm between two binary data instances.
+     * <p>
+     * Sides of any length are compared. If both sides are equal, report results in status {@link Status#EQUAL}.
+     * In other case, {@link Status#NOT_EQUAL} is returned, along with the edits that turn left side into right side.
+     *
+     * @param leftData
+     * @param rightData
+     * @return a {@link DiffReport} containing diff results
+     */
+    DiffReport editDiff(BinaryData leftData, BinaryData rightData) {
+        final int[] edits = myersDiff.diff(leftData.asByteBuffer(), rightData.asByteBuffer());
+        return DiffReport.ofEdits(edits.length == 0 ? EQUAL : NOT_EQUAL, edits);
+    }
 
-        private List<DiffInsight> insights;
+    /**
+     * Implements the {@link DiffEngine#BLOCKS} diff algorithm between two binary data instances.
+     * <p>
+     * Sides of any length are compared. If both sides are equal, report results in status {@link Status#EQUAL}.
+     * In other case, {@link Status#NOT_EQUAL} is returned, along with the regions of both sides that were not matched.
+     *
+     * @param leftData
+     * @param rightData
+     * @return a {@link DiffReport} containing diff results
+     */
+    DiffReport blockDiff(BinaryData leftData, BinaryData rightData) {
+        final int[] edits = blockDiff.diff(leftData.asByteBuffer(), rightData.asByteBuffer());
+        return DiffReport.ofEdits(edits.length == 0 ? EQUAL : NOT_EQUAL, edits);
+    }
 
-        private DiffInsight current;
+    /**
+     * Updates a report after a range of one of the sides was overwritten, diffing just that range.
+     * <p>
+     * Insights out of the range are kept, the ones crossing its bounds are trimmed, and the ones found
+     * in the range are spliced in between, joining runs that touch at the range bounds.
+     * Cost is proportional to the range length plus the number of insights, no matter the size of the sides.
+     *
+     * @param previous  report of the diff before the range was overwritten
+     * @param leftData  left side, as it is now
+     * @param rightData right side, as it is now
+     * @param from      start of the overwritten range (inclusive)
+     * @param to        end of the overwritten range (exclusive)
+     * @return a {@link DiffReport} containing diff results, same as {@link #diff(BinaryData, BinaryData)} would
+     */
+    DiffReport rediff(DiffReport previous, BinaryData leftData, BinaryData rightData, int from, int to) {
+        checkArgument(previous.getStatus() != LENGTH_MISMATCH && leftData.getLength() == rightData.getLength(),
+                "only sides of equal length can be diffed partially");
+        checkArgument(from >= 0 && from <= to && to <= leftData.getLength(), "invalid range");
+        final int count = previous.getInsightCount();
+        final int first = firstEndingAfter(previous, from);
+        final int last = firstEndingAfter(previous, to);
+        final RunBuffer runs = new RunBuffer(first * 2 + 2);
+        for (int i = 0; i < first; i++) {
+            runs.add(previous.getOffsetAt(i), previous.getLengthAt(i));
+        }
+        if (first < count && previous.getOffsetAt(first) < from) {
+            runs.add(previous.getOffsetAt(first), from - previous.getOffsetAt(first));
+        }
+        final RunBuffer window = new RunBuffer();
+        scan(words(leftData), words(rightData), from, to, window);
+        final RunBuffer tail = new RunBuffer((count - last) * 2 + 2);
+        if (last < count && previous.getOffsetAt(last) < to) {
+            tail.add(to, previous.getOffsetAt(last) + previous.getLengthAt(last) - to);
+        } else if (last < count) {
+            tail.add(previous.getOffsetAt(last), previous.getLengthAt(last));
+        }
+        for (int i = last + 1; i < count; i++) {
+            tail.add(previous.getOffsetAt(i), previous.getLengthAt(i));
+        }
+        runs.append(window).append(tail);
+        return DiffReport.of(runs.size == 0 ? EQUAL : NOT_EQUAL, runs.toArray());
+    }
+
+    /**
+     * @return index of the first insight ending after the given position, or the insight count if there is none
+     */
+    private static int firstEndingAfter(DiffReport report, int position) {
+        int low = 0;
+        int high = report.getInsightCount();
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (report.getOffsetAt(middle) + report.getLengthAt(middle) > position) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
 
-        private int index;
+    /**
+     * @return a view of the data to be read in little endian words, whatever buffer backs it
+     */
+    private static ByteBuffer words(BinaryData data) {
+        return data.asByteBuffer().order(LITTLE_ENDIAN);
+    }
 
-        private DiffCounter() {
-            index = 0;
-            insights = new ArrayList<>();
+    /**
+     * Finds the difference runs between two buffers in range [from, to).
+     * Runs still open when the range ends are closed at its upper bound.
+     * Buffers are read with absolute methods only, so they can be shared by concurrent scans.
+     */
+    private static void scan(ByteBuffer left, ByteBuffer right, int from, int to, RunBuffer runs) {
+        final int wordsEnd = from + ((to - from) & -WORD_SIZE);
+        int runStart = -1;
+        int index = from;
+        for (; index < wordsEnd; index += WORD_SIZE) {
+            final long xor = left.getLong(index) ^ right.getLong(index);
+            // high bit of each byte lane is set if that byte differs
+            final long different = ((xor & LOW_BITS) + LOW_BITS | xor) & HIGH_BITS;
+            if (runStart < 0 ? different == 0 : different == HIGH_BITS) {
+                continue; // whole word keeps the current state, nothing to record
+            }
+            int bit = 0;
+            while (bit < Long.SIZE) {
+                final long pending = (runStart < 0 ? different : ~different & HIGH_BITS) & (-1L << bit);
+                if (pending == 0) {
+                    break;
+                }
+                final int boundary = Long.numberOfTrailingZeros(pending);
+                final int position = index + (boundary >>> 3);
+                if (runStart < 0) {
+                    runStart = position;
+                } else {
+                    runs.add(runStart, position - runStart);
+                    runStart = -1;
+                }
+                bit = boundary + 1;
+            }
+        }
+        for (; index < to; index++) {
+            if (left.get(index) != right.get(index)) {
+                if (runStart < 0) {
+                    runStart = index;
+                }
+            } else if (runStart >= 0) {
+                runs.add(runStart, index - runStart);
+                runStart = -1;
+            }
+        }
+        if (runStart >= 0) {
+            runs.add(runStart, to - runStart);
         }
+    }
+
+    /**
+     * Diffs a range of both sides, splitting it in halves (aligned to words) until chunk size is reached.
+     */
+    private class ChunkDiffTask extends RecursiveTask<RunBuffer> {
+
+        private final ByteBuffer left;
 
-        private void ok() {
-            Optional.ofNullable(current).ifPresent(insights::add);
-            current = null;
+        private final ByteBuffer right;
+
+        private final int from;
+
+        private final int to;
+
+        private ChunkDiffTask(ByteBuffer left, ByteBuffer right, int from, int to) {
+            this.left = left;
+            this.right = right;
+            this.from = from;
+            this.to = to;
         }
 
-        private List<DiffInsight> results() {
-            ok();
-            return insights;
+        @Override
+        protected RunBuffer compute() {
+            if (to - from <= chunkSize) {
+                final RunBuffer runs = new RunBuffer();
+                scan(left, right, from, to, runs);
+                return runs;
+            }
+            final int middle = from + (((to - from) / 2) & -WORD_SIZE);
+            final ChunkDiffTask head = new ChunkDiffTask(left, right, from, middle);
+            final ChunkDiffTask tail = new ChunkDiffTask(left, right, middle, to);
+            head.fork();
+            final RunBuffer tailRuns = tail.compute();
+            return head.join().append(tailRuns);
         }
 
-        private void count(boolean equal) {
-            if (equal) {
-                ok();
-            } else if (current == null) {
-                // new difference found
-                current = new DiffInsight(index, 1);
-            } else {
-                // increment current difference by one in length
-                current = new DiffInsight(current.getOffset(), current.getLength() + 1);
+    }
+
+    /**
+     * Growable buffer of (offset, length) pairs, stored flat in a primitive array.
+     */
+    private static class RunBuffer {
+
+        private int[] runs;
+
+        private int size;
+
+        private RunBuffer() {
+            this(16);
+        }
+
+        private RunBuffer(int capacity) {
+            this.runs = new int[Math.max(capacity, 2)];
+        }
+
+        private void add(int offset, int length) {
+            if (size + 2 > runs.length) {
+                runs = Arrays.copyOf(runs, runs.length * 2);
             }
-            index++;
+            runs[size++] = offset;
+            runs[size++] = length;
+        }
+
+        /**
+         * Appends the runs of the following range. If a run of this buffer ends right where the first
+         * run of the other one starts, the difference crosses the seam and both are joined into one run.
+         */
+        private RunBuffer append(RunBuffer other) {
+            int start = 0;
+            if (size > 0 && other.size > 0 && runs[size - 2] + runs[size - 1] == other.runs[0]) {
+                runs[size - 1] += other.runs[1];
+                start = 2;
+            }
+            final int required = size + other.size - start;
+            if (required > runs.length) {
+                runs = Arrays.copyOf(runs, Math.max(required, runs.length * 2));
+            }
+            System.arraycopy(other.runs, start, runs, size, other.size - start);
+            size = required;
+            return this;
+        }
+
+        private int[] toArray() {
+            return size == runs.length ? runs : Arrays.copyOf(runs, size);
         }
 
     }
@@ -0,0 +1,180 @@
+package com.calipsoide.diffing.business;
+
+import com.google.common.cache.Cache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Records the metrics of every stage of the request path: payload decoding, diffing and storage access,
+ * along with the size of payloads and reports.
+ * <p>
+ * All meters are named with the "diffing" prefix, so that percentiles and histograms are enabled for all of them
+ * at once through the "management.metrics.distribution" properties.
+ */
+@Component
+public class DiffingMetrics {
+
+    private final MeterRegistry registry;
+
+    private final Timer decodeTimer;
+
+    private final Map<DiffSide, DistributionSummary> payloadSizes = new EnumMap<>(DiffSide.class);
+
+    private final DistributionSummary insightCounts;
+
+    private final Map<DiffReport.Status, Counter> statusCounters = new EnumMap<>(DiffReport.Status.class);
+
+    @Autowired
+    public DiffingMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.decodeTimer = Timer
+                .builder("diffing.decode")
+                .description("Time spent decoding base64 payloads")
+                .register(registry);
+        for (DiffSide side : DiffSide.values()) {
+            payloadSizes.put(side, DistributionSummary
+                    .builder("diffing.payload.size")
+                    .description("Size of the data processed for a side")
+                    .baseUnit("bytes")
+                    .tag("side", side.toString().toLowerCase())
+                    .register(registry));
+        }
+        this.insightCounts = DistributionSummary
+                .builder("diffing.report.insights")
+                .description("Number of insights, or edits, of the computed reports")
+                .register(registry);
+        for (DiffReport.Status status : DiffReport.Status.values()) {
+            statusCounters.put(status, Counter
+                    .builder("diffing.reports")
+                    .description("Number of computed reports")
+                    .tag("status", status.toString().toLowerCase())
+                    .register(registry));
+        }
+    }
+
+    /**
+     * Records the time spent decoding a payload, which may be spread over the chunks it was received in.
+     */
+    public void recordDecode(long nanos) {
+        decodeTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordPayload(DiffSide side, int length) {
+        payloadSizes.get(side).record(length);
+    }
+
+    /**
+     * Times a diff computation, recording its resulting report.
+     *
+     * @param engine that computes the diff
+     * @param scope  "full" if whole sides are diffed, "range" if just a range of them is
+     * @param diff   computation to run
+     * @return the report computed
+     */
+    DiffReport timeDiff(DiffEngine engine, String scope, Supplier<DiffReport> diff) {
+        final Timer timer = Timer
+                .builder("diffing.diff")
+                .description("Time spent diffing sides")
+                .tag("engine", engine.toString().toLowerCase())
+                .tag("scope", scope)
+                .register(registry);
+        final DiffReport report = timer.record(diff);
+        insightCounts.record(report.getSummary().getRunCount());
+        statusCounters.get(report.getStatus()).increment();
+        return report;
+    }
+
+    /**
+     * Gauges the bytes reserved from a memory budget, and the reservations waiting for bytes to be released.
+     */
+    void gaugeBudget(MemoryBudget budget) {
+        Gauge
+                .builder("diffing.budget.reserved", budget, MemoryBudget::getReservedBytes)
+                .description("Bytes reserved by the uploads in progress")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge
+                .builder("diffing.budget.queued", budget, MemoryBudget::getQueuedCount)
+                .description("Uploads waiting for bytes of the memory budget to be released")
+                .register(registry);
+    }
+
+    /**
+     * Exports the statistics of the report cache, such as hits, misses and evictions, as "cache" meters
+     * tagged with the "diff.reports" cache name.
+     */
+    void monitorReportCache(Cache<String, DiffReport> cache) {
+        GuavaCacheMetrics.monitor(registry, cache, "diff.reports");
+    }
+
+    /**
+     * Gauges the tasks running and waiting in the diffing executor, and counts the ones it completed and rejected.
+     */
+    void gaugeExecutor(DiffingExecutor executor) {
+        Gauge
+                .builder("diffing.executor.active", executor, DiffingExecutor::getActiveCount)
+                .description("Diff computations running")
+                .register(registry);
+        Gauge
+                .builder("diffing.executor.queued", executor, DiffingExecutor::getQueuedCount)
+                .description("Diff computations waiting for a thread")
+                .register(registry);
+        FunctionCounter
+                .builder("diffing.executor.completed", executor, DiffingExecutor::getCompletedCount)
+                .description("Diff computations completed")
+                .register(registry);
+        FunctionCounter
+                .builder("diffing.executor.rejected", executor, DiffingExecutor::getRejectedCount)
+                .description("Diff computations rejected because the queue was full")
+                .register(registry);
+    }
+
+    /**
+     * Times a storage operation, from subscription to termination, whatever its outcome.
+     *
+     * @param operation name of the operation
+     * @param source    publisher of the operation
+     * @return the same publisher, timed
+     */
+    public <T> Mono<T> timeStorage(String operation, Mono<T> source) {
+        final Timer timer = storageTimer(operation);
+        return Mono.defer(() -> {
+            final Timer.Sample sample = Timer.start(registry);
+            return source.doFinally(signal -> sample.stop(timer));
+        });
+    }
+
+    /**
+     * Same as {@link #timeStorage(String, Mono)}, for operations that stream their results.
+     */
+    public <T> Flux<T> timeStorage(String operation, Flux<T> source) {
+        final Timer timer = storageTimer(operation);
+        return Flux.defer(() -> {
+            final Timer.Sample sample = Timer.start(registry);
+            return source.doFinally(signal -> sample.stop(timer));
+        });
+    }
+
+    private Timer storageTimer(String operation) {
+        return Timer
+                .builder("diffing.storage")
+                .description("Time spent in storage operations")
+                .tag("operation", operation)
+                .register(registry);
+    }
+
+}
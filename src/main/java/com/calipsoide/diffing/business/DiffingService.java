@@ -2,10 +2,33 @@ package com.calipsoide.diffing.business;
 
 import com.calipsoide.diffing.persistence.DiffingStorage;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.core.scheduler.Scheduler;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.calipsoide.diffing.business.DiffReport.Status.EQUAL;
+import static com.calipsoide.diffing.business.DiffReport.Status.PENDING;
 import static com.calipsoide.diffing.business.DiffSide.LEFT;
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
 
 /**
  * Main class of the business layer.
@@ -13,43 +36,373 @@ import static com.calipsoide.diffing.business.DiffSide.LEFT;
 @Service
 public class DiffingService {
 
+    /**
+     * When diffs are computed.
+     */
+    public enum Mode {
+        /**
+         * Every time a side is processed, so reports are always ready to be read.
+         */
+        EAGER,
+        /**
+         * On the first read after a side is processed, so intermediate states of a case are never diffed.
+         */
+        LAZY,
+        /**
+         * In the background, by the {@link DiffJobWorker}s, once a side is processed. Uploads do not wait for
+         * the diff, and reads do not compute it either: the report is {@link DiffReport.Status#PENDING} until then.
+         */
+        ASYNC
+    }
+
+    private static final int MAX_CONFLICT_RETRIES = 3;
+
+    private static final int DEFAULT_BULK_BATCH_SIZE = 500;
+
+    private static final int DEFAULT_BULK_CONCURRENCY = 4;
+
+    private static final Duration DEFAULT_COALESCE_WINDOW = Duration.ZERO;
+
     private final DiffingStorage diffingStorage;
 
     private final DiffingLogic diffingLogic;
 
+    private final Scheduler diffingScheduler;
+
+    private final DiffReportCache reportCache;
+
+    private final Mode mode;
+
+    private final DiffingMetrics diffingMetrics;
+
+    private final int bulkBatchSize;
+
+    private final int bulkConcurrency;
+
+    private final CaseUpdateQueue updateQueue;
+
+    private final MemoryBudget memoryBudget;
+
+    private final ConcurrentMap<String, MonoProcessor<DiffReport>> pendingDiffs = new ConcurrentHashMap<>();
+
     @Autowired
-    DiffingService(DiffingStorage diffingStorage, DiffingLogic diffingLogic) {
+    DiffingService(
+            DiffingStorage diffingStorage,
+            DiffingLogic diffingLogic,
+            DiffingExecutor diffingExecutor,
+            DiffReportCache reportCache,
+            @Value("${diffing.mode}") Mode mode,
+            DiffingMetrics diffingMetrics,
+            @Value("${diffing.bulk.batch-size}") int bulkBatchSize,
+            @Value("${diffing.bulk.concurrency}") int bulkConcurrency,
+            @Value("${diffing.coalesce.window-ms}") long coalesceWindowMs,
+            MemoryBudget memoryBudget) {
+        this(diffingStorage, diffingLogic, diffingExecutor.getScheduler(), reportCache, mode, diffingMetrics,
+                bulkBatchSize, bulkConcurrency, Duration.ofMillis(coalesceWindowMs), memoryBudget);
+    }
+
+    DiffingService(
+            DiffingStorage diffingStorage,
+            DiffingLogic diffingLogic,
+            Scheduler diffingScheduler,
+            DiffReportCache reportCache,
+            Mode mode,
+            DiffingMetrics diffingMetrics) {
+        this(diffingStorage, diffingLogic, diffingScheduler, reportCache, mode, diffingMetrics,
+                DEFAULT_BULK_BATCH_SIZE, DEFAULT_BULK_CONCURRENCY, DEFAULT_COALESCE_WINDOW,
+                new MemoryBudget(Long.MAX_VALUE, 0, 1, diffingMetrics));
+    }
+
+    DiffingService(
+            DiffingStorage diffingStorage,
+            DiffingLogic diffingLogic,
+            Scheduler diffingScheduler,
+            DiffReportCache reportCache,
+            Mode mode,
+            DiffingMetrics diffingMetrics,
+            int bulkBatchSize,
+            int bulkConcurrency,
+            Duration coalesceWindow,
+            MemoryBudget memoryBudget) {
+        checkArgument(bulkBatchSize > 0, "bulk batch size must be positive");
+        checkArgument(bulkConcurrency > 0, "bulk concurrency must be positive");
+        checkArgument(!coalesceWindow.isNegative(), "coalesce window cannot be negative");
         this.diffingStorage = diffingStorage;
         this.diffingLogic = diffingLogic;
+        this.diffingScheduler = diffingScheduler;
+        this.reportCache = reportCache;
+        this.mode = mode;
+        this.diffingMetrics = diffingMetrics;
+        this.bulkBatchSize = bulkBatchSize;
+        this.bulkConcurrency = bulkConcurrency;
+        this.updateQueue = new CaseUpdateQueue(coalesceWindow, this::update);
+        this.memoryBudget = memoryBudget;
     }
 
-    private static Mono<DiffCase> newCase(String name) {
-        return Mono.create(callback ->
-                callback.success(
-                        DiffCase.builder()
-                                .withName(name)
-                                .withLeftData(BinaryData.empty())
-                                .withRightData(BinaryData.empty())
-                                .build()));
+    private static DiffCase newCase(String name) {
+        return DiffCase.builder()
+                .withName(name)
+                .withLeftData(BinaryData.empty())
+                .withRightData(BinaryData.empty())
+                .build();
     }
 
     /**
      * Given a case name, creates or updates the diff with the binary data provided for the specified side.
      * Diff case is persisted in database for further query / data override.
+     * <p>
+     * In {@link Mode#EAGER} mode, diff is computed right away on the {@link DiffingExecutor} threads,
+     * so that event loop threads are not blocked by it. If too many diffs are already waiting there,
+     * this operation fails fast with a {@link java.util.concurrent.RejectedExecutionException}.
+     * Updates of the same case are written one after the other, and the ones that queue up meanwhile are merged,
+     * so that the case is diffed and saved once with the latest data of each side (see {@link CaseUpdateQueue}).
+     * In {@link Mode#LAZY} mode, only the side is stored, and the case report is computed when it is read.
+     * In {@link Mode#ASYNC} mode, the side is stored and the case is queued to be diffed in the background.
+     * <p>
+     * Data is identified by its content hash: if the side already holds the same data, nothing is diffed nor saved,
+     * and if both sides hold the same data they are reported as equal without comparing them byte by byte.
+     * In {@link Mode#EAGER} mode, data is compared with the case as loaded by the write it is merged into, so that
+     * an upload is never skipped because of a side that a previous write still in progress is about to replace.
+     * <p>
+     * Once saved, the new report replaces the cached one. If saving fails, the cached report is dropped,
+     * as it is not known which one is stored. If the case is updated concurrently by another request,
+     * the diff is computed again from the latest state, a few times before failing with an
+     * {@link OptimisticLockingFailureException}.
+     * <p>
+     * Case is diffed with the given {@link DiffEngine}, which is kept for further updates of the case.
+     * If no engine is given, the one the case was last diffed with is used, {@link DiffEngine#POSITIONAL} for
+     * new cases. Data is not compared by hash when an engine is given, so that the case is diffed again with it.
      *
-     * @param name of the diff case
-     * @param side of the data
-     * @param data binary to put in the case
+     * @param name   of the diff case
+     * @param side   of the data
+     * @param data   binary to put in the case
+     * @param engine to diff the case with, null to keep the current one
      * @return completion signal if operation succeeded, error in any other case
      */
+    public Mono<Void> process(String name, DiffSide side, BinaryData data, DiffEngine engine) {
+        final Mono<String> hash = Mono
+                .fromCallable(data::getHash)
+                .subscribeOn(diffingScheduler)
+                .doOnNext(computed -> diffingMetrics.recordPayload(side, data.getLength()));
+        if (Mode.EAGER.equals(mode)) {
+            return hash.flatMap(computed -> updateQueue.submit(name, side, data, engine));
+        }
+        return hash
+                .flatMap(computed -> diffingStorage
+                        .getSideHash(name, side)
+                        .filter(computed::equals)
+                        .hasElement())
+                .filter(unchanged -> !unchanged || engine != null)
+                .flatMap(changed -> store(name, side, data, engine));
+    }
+
+    /**
+     * Same as {@link #process(String, DiffSide, BinaryData, DiffEngine)}, keeping the current engine of the case.
+     */
     public Mono<Void> process(String name, DiffSide side, BinaryData data) {
-        return diffingStorage
-                .getByName(name)
-                .switchIfEmpty(newCase(name))
-                .map(diffCase -> {
-                    final BinaryData leftData = LEFT.equals(side) ? data : diffCase.getLeftData();
-                    final BinaryData rightData = LEFT.equals(side) ? diffCase.getRightData() : data;
-                    final DiffReport report = diffingLogic.diff(leftData, rightData);
+        return process(name, side, data, null);
+    }
+
+    /**
+     * Updates the given sides of a case, as merged by the {@link CaseUpdateQueue}.
+     * Nothing is diffed nor saved if the case exists and neither side changes, unless an engine is given.
+     */
+    private Mono<Void> update(String name, BinaryData newLeftData, BinaryData newRightData, DiffEngine engine) {
+        return Mono
+                .defer(() -> diffingStorage.getByName(name))
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(loaded -> Mono
+                        .fromCallable(() -> {
+                            final DiffCase diffCase = loaded.orElseGet(() -> newCase(name));
+                            final BinaryData leftData = newLeftData != null ? newLeftData : diffCase.getLeftData();
+                            final BinaryData rightData = newRightData != null ? newRightData : diffCase.getRightData();
+                            if (loaded.isPresent()
+                                    && engine == null
+                                    && leftData.getHash().equals(diffCase.getLeftData().getHash())
+                                    && rightData.getHash().equals(diffCase.getRightData().getHash())) {
+                                return null; // nothing to save
+                            }
+                            final DiffEngine caseEngine = engine == null ? diffCase.getEngine() : engine;
+                            return diffCase
+                                    .copy()
+                                    .withEngine(caseEngine)
+                                    .withLeftData(leftData)
+                                    .withRightData(rightData)
+                                    .withReport(diff(leftData, rightData, caseEngine))
+                                    .build();
+                        })
+                        .subscribeOn(diffingScheduler))
+                .flatMap(this::save)
+                // case was changed by someone else since it was loaded, so diff it again with the latest state
+                .retry(MAX_CONFLICT_RETRIES, OptimisticLockingFailureException.class::isInstance)
+                .doOnError(e -> reportCache.invalidate(name))
+                .then();
+    }
+
+    /**
+     * Overwrites a range of the data of one side of an existing case.
+     * <p>
+     * In {@link Mode#EAGER} mode, only the overwritten range is diffed again, and the resulting insights are spliced
+     * into the current report, so diff cost is proportional to the range length rather than to the data size.
+     * If sides are not of equal length, the report is outdated, or the case is diffed with an engine other than
+     * {@link DiffEngine#POSITIONAL}, the whole diff is computed as usual.
+     * In {@link Mode#LAZY} mode, the case report is flagged as outdated instead, and so it is in {@link Mode#ASYNC}
+     * mode, where the case is queued to be diffed in the background too.
+     * <p>
+     * Errors are the same as for {@link #process(String, DiffSide, BinaryData)}. A range out of the current data
+     * results in an {@link IllegalArgumentException}.
+     *
+     * @param name   of the diff case
+     * @param side   of the data
+     * @param offset position of the first overwritten byte
+     * @param bytes  to write at that position
+     * @return true once the case is updated, false if no case exists with that name
+     */
+    public Mono<Boolean> patch(String name, DiffSide side, int offset, byte[] bytes) {
+        return Mono
+                .defer(() -> {
+                    diffingMetrics.recordPayload(side, bytes.length);
+                    return diffingStorage.getByName(name);
+                })
+                .flatMap(diffCase -> Mono
+                        .fromCallable(() -> {
+                            final BinaryData leftData = LEFT.equals(side)
+                                    ? diffCase.getLeftData().patch(offset, bytes)
+                                    : diffCase.getLeftData();
+                            final BinaryData rightData = LEFT.equals(side)
+                                    ? diffCase.getRightData()
+                                    : diffCase.getRightData().patch(offset, bytes);
+                            final DiffReport previous = diffCase.getReport();
+                            final DiffReport report;
+                            if (!Mode.EAGER.equals(mode)) {
+                                report = null;
+                            } else if (previous == null
+                                    || !DiffEngine.POSITIONAL.equals(diffCase.getEngine())
+                                    || leftData.getLength() != rightData.getLength()) {
+                                report = diff(leftData, rightData, diffCase.getEngine());
+                            } else {
+                                report = diffingMetrics.timeDiff(DiffEngine.POSITIONAL, "range", () -> diffingLogic
+                                        .rediff(previous, leftData, rightData, offset, offset + bytes.length));
+                            }
+                            return diffCase
+                                    .copy()
+                                    .withLeftData(leftData)
+                                    .withRightData(rightData)
+                                    .withReport(report)
+                                    .build();
+                        })
+                        .subscribeOn(diffingScheduler))
+                .flatMap(diffCase -> save(diffCase).then(enqueueDiff(name)).thenReturn(true))
+                .retry(MAX_CONFLICT_RETRIES, OptimisticLockingFailureException.class::isInstance)
+                .doOnError(e -> reportCache.invalidate(name))
+                .defaultIfEmpty(false);
+    }
+
+    /**
+     * Processes many side data items, like {@link #process(String, DiffSide, BinaryData)} does for each one,
+     * but in batches, to save most of the per-item storage round trips.
+     * <p>
+     * Items are grouped in batches of up to a configured size, and a few batches are processed at once.
+     * Cases of a batch are loaded with a single query, and all its items of the same case are applied together,
+     * so each case is diffed just once per batch. Then all the changed cases are saved with a single bulk write.
+     * Cases that were modified concurrently since they were loaded are processed one item at a time instead.
+     * <p>
+     * Items reserve their data bytes from the {@link MemoryBudget} before the next one is read, and release them
+     * once their batch is saved, so that bulks hold no more memory than side uploads may (see {@link BulkAdmission}).
+     * <p>
+     * Each item fails on its own, without stopping the rest: with an {@link IllegalArgumentException}
+     * if it is not valid, with a {@link java.util.concurrent.RejectedExecutionException} if its data does not fit
+     * in the memory budget in time, or with the error of the batch it belongs to if storage fails.
+     *
+     * @param items to process, applied in order for each case
+     * @return result of each item, in the same order
+     */
+    public Flux<BulkItemResult> processAll(Flux<BulkItem> items) {
+        // leave room for one more batch being filled while the ones being saved hold their bytes
+        final long maxBatchBytes = Math.max(1, memoryBudget.getLimit() / (bulkConcurrency + 1));
+        return Flux.defer(() -> {
+            final BulkAdmission admission = new BulkAdmission(memoryBudget, bulkBatchSize, maxBatchBytes);
+            return items
+                    .concatMap(admission::admit, 1)
+                    .bufferUntil(admission::closesBatch)
+                    .flatMapSequential(
+                            batch -> processBatch(batch).doFinally(signal -> admission.release(batch)),
+                            bulkConcurrency)
+                    .flatMapIterable(results -> results)
+                    .doFinally(signal -> admission.close());
+        });
+    }
+
+    private Mono<List<BulkItemResult>> processBatch(List<BulkAdmission.Item> batch) {
+        final Map<BulkItem, BulkItemResult> results = new ConcurrentHashMap<>();
+        final Map<String, List<BulkItem>> itemsByName = new LinkedHashMap<>();
+        for (BulkAdmission.Item admitted : batch) {
+            final BulkItem item = admitted.getBulkItem();
+            if (admitted.getError() != null) {
+                results.put(item, BulkItemResult.failed(item, admitted.getError()));
+                continue;
+            }
+            final String problem = item.getName() == null || item.getName().isEmpty() ? "missing name"
+                    : item.getSide() == null ? "missing or invalid side"
+                    : item.getData() == null ? "missing data"
+                    : null;
+            if (problem != null) {
+                results.put(item, BulkItemResult.failed(item, new IllegalArgumentException(problem)));
+            } else {
+                diffingMetrics.recordPayload(item.getSide(), item.getData().getLength());
+                itemsByName.computeIfAbsent(item.getName(), name -> new ArrayList<>()).add(item);
+            }
+        }
+        final Mono<Void> processed = itemsByName.isEmpty() ? Mono.empty() : diffingStorage
+                .getByNames(itemsByName.keySet())
+                .flatMapMany(loaded -> {
+                    final Map<String, DiffCase> casesByName = new HashMap<>();
+                    loaded.forEach(diffCase -> casesByName.put(diffCase.getName(), diffCase));
+                    return Flux
+                            .fromIterable(itemsByName.entrySet())
+                            .flatMap(entry -> {
+                                final List<BulkItem> items = entry.getValue();
+                                return applyAll(entry.getKey(), casesByName.get(entry.getKey()), items)
+                                        .switchIfEmpty(Mono.fromRunnable(() -> succeed(results, items)))
+                                        .onErrorResume(e -> Mono.fromRunnable(() -> fail(results, items, e)));
+                            });
+                })
+                .collectList()
+                .flatMap(updated -> saveAll(updated, itemsByName, results))
+                .onErrorResume(e -> Mono.fromRunnable(
+                        () -> itemsByName.values().forEach(items -> fail(results, items, e))));
+        return processed.then(Mono.fromCallable(() -> batch
+                .stream()
+                .map(admitted -> results.get(admitted.getBulkItem()))
+                .collect(toList())));
+    }
+
+    /**
+     * Applies the data items of a case, in order, and diffs the case once with the resulting sides.
+     *
+     * @return the updated case, empty if no side changed
+     */
+    private Mono<DiffCase> applyAll(String name, DiffCase loaded, List<BulkItem> items) {
+        return Mono
+                .fromCallable(() -> {
+                    final DiffCase diffCase = loaded != null ? loaded : newCase(name);
+                    BinaryData leftData = diffCase.getLeftData();
+                    BinaryData rightData = diffCase.getRightData();
+                    for (BulkItem item : items) {
+                        if (LEFT.equals(item.getSide())) {
+                            leftData = item.getData();
+                        } else {
+                            rightData = item.getData();
+                        }
+                    }
+                    if (loaded != null
+                            && leftData.getHash().equals(loaded.getLeftData().getHash())
+                            && rightData.getHash().equals(loaded.getRightData().getHash())) {
+                        return null; // nothing to save, as when a single unchanged side is processed
+                    }
+                    final DiffReport report =
+                            Mode.EAGER.equals(mode) ? diff(leftData, rightData, diffCase.getEngine()) : null;
                     return diffCase
                             .copy()
                             .withLeftData(leftData)
@@ -57,18 +410,249 @@ public class DiffingService {
                             .withReport(report)
                             .build();
                 })
-                .flatMap(diffingStorage::save)
+                .subscribeOn(diffingScheduler);
+    }
+
+    private Mono<Void> saveAll(
+            List<DiffCase> updated, Map<String, List<BulkItem>> itemsByName, Map<BulkItem, BulkItemResult> results) {
+        if (updated.isEmpty()) {
+            return Mono.empty();
+        }
+        return diffingStorage
+                .saveAll(updated)
+                .flatMapMany(saved -> Flux
+                        .range(0, updated.size())
+                        .<Void>flatMap(i -> {
+                            final DiffCase diffCase = updated.get(i);
+                            final List<BulkItem> items = itemsByName.get(diffCase.getName());
+                            if (saved.get(i)) {
+                                cacheSaved(diffCase);
+                                return enqueueDiff(diffCase.getName())
+                                        .then(Mono.<Void>fromRunnable(() -> succeed(results, items)))
+                                        .onErrorResume(e -> Mono.fromRunnable(() -> fail(results, items, e)));
+                            }
+                            // case was changed by someone else since it was loaded, so go the single item way
+                            reportCache.invalidate(diffCase.getName());
+                            return Flux
+                                    .fromIterable(items)
+                                    .concatMap(item -> process(item.getName(), item.getSide(), item.getData())
+                                            .then(Mono.<Void>fromRunnable(() -> succeed(results, singletonList(item))))
+                                            .onErrorResume(e -> Mono.fromRunnable(
+                                                    () -> fail(results, singletonList(item), e))));
+                        }))
                 .then();
     }
 
+    private static void succeed(Map<BulkItem, BulkItemResult> results, List<BulkItem> items) {
+        items.forEach(item -> results.putIfAbsent(item, BulkItemResult.succeeded(item)));
+    }
+
+    private static void fail(Map<BulkItem, BulkItemResult> results, List<BulkItem> items, Throwable error) {
+        items.forEach(item -> results.putIfAbsent(item, BulkItemResult.failed(item, error)));
+    }
+
+    private Mono<Void> save(DiffCase diffCase) {
+        return diffingStorage
+                .save(diffCase)
+                .doOnSuccess(saved -> cacheSaved(diffCase));
+    }
+
+    private void cacheSaved(DiffCase diffCase) {
+        if (diffCase.getReport() == null) {
+            reportCache.invalidate(diffCase.getName());
+        } else {
+            reportCache.put(diffCase.getName(), diffCase.getReport());
+        }
+    }
+
+    private Mono<Void> store(String name, DiffSide side, BinaryData data, DiffEngine engine) {
+        return diffingStorage
+                .saveSide(name, side, data, engine)
+                .then(enqueueDiff(name))
+                .doFinally(signal -> reportCache.invalidate(name));
+    }
+
+    /**
+     * Queues the case to be diffed in the background, in {@link Mode#ASYNC} mode.
+     * Job is queued once the case is saved, so that it is never diffed before that.
+     */
+    private Mono<Void> enqueueDiff(String name) {
+        return Mode.ASYNC.equals(mode) ? diffingStorage.enqueueDiff(name) : Mono.empty();
+    }
+
     /**
      * Returns the diff results that were previously computed for a case.
+     * Results are served from the {@link DiffReportCache} if present, and cached once read from storage otherwise,
+     * unless the case is written meanwhile, as the report read may be older than the one written then.
+     * <p>
+     * If the stored report is outdated, because a side was processed in {@link Mode#LAZY} mode since,
+     * diff is computed now and stored. Concurrent reads of the same case share a single diff computation,
+     * which reserves the bytes of both sides from the {@link MemoryBudget} until the report is stored.
+     * In {@link Mode#ASYNC} mode, a {@link DiffReport.Status#PENDING} report is returned instead.
      *
      * @param caseName to find results of
      * @return the diff results, if present
      */
     public Mono<DiffReport> getReportOf(String caseName) {
-        return diffingStorage.getReportByCaseName(caseName);
+        return Mono
+                .defer(() -> Mono.justOrEmpty(reportCache.get(caseName)))
+                .switchIfEmpty(Mono.defer(() -> {
+                    final long generation = reportCache.generation(caseName);
+                    return diffingStorage
+                            .getReportByCaseName(caseName)
+                            .doOnNext(report -> reportCache.putIfCurrent(caseName, report, generation))
+                            .switchIfEmpty(diffOnRead(caseName));
+                }));
+    }
+
+    /**
+     * Returns the diff results of many cases at once, like {@link #getReportOf(String)} does for each one,
+     * but reading all the ones that are not cached with a single storage query.
+     * <p>
+     * Cached results come first, then stored ones as they are read, and outdated ones once diffed.
+     * Names of cases that do not exist come last, without report.
+     * Stored results are cached as in {@link #getReportOf(String)}, unless their case is written meanwhile.
+     *
+     * @param caseNames to find results of, repeated ones are returned once
+     * @return the results of each case, in no particular order
+     */
+    public Flux<CaseReport> getReportsOf(Collection<String> caseNames) {
+        return Flux.defer(() -> {
+            final List<CaseReport> cached = new ArrayList<>();
+            final List<String> uncached = new ArrayList<>();
+            final Map<String, Long> generations = new HashMap<>();
+            for (String name : new LinkedHashSet<>(caseNames)) {
+                final Optional<DiffReport> report = reportCache.get(name);
+                if (report.isPresent()) {
+                    cached.add(new CaseReport(name, report.get()));
+                } else {
+                    uncached.add(name);
+                    generations.put(name, reportCache.generation(name));
+                }
+            }
+            if (uncached.isEmpty()) {
+                return Flux.fromIterable(cached);
+            }
+            final Set<String> found = ConcurrentHashMap.newKeySet();
+            final Flux<CaseReport> stored = diffingStorage
+                    .getReportsByCaseNames(uncached)
+                    .doOnNext(caseReport -> found.add(caseReport.getName()))
+                    .flatMap(caseReport -> {
+                        final String name = caseReport.getName();
+                        if (caseReport.getReport().isPresent()) {
+                            reportCache.putIfCurrent(name, caseReport.getReport().get(), generations.get(name));
+                            return Mono.just(caseReport);
+                        }
+                        return diffOnRead(name)
+                                .map(report -> new CaseReport(name, report))
+                                .defaultIfEmpty(new CaseReport(name, null));
+                    });
+            final Flux<CaseReport> missing = Flux.defer(() -> Flux
+                    .fromIterable(uncached)
+                    .filter(name -> !found.contains(name))
+                    .map(name -> new CaseReport(name, null)));
+            return Flux.concat(Flux.fromIterable(cached), stored, missing);
+        });
+    }
+
+    /**
+     * Returns the summary of the diff results that were previously computed for a case.
+     * It is taken from the cached report if present. Otherwise, just the summary is read from storage,
+     * which is much cheaper than reading the whole report, so it is not cached.
+     * <p>
+     * If the stored report is outdated, diff is computed now as in {@link #getReportOf(String)}.
+     *
+     * @param caseName to find results of
+     * @return the summary of diff results, if present
+     */
+    public Mono<DiffSummary> getSummaryOf(String caseName) {
+        return Mono
+                .defer(() -> Mono.justOrEmpty(reportCache.get(caseName)))
+                .map(DiffReport::getSummary)
+                .switchIfEmpty(Mono.defer(() -> diffingStorage
+                        .getSummaryByCaseName(caseName)
+                        .switchIfEmpty(diffOnRead(caseName).map(DiffReport::getSummary))));
+    }
+
+    private Mono<DiffReport> diffOnRead(String name) {
+        if (Mode.ASYNC.equals(mode)) {
+            // diffed in the background, just make sure it is queued, in case its job was lost
+            return diffingStorage
+                    .exists(name)
+                    .filter(exists -> exists)
+                    .flatMap(exists -> diffingStorage.enqueueDiffIfAbsent(name).thenReturn(DiffReport.of(PENDING)));
+        }
+        return Mono.defer(() -> {
+            final MonoProcessor<DiffReport> result = MonoProcessor.create();
+            final MonoProcessor<DiffReport> pending = pendingDiffs.putIfAbsent(name, result);
+            if (pending != null) {
+                return pending;
+            }
+            diffOutdatedCase(name)
+                    .doFinally(signal -> pendingDiffs.remove(name, result))
+                    .subscribe(result);
+            return result;
+        });
+    }
+
+    /**
+     * Diffs a case queued in {@link Mode#ASYNC} mode, storing its report, unless it is up to date already.
+     * Report is not stored if the case changes meanwhile, as it will be queued again then.
+     *
+     * @param name of the case
+     * @return completion signal once the case is diffed
+     */
+    Mono<Void> diffQueued(String name) {
+        return diffOutdatedCase(name).then();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    private Mono<DiffReport> diffOutdatedCase(String name) {
+        return Mono
+                .fromCallable(() -> reportCache.generation(name))
+                .flatMap(generation -> diffingStorage
+                        .getByName(name)
+                        .flatMap(diffCase -> diffOutdatedCase(name, diffCase, generation)));
+    }
+
+    private Mono<DiffReport> diffOutdatedCase(String name, DiffCase diffCase, long generation) {
+        if (diffCase.getReport() != null) {
+            return Mono.just(diffCase.getReport()); // computed by someone else in the meantime
+        }
+        // sides are held until the report is saved, as uploads hold them until the case is saved,
+        // and a case larger than the whole budget is diffed once nothing else holds any of it
+        final long bytes = Math.min(memoryBudget.getLimit(),
+                (long) diffCase.getLeftData().getLength() + diffCase.getRightData().getLength());
+        return memoryBudget
+                .reserve(bytes)
+                .then(Mono.defer(() -> Mono
+                        .fromCallable(() -> diff(diffCase.getLeftData(), diffCase.getRightData(), diffCase.getEngine()))
+                        .subscribeOn(diffingScheduler)
+                        .flatMap(report -> diffingStorage
+                                .saveReport(diffCase, report)
+                                .filter(saved -> saved)
+                                .doOnNext(saved -> reportCache.putIfCurrent(name, report, generation))
+                                .thenReturn(report))
+                        .doFinally(signal -> memoryBudget.release(bytes))));
+    }
+
+    private DiffReport diff(BinaryData leftData, BinaryData rightData, DiffEngine engine) {
+        return diffingMetrics.timeDiff(engine, "full", () -> {
+            if (leftData.getHash().equals(rightData.getHash())) {
+                return DiffReport.of(EQUAL);
+            }
+            switch (engine) {
+                case MYERS:
+                    return diffingLogic.editDiff(leftData, rightData);
+                case BLOCKS:
+                    return diffingLogic.blockDiff(leftData, rightData);
+                default:
+                    return diffingLogic.diff(leftData, rightData);
+            }
+        });
     }
 
 }
@@ -0,0 +1,42 @@
+package com.calipsoide.diffing.business;
+
+import java.util.Arrays;
+
+/**
+ * Growable buffer of edits, stored flat in a primitive array as (left offset, left length, right offset,
+ * right length) quads. Edits must be added in order.
+ */
+final class EditBuffer {
+
+    private int[] edits = new int[16];
+
+    private int size;
+
+    /**
+     * Adds an edit, joining it with the previous one if there is no common byte between them.
+     * Empty edits are ignored.
+     */
+    void add(int leftOffset, int leftLength, int rightOffset, int rightLength) {
+        if (leftLength == 0 && rightLength == 0) {
+            return;
+        }
+        if (size > 0 && edits[size - 4] + edits[size - 3] == leftOffset
+                && edits[size - 2] + edits[size - 1] == rightOffset) {
+            edits[size - 3] += leftLength;
+            edits[size - 1] += rightLength;
+            return;
+        }
+        if (size + 4 > edits.length) {
+            edits = Arrays.copyOf(edits, edits.length * 2);
+        }
+        edits[size++] = leftOffset;
+        edits[size++] = leftLength;
+        edits[size++] = rightOffset;
+        edits[size++] = rightLength;
+    }
+
+    int[] toArray() {
+        return Arrays.copyOf(edits, size);
+    }
+
+}
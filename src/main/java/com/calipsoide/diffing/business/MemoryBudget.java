@@ -0,0 +1,168 @@
+package com.calipsoide.diffing.business;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bounds the memory held by the payloads being uploaded at once.
+ * <p>
+ * Payloads are decoded whole into memory, and held until their case is saved, so a few big concurrent uploads
+ * could exhaust the heap. Uploads reserve the size of their payload from a global budget before they are read,
+ * and give it back once they are done. Reservations that do not fit in the budget left wait in a limited queue,
+ * in arrival order, for a limited time. Once the queue is full, or the time is up, they are rejected
+ * with a {@link RejectedExecutionException}, so callers can fail fast as when the {@link DiffingExecutor} is full.
+ * <p>
+ * Reserved bytes and queued reservations are exposed for monitoring purposes.
+ */
+@Component
+public class MemoryBudget {
+
+    private final long limit;
+
+    private final int queueLimit;
+
+    private final Duration queueTimeout;
+
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+
+    private long reserved;
+
+    /**
+     * @param limit          maximum number of bytes reserved at once
+     * @param queueLimit     maximum number of reservations waiting for bytes to be released
+     * @param queueTimeoutMs maximum milliseconds a reservation waits for bytes to be released
+     * @param metrics        where reserved bytes and queued reservations are gauged
+     */
+    @Autowired
+    public MemoryBudget(
+            @Value("${diffing.admission.budget-bytes}") long limit,
+            @Value("${diffing.admission.queue-limit}") int queueLimit,
+            @Value("${diffing.admission.queue-timeout-ms}") long queueTimeoutMs,
+            DiffingMetrics metrics) {
+        checkArgument(limit > 0, "budget must be positive");
+        checkArgument(queueLimit >= 0, "queue limit cannot be negative");
+        checkArgument(queueTimeoutMs > 0, "queue timeout must be positive");
+        this.limit = limit;
+        this.queueLimit = queueLimit;
+        this.queueTimeout = Duration.ofMillis(queueTimeoutMs);
+        metrics.gaugeBudget(this);
+    }
+
+    /**
+     * Reserves bytes from the budget, waiting for them to be released if needed.
+     *
+     * @param bytes to reserve
+     * @return completion signal once reserved, {@link RejectedExecutionException} if they could not be reserved
+     * in time, or {@link IllegalArgumentException} if they are more than the whole budget
+     */
+    public Mono<Void> reserve(long bytes) {
+        if (bytes > limit) {
+            return Mono.error(new IllegalArgumentException("payload is larger than the memory budget"));
+        }
+        return Mono
+                .<Void>create(sink -> {
+                    final Waiter waiter;
+                    synchronized (this) {
+                        if (waiters.isEmpty() && reserved + bytes <= limit) {
+                            reserved += bytes;
+                            waiter = null;
+                        } else if (waiters.size() >= queueLimit) {
+                            sink.error(new RejectedExecutionException("memory budget is exhausted"));
+                            return;
+                        } else {
+                            waiter = new Waiter(bytes, sink);
+                            waiters.addLast(waiter);
+                        }
+                    }
+                    if (waiter == null) {
+                        sink.success();
+                    } else {
+                        sink.onCancel(() -> cancel(waiter));
+                    }
+                })
+                .timeout(queueTimeout, Mono.error(() -> new RejectedExecutionException("memory budget is exhausted")));
+    }
+
+    /**
+     * Reserves bytes from the budget, only if they are available right away.
+     *
+     * @param bytes to reserve
+     * @return true if reserved
+     */
+    public synchronized boolean tryReserve(long bytes) {
+        if (!waiters.isEmpty() || reserved + bytes > limit) {
+            return false;
+        }
+        reserved += bytes;
+        return true;
+    }
+
+    /**
+     * Gives reserved bytes back to the budget, letting the queued reservations that fit now go on.
+     *
+     * @param bytes to release
+     */
+    public void release(long bytes) {
+        final List<Waiter> granted = new ArrayList<>();
+        synchronized (this) {
+            reserved -= bytes;
+            while (!waiters.isEmpty() && reserved + waiters.peekFirst().bytes <= limit) {
+                final Waiter waiter = waiters.pollFirst();
+                waiter.granted = true;
+                reserved += waiter.bytes;
+                granted.add(waiter);
+            }
+        }
+        granted.forEach(waiter -> waiter.sink.success());
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public synchronized long getReservedBytes() {
+        return reserved;
+    }
+
+    public synchronized int getQueuedCount() {
+        return waiters.size();
+    }
+
+    private void cancel(Waiter waiter) {
+        final boolean granted;
+        synchronized (this) {
+            granted = !waiters.remove(waiter) && waiter.granted;
+        }
+        // if granted right before it was cancelled, nobody is going to release it,
+        // and if it was first in the queue, the next ones may fit now
+        release(granted ? waiter.bytes : 0);
+    }
+
+    private static class Waiter {
+
+        private final long bytes;
+
+        private final MonoSink<Void> sink;
+
+        private boolean granted;
+
+        Waiter(long bytes, MonoSink<Void> sink) {
+            this.bytes = bytes;
+            this.sink = sink;
+        }
+
+    }
+
+}
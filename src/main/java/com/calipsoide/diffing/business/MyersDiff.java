@@ -0,0 +1,174 @@
+package com.calipsoide.diffing.business;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Implements Myers' O(ND) difference algorithm ("An O(ND) Difference Algorithm and Its Variations", 1986)
+ * in its linear space form: instead of keeping every explored path, forward and backward searches run
+ * at the same time until they overlap, which gives a point of the shortest edit script. Both halves around
+ * that point are diffed recursively, so memory stays proportional to the edit distance.
+ * <p>
+ * Cost grows with the product of the data length and the edit distance, so the search is bounded in two ways.
+ * A range needing more than the maximum edit distance, or still being searched when the time budget runs out,
+ * is reported as a single replacement. The script is then still valid, although not the shortest one.
+ * <p>
+ * Common prefixes and suffixes of each range are skipped before searching, and adjacent insertions and deletions
+ * are joined in a single edit, so edits are always separated by at least one common byte.
+ */
+final class MyersDiff {
+
+    private final int maxEditDistance;
+
+    private final long timeoutNanos;
+
+    /**
+     * @param maxEditDistance maximum number of inserted and deleted bytes searched for in a range
+     * @param timeoutMillis   time budget of the search of a whole diff
+     */
+    MyersDiff(int maxEditDistance, long timeoutMillis) {
+        checkArgument(maxEditDistance > 0, "max edit distance must be positive");
+        checkArgument(timeoutMillis > 0, "diff timeout must be positive");
+        this.maxEditDistance = maxEditDistance;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Sides are read with absolute methods only, from position 0 to limit, so they can be shared views of any data.
+     *
+     * @return left offset, left length, right offset and right length of each edit, one after the other
+     */
+    int[] diff(ByteBuffer left, ByteBuffer right) {
+        final Search search = new Search(left, right, System.nanoTime() + timeoutNanos);
+        search.diff(0, left.limit(), 0, right.limit());
+        return search.edits.toArray();
+    }
+
+    private class Search {
+
+        private final ByteBuffer left;
+
+        private final ByteBuffer right;
+
+        private final long deadline;
+
+        private final EditBuffer edits = new EditBuffer();
+
+        private Search(ByteBuffer left, ByteBuffer right, long deadline) {
+            this.left = left;
+            this.right = right;
+            this.deadline = deadline;
+        }
+
+        private void diff(int leftFrom, int leftTo, int rightFrom, int rightTo) {
+            while (leftFrom < leftTo && rightFrom < rightTo && left.get(leftFrom) == right.get(rightFrom)) {
+                leftFrom++;
+                rightFrom++;
+            }
+            while (leftFrom < leftTo && rightFrom < rightTo && left.get(leftTo - 1) == right.get(rightTo - 1)) {
+                leftTo--;
+                rightTo--;
+            }
+            if (leftFrom == leftTo || rightFrom == rightTo
+                    || !bisect(leftFrom, leftTo, rightFrom, rightTo)) {
+                edits.add(leftFrom, leftTo - leftFrom, rightFrom, rightTo - rightFrom);
+            }
+        }
+
+        /**
+         * Searches the middle of the shortest edit script of both ranges, and diffs the ranges before and after it.
+         * Ranges must not start nor end with the same byte.
+         *
+         * @return false if the search went over budget, so ranges were not diffed
+         */
+        private boolean bisect(int leftFrom, int leftTo, int rightFrom, int rightTo) {
+            final int leftLength = leftTo - leftFrom;
+            final int rightLength = rightTo - rightFrom;
+            final int maxD = (int) Math.min(
+                    ((long) leftLength + rightLength + 1) / 2 + 1, (maxEditDistance + 1) / 2 + 1);
+            // furthest left position reached on each diagonal (left position minus right position), forwards
+            // from the start of the ranges and backwards from their end, or -1 if not reached yet
+            final int[] forward = new int[2 * maxD + 2];
+            final int[] backward = new int[2 * maxD + 2];
+            Arrays.fill(forward, -1);
+            Arrays.fill(backward, -1);
+            forward[maxD + 1] = 0;
+            backward[maxD + 1] = 0;
+            final int delta = leftLength - rightLength;
+            // if delta is odd, paths can only overlap after a forward step, otherwise after a backward one
+            final boolean front = (delta & 1) != 0;
+            // diagonals beyond these bounds have already left the ranges, so they are not explored anymore
+            int forwardStart = 0;
+            int forwardEnd = 0;
+            int backwardStart = 0;
+            int backwardEnd = 0;
+            for (int d = 0; d < maxD; d++) {
+                if (System.nanoTime() > deadline) {
+                    return false;
+                }
+                for (int k = -d + forwardStart; k <= d - forwardEnd; k += 2) {
+                    final int index = maxD + k;
+                    int x = k == -d || (k != d && forward[index - 1] < forward[index + 1])
+                            ? forward[index + 1]
+                            : forward[index - 1] + 1;
+                    int y = x - k;
+                    while (x < leftLength && y < rightLength && left.get(leftFrom + x) == right.get(rightFrom + y)) {
+                        x++;
+                        y++;
+                    }
+                    forward[index] = x;
+                    if (x > leftLength) {
+                        forwardEnd += 2;
+                    } else if (y > rightLength) {
+                        forwardStart += 2;
+                    } else if (front) {
+                        final int backwardIndex = maxD + delta - k;
+                        if (backwardIndex >= 0 && backwardIndex < backward.length && backward[backwardIndex] != -1
+                                && x >= leftLength - backward[backwardIndex]) {
+                            split(leftFrom, leftTo, rightFrom, rightTo, x, y);
+                            return true;
+                        }
+                    }
+                }
+                for (int k = -d + backwardStart; k <= d - backwardEnd; k += 2) {
+                    final int index = maxD + k;
+                    int x = k == -d || (k != d && backward[index - 1] < backward[index + 1])
+                            ? backward[index + 1]
+                            : backward[index - 1] + 1;
+                    int y = x - k;
+                    while (x < leftLength && y < rightLength
+                            && left.get(leftTo - 1 - x) == right.get(rightTo - 1 - y)) {
+                        x++;
+                        y++;
+                    }
+                    backward[index] = x;
+                    if (x > leftLength) {
+                        backwardEnd += 2;
+                    } else if (y > rightLength) {
+                        backwardStart += 2;
+                    } else if (!front) {
+                        final int forwardIndex = maxD + delta - k;
+                        if (forwardIndex >= 0 && forwardIndex < forward.length && forward[forwardIndex] != -1) {
+                            final int forwardX = forward[forwardIndex];
+                            if (forwardX >= leftLength - x) {
+                                split(leftFrom, leftTo, rightFrom, rightTo, forwardX, maxD + forwardX - forwardIndex);
+                                return true;
+                            }
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        private void split(int leftFrom, int leftTo, int rightFrom, int rightTo, int x, int y) {
+            diff(leftFrom, leftFrom + x, rightFrom, rightFrom + y);
+            diff(leftFrom + x, leftTo, rightFrom + y, rightTo);
+        }
+
+    }
+
+}
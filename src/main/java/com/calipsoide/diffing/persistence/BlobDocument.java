@@ -0,0 +1,25 @@
+package com.calipsoide.diffing.persistence;
+
+import com.calipsoide.diffing.persistence.DiffCaseDocument.GridFsFileDocument;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Object representation of a side data blob, stored once for all the cases that use it.
+ * <p>
+ * Blobs are identified by the content hash of their data. Data is held inline, or in GridFS if too large.
+ * The number of case sides referencing the blob is tracked, so it can be removed when no longer used.
+ */
+@Document(collection = "blobs")
+public class BlobDocument {
+
+    @Id
+    public String id;
+
+    public byte[] data;
+
+    public GridFsFileDocument file;
+
+    public long references;
+
+}
@@ -0,0 +1,144 @@
+package com.calipsoide.diffing.persistence;
+
+import com.calipsoide.diffing.business.BinaryData;
+import com.calipsoide.diffing.persistence.DiffCaseDocument.GridFsFileDocument;
+import com.mongodb.reactivestreams.client.gridfs.GridFSBucket;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+
+import static com.mongodb.reactivestreams.client.gridfs.helpers.AsyncStreamHelper.toAsyncInputStream;
+import static com.mongodb.reactivestreams.client.gridfs.helpers.AsyncStreamHelper.toAsyncOutputStream;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Content-addressed, reference-counted storage of side data.
+ * <p>
+ * Each distinct content is stored once, keyed by its hash, no matter how many case sides use it.
+ * Sides acquire a reference to the blob of their data when saved, and release it when replaced;
+ * the blob is removed as soon as no side references it anymore.
+ * <p>
+ * Blobs bigger than a configurable threshold keep their data in GridFS, as MongoDB documents cannot exceed 16 MB.
+ */
+class BlobStorage {
+
+    private static final int MAX_INSERT_RETRIES = 3;
+
+    private final ReactiveMongoOperations mongo;
+
+    private final GridFSBucket gridFs;
+
+    private final int gridFsThreshold;
+
+    BlobStorage(ReactiveMongoOperations mongo, GridFSBucket gridFs, int gridFsThreshold) {
+        this.mongo = mongo;
+        this.gridFs = gridFs;
+        this.gridFsThreshold = gridFsThreshold;
+    }
+
+    /**
+     * Adds a reference to the blob holding the given data, storing the data first if it is not present yet.
+     *
+     * @param data to store
+     * @return completion signal once the reference is counted
+     */
+    Mono<Void> acquire(BinaryData data) {
+        final String hash = data.getHash();
+        return Mono
+                .defer(() -> reference(hash, 1))
+                .switchIfEmpty(Mono.defer(() -> insert(hash, data)))
+                // a concurrent insert of the same content won the race, so just reference it
+                .retry(MAX_INSERT_RETRIES, DuplicateKeyException.class::isInstance)
+                .then();
+    }
+
+    /**
+     * Removes a reference to a blob, deleting it if it is no longer referenced.
+     *
+     * @param hash of the blob
+     * @return completion signal once the reference is discounted
+     */
+    Mono<Void> release(String hash) {
+        return reference(hash, -1)
+                .filter(blob -> blob.references <= 0)
+                .flatMap(blob -> mongo
+                        .remove(query(where("id").is(hash).and("references").lte(0)), BlobDocument.class)
+                        .filter(result -> result.getDeletedCount() > 0)
+                        .flatMap(result -> deleteFile(blob.file)))
+                .then();
+    }
+
+    /**
+     * @param hash of the blob
+     * @return the data held by the blob, error if blob does not exist
+     */
+    Mono<BinaryData> load(String hash) {
+        return mongo
+                .findById(hash, BlobDocument.class)
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("missing blob " + hash)))
+                .flatMap(blob -> blob.file == null ? Mono.just(blob.data) : download(blob.file))
+                .map(bytes -> BinaryData.of(bytes, hash));
+    }
+
+    Mono<byte[]> download(GridFsFileDocument file) {
+        return Mono.defer(() -> {
+            final ByteBuffer buffer = ByteBuffer.allocate(file.length);
+            return Mono
+                    .from(gridFs.downloadToStream(file.fileId, toAsyncOutputStream(buffer)))
+                    .thenReturn(buffer.array());
+        });
+    }
+
+    /**
+     * Removes a GridFS file. Failures are ignored, as they just leave an unreferenced file behind.
+     */
+    Mono<Void> deleteFile(GridFsFileDocument file) {
+        if (file == null) {
+            return Mono.empty();
+        }
+        return Mono
+                .from(gridFs.delete(file.fileId))
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    private Mono<BlobDocument> reference(String hash, int delta) {
+        final Query query = query(where("id").is(hash));
+        query.fields().include("references").include("file");
+        return mongo.findAndModify(
+                query,
+                new Update().inc("references", delta),
+                FindAndModifyOptions.options().returnNew(true),
+                BlobDocument.class);
+    }
+
+    private Mono<BlobDocument> insert(String hash, BinaryData data) {
+        final BlobDocument blob = new BlobDocument();
+        blob.id = hash;
+        blob.references = 1;
+        final Mono<BlobDocument> stored;
+        if (data.getLength() <= gridFsThreshold) {
+            blob.data = data.getBytes();
+            stored = Mono.just(blob);
+        } else {
+            stored = Mono
+                    .from(gridFs.uploadFromStream(hash, toAsyncInputStream(data.asByteBuffer())))
+                    .map(fileId -> {
+                        blob.file = new GridFsFileDocument();
+                        blob.file.fileId = fileId;
+                        blob.file.length = data.getLength();
+                        return blob;
+                    });
+        }
+        return stored.flatMap(document -> mongo
+                .insert(document)
+                .onErrorResume(e -> deleteFile(document.file).then(Mono.error(e))));
+    }
+
+}
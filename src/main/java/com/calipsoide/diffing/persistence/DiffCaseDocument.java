@@ -1,5 +1,6 @@
 package com.calipsoide.diffing.persistence;
 
+import org.bson.types.ObjectId;
 import org.springframework.data.annotation.Id;
 
 import java.util.List;
@@ -8,6 +9,9 @@ import java.util.List;
  * Object representation of a diff case's MongoDB document, used to persist state of the diff model (business package).
  * <p>
  * As we don't want to have any hidden logic here, document objects use just public fields to hold data.
+ * <p>
+ * Side data is referenced by the content hash of a {@link BlobDocument}. Inline bytes and GridFS file references
+ * are the formats used by earlier versions, still supported on read.
  */
 public class DiffCaseDocument {
 
@@ -16,20 +20,81 @@ public class DiffCaseDocument {
 
     public String name;
 
+    /**
+     * Incremented on every write, so that concurrent updates of the same case can be detected.
+     */
+    public long version;
+
+    /**
+     * Name of the engine the case is diffed with. Missing in cases stored by earlier versions, which are positional.
+     */
+    public String engine;
+
+    public String leftBlob;
+
+    public String rightBlob;
+
     public byte[] left;
 
     public byte[] right;
 
+    public GridFsFileDocument leftFile;
+
+    public GridFsFileDocument rightFile;
+
     public DiffReportDocument report;
 
+    /**
+     * Whether a side changed since the report was computed, which is then missing or outdated.
+     */
+    public boolean dirty;
+
+    /**
+     * Reference to side data stored in GridFS, used instead of inline bytes when data is too large.
+     */
+    public static class GridFsFileDocument {
+
+        public ObjectId fileId;
+
+        public int length;
+
+    }
+
+    /**
+     * Insights are stored packed in a single binary field (see {@link PackedInsights}), and so are edits.
+     * A list of subdocuments is the format used by earlier versions, still supported on read.
+     * <p>
+     * Summary is stored apart, so that it can be read without loading insights. It is missing in reports
+     * stored by earlier versions.
+     */
     public static class DiffReportDocument {
 
         public String status;
 
+        public DiffSummaryDocument summary;
+
+        public byte[] packedInsights;
+
+        public byte[] packedEdits;
+
         public List<DiffInsightDocument> insights;
 
     }
 
+    public static class DiffSummaryDocument {
+
+        public long differingBytes;
+
+        public int runCount;
+
+        public int longestRun;
+
+        public int firstOffset;
+
+        public int lastOffset;
+
+    }
+
     public static class DiffInsightDocument {
 
         public int offset;
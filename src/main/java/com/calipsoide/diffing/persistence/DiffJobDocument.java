@@ -0,0 +1,35 @@
+package com.calipsoide.diffing.persistence;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * Object representation of a queued diff job, telling that a case must be diffed in the background.
+ * <p>
+ * There is a single job per case, identified by the case name, so that uploads queued before the case is diffed
+ * are superseded by the last one. Its generation is incremented on every upload, so that a worker can tell
+ * whether the case changed while it was diffing it.
+ * <p>
+ * A job is claimed by a worker until a given time. If the worker does not complete it by then, as when
+ * its instance is restarted, the job can be claimed by another one.
+ * <p>
+ * Failed attempts to diff the case are counted, so that the job is retried later and later, and eventually dropped.
+ * The count is reset on every upload, as new data may diff fine.
+ */
+@Document(collection = "diffJobs")
+public class DiffJobDocument {
+
+    @Id
+    public String id;
+
+    public long generation;
+
+    public Date queuedAt;
+
+    public Date claimedUntil;
+
+    public int attempts;
+
+}
@@ -1,18 +1,58 @@
 package com.calipsoide.diffing.persistence;
 
 import com.calipsoide.diffing.business.BinaryData;
+import com.calipsoide.diffing.business.CaseReport;
 import com.calipsoide.diffing.business.DiffCase;
+import com.calipsoide.diffing.business.DiffEngine;
+import com.calipsoide.diffing.business.DiffJob;
 import com.calipsoide.diffing.business.DiffInsight;
 import com.calipsoide.diffing.business.DiffReport;
+import com.calipsoide.diffing.business.DiffSide;
+import com.calipsoide.diffing.business.DiffSummary;
+import com.calipsoide.diffing.business.DiffingMetrics;
+import com.calipsoide.diffing.persistence.DiffCaseDocument.DiffSummaryDocument;
+import com.calipsoide.diffing.persistence.DiffCaseDocument.GridFsFileDocument;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.reactivestreams.client.gridfs.GridFSBuckets;
+import org.bson.Document;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.ReactiveMongoOperations;
 import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.convert.UpdateMapper;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
+import static com.calipsoide.diffing.business.DiffSide.LEFT;
 import static java.util.stream.Collectors.toList;
 import static org.springframework.data.mongodb.core.query.Criteria.where;
 import static org.springframework.data.mongodb.core.query.Query.query;
@@ -31,40 +71,94 @@ import static org.springframework.data.mongodb.core.query.Query.query;
  * <p>
  * Note that we're using an embedded version of the database system that is not production-ready,
  * so it's not perfect to ensure integration testing, but good enough for the purposes of this development.
+ * <p>
+ * Side data is not stored in the case document itself, but in a shared, content-addressed blob collection
+ * (see {@link BlobStorage}). Repeated payloads are stored only once, and rewriting a case with an unchanged side
+ * does not write that side's data again.
+ * <p>
+ * Cases to be diffed in the background are queued in a collection of their own (see {@link DiffJobDocument}),
+ * so that queued jobs survive restarts.
  */
 @Repository
-public class DiffingStorage {
+public class DiffingStorage implements InitializingBean {
+
+    private static final String SIDES_BUCKET = "sides";
 
     private final ReactiveMongoOperations mongo;
 
+    private final BlobStorage blobs;
+
+    private final DiffingMetrics metrics;
+
+    /**
+     * @param mongo           template to access the database
+     * @param gridFsThreshold size in bytes above which blob data is stored in GridFS
+     * @param metrics         where storage operations are timed
+     */
     @Autowired
-    public DiffingStorage(ReactiveMongoTemplate mongo) {
+    public DiffingStorage(
+            ReactiveMongoTemplate mongo,
+            @Value("${diffing.storage.gridfs-threshold}") int gridFsThreshold,
+            DiffingMetrics metrics) {
+        this(mongo, new BlobStorage(
+                mongo, GridFSBuckets.create(mongo.getMongoDatabase(), SIDES_BUCKET), gridFsThreshold), metrics);
+    }
+
+    DiffingStorage(ReactiveMongoOperations mongo, BlobStorage blobs, DiffingMetrics metrics) {
         this.mongo = mongo;
+        this.blobs = blobs;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Creates the unique index on case name, if not present yet, so that cases are looked up by name
+     * without scanning the collection, and a name cannot be used by two cases.
+     * Queued diff jobs are indexed by queue time too, so that the oldest one is claimed without sorting them all.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        mongo.indexOps(DiffCaseDocument.class)
+                .ensureIndex(new Index().on("name", Sort.Direction.ASC).unique())
+                .block();
+        mongo.indexOps(DiffJobDocument.class)
+                .ensureIndex(new Index().on("queuedAt", Sort.Direction.ASC))
+                .block();
     }
 
-    private static DiffCase toDiffCaseEntity(DiffCaseDocument document) {
+    static DiffCase toDiffCaseEntity(DiffCaseDocument document, BinaryData leftData, BinaryData rightData) {
         return DiffCase
                 .builder()
                 .withId(document.id)
                 .withName(document.name)
-                .withLeftData(BinaryData.of(document.left))
-                .withRightData(BinaryData.of(document.right))
-                .withReport(toDiffReportEntity(document.report))
+                .withVersion(document.version)
+                .withEngine(document.engine == null ? DiffEngine.POSITIONAL : DiffEngine.valueOf(document.engine))
+                .withLeftData(leftData)
+                .withRightData(rightData)
+                .withReport(document.dirty || document.report == null ? null : toDiffReportEntity(document.report))
                 .build();
     }
 
-    private static DiffCaseDocument toDiffCaseDocument(DiffCase updated) {
+    static DiffCaseDocument toDiffCaseDocument(DiffCase updated) {
         DiffCaseDocument document = new DiffCaseDocument();
         document.id = updated.getId();
         document.name = updated.getName();
-        document.left = updated.getLeftData().getBytes();
-        document.right = updated.getRightData().getBytes();
-        document.report = toDiffReportDocument(updated.getReport());
+        document.version = updated.getVersion();
+        document.engine = updated.getEngine().toString();
+        document.leftBlob = updated.getLeftData().getHash();
+        document.rightBlob = updated.getRightData().getHash();
+        document.report = updated.getReport() == null ? null : toDiffReportDocument(updated.getReport());
+        document.dirty = updated.getReport() == null;
         return document;
     }
 
     private static DiffReport toDiffReportEntity(DiffCaseDocument.DiffReportDocument document) {
         final DiffReport.Status status = DiffReport.Status.valueOf(document.status);
+        if (document.packedEdits != null) {
+            return DiffReport.ofEdits(status, PackedInsights.decodeEdits(document.packedEdits));
+        }
+        if (document.packedInsights != null) {
+            return DiffReport.of(status, PackedInsights.decode(document.packedInsights));
+        }
         final List<DiffInsight> insights = document.insights.stream()
                 .map(item -> new DiffInsight(item.offset, item.length))
                 .collect(toList());
@@ -74,39 +168,532 @@ public class DiffingStorage {
     private static DiffCaseDocument.DiffReportDocument toDiffReportDocument(DiffReport report) {
         final DiffCaseDocument.DiffReportDocument document = new DiffCaseDocument.DiffReportDocument();
         document.status = report.getStatus().toString();
-        document.insights = report.getInsights().stream()
-                .map(insight -> {
-                    final DiffCaseDocument.DiffInsightDocument insightDocument = new DiffCaseDocument.DiffInsightDocument();
-                    insightDocument.offset = insight.getOffset();
-                    insightDocument.length = insight.getLength();
-                    return insightDocument;
-                })
-                .collect(toList());
+        document.summary = toDiffSummaryDocument(report.getSummary());
+        if (report.getEditCount() > 0) {
+            document.packedEdits = PackedInsights.encodeEdits(report);
+        } else {
+            document.packedInsights = PackedInsights.encode(report);
+        }
         return document;
     }
 
+    private static DiffSummaryDocument toDiffSummaryDocument(DiffSummary summary) {
+        final DiffSummaryDocument document = new DiffSummaryDocument();
+        document.differingBytes = summary.getDifferingBytes();
+        document.runCount = summary.getRunCount();
+        document.longestRun = summary.getLongestRun();
+        document.firstOffset = summary.getFirstOffset();
+        document.lastOffset = summary.getLastOffset();
+        return document;
+    }
+
+    private static DiffSummary toDiffSummaryEntity(String status, DiffSummaryDocument document) {
+        return new DiffSummary(
+                DiffReport.Status.valueOf(status),
+                document.differingBytes,
+                document.runCount,
+                document.longestRun,
+                document.firstOffset,
+                document.lastOffset);
+    }
+
+    /**
+     * Saves the case. Blobs are acquired for the sides whose data changed, and the ones of the replaced data
+     * are released once the case is saved.
+     * <p>
+     * Only changed sides are written, along with the report, and only if the case is still at the version
+     * it was loaded with. Otherwise, as when a new case is created concurrently with the same name,
+     * this operation fails with an {@link OptimisticLockingFailureException}, so the caller can load the case
+     * again and retry.
+     */
     public Mono<Void> save(DiffCase diffCase) {
-        return Mono
+        return metrics.timeStorage("save", Mono
                 .just(diffCase)
                 .map(DiffingStorage::toDiffCaseDocument)
-                .flatMap(mongo::save)
-                .then();
+                .flatMap(document -> findSides(document.id)
+                        .flatMap(previous -> Flux
+                                .merge(
+                                        acquireChanged(diffCase.getLeftData(), previous.leftBlob),
+                                        acquireChanged(diffCase.getRightData(), previous.rightBlob))
+                                .then(write(document, previous)
+                                        .onErrorResume(e -> releaseReplaced(document, previous).then(Mono.error(e))))
+                                .then(releaseReplaced(previous, document))))
+                .then());
+    }
+
+    /**
+     * Saves many cases at once, just like {@link #save(DiffCase)}, but with a single query to find the side data
+     * they reference and a single bulk write. A case modified or created concurrently is not saved,
+     * while the rest of them are.
+     *
+     * @param diffCases to save, with distinct names
+     * @return whether each case was saved, in the same order, false if it was modified or created concurrently
+     */
+    public Mono<List<Boolean>> saveAll(List<DiffCase> diffCases) {
+        final List<DiffCaseDocument> documents = diffCases.stream()
+                .map(DiffingStorage::toDiffCaseDocument)
+                .collect(toList());
+        return metrics.timeStorage("saveAll", findAllSides(documents)
+                .flatMap(previous -> Flux
+                        .range(0, documents.size())
+                        .flatMap(i -> Flux.merge(
+                                acquireChanged(diffCases.get(i).getLeftData(), previous.get(i).leftBlob),
+                                acquireChanged(diffCases.get(i).getRightData(), previous.get(i).rightBlob)))
+                        .then(writeAll(documents, previous))
+                        .flatMap(written -> Flux
+                                .range(0, documents.size())
+                                .flatMap(i -> written.get(i)
+                                        ? releaseReplaced(previous.get(i), documents.get(i))
+                                        : releaseReplaced(documents.get(i), previous.get(i)))
+                                .then(Mono.just(written)))));
+    }
+
+    /**
+     * Stores the data of one side of a case, creating the case if it does not exist yet.
+     * Case report is not updated, but flagged as outdated instead, so the case is loaded with no report.
+     *
+     * @param name   of the case
+     * @param side   of the data
+     * @param data   to store
+     * @param engine to diff the case with from now on, null to keep the current one
+     * @return completion signal once the side is stored
+     */
+    public Mono<Void> saveSide(String name, DiffSide side, BinaryData data, DiffEngine engine) {
+        final String blobField = LEFT.equals(side) ? "leftBlob" : "rightBlob";
+        final String fileField = LEFT.equals(side) ? "leftFile" : "rightFile";
+        final String hash = data.getHash();
+        final Query query = query(where("name").is(name));
+        query.fields().include(blobField).include(fileField);
+        final Update update = new Update()
+                .set(blobField, hash)
+                .set("dirty", true)
+                .unset(LEFT.equals(side) ? "left" : "right")
+                .unset(fileField)
+                .inc("version", 1);
+        if (engine != null) {
+            update.set("engine", engine.toString());
+        }
+        return metrics.timeStorage("saveSide", blobs
+                .acquire(data)
+                .then(mongo
+                        .findAndModify(query, update, FindAndModifyOptions.options().upsert(true),
+                                DiffCaseDocument.class)
+                        // a concurrent upsert created the case first, so just update it
+                        .retry(1, DuplicateKeyException.class::isInstance)
+                        .onErrorResume(e -> blobs.release(hash).then(Mono.error(e))))
+                .flatMap(previous -> {
+                    final String previousHash = LEFT.equals(side) ? previous.leftBlob : previous.rightBlob;
+                    return Flux
+                            .merge(
+                                    previousHash == null ? Mono.empty() : blobs.release(previousHash),
+                                    blobs.deleteFile(LEFT.equals(side) ? previous.leftFile : previous.rightFile))
+                            .then();
+                }));
+    }
+
+    /**
+     * Stores the report of a case, as long as the case was not changed since the given state was loaded.
+     *
+     * @param diffCase state of the case the report was computed from
+     * @param report   of the diff between the sides of the case
+     * @return true if the report was stored, false if it is outdated already
+     */
+    public Mono<Boolean> saveReport(DiffCase diffCase, DiffReport report) {
+        final Query query = query(atVersion(diffCase.getId(), diffCase.getVersion()));
+        final Update update = new Update()
+                .set("report", toDiffReportDocument(report))
+                .set("dirty", false)
+                .inc("version", 1);
+        return metrics.timeStorage("saveReport", mongo
+                .updateFirst(query, update, DiffCaseDocument.class)
+                .map(result -> result.getMatchedCount() > 0));
     }
 
     public Mono<DiffCase> getByName(String name) {
         final Query query = query(where("name").is(name));
-        return mongo
+        return metrics.timeStorage("getByName", mongo
                 .findOne(query, DiffCaseDocument.class)
-                .map(DiffingStorage::toDiffCaseEntity);
+                .flatMap(document -> Mono
+                        .zip(
+                                loadSide(document.leftBlob, document.left, document.leftFile),
+                                loadSide(document.rightBlob, document.right, document.rightFile))
+                        .map(sides -> toDiffCaseEntity(document, sides.getT1(), sides.getT2()))));
     }
 
-    public Mono<DiffReport> getReportByCaseName(String name) {
+    /**
+     * Loads many cases with a single query.
+     *
+     * @param names of the cases
+     * @return the cases found, in no particular order
+     */
+    public Mono<List<DiffCase>> getByNames(Collection<String> names) {
+        final Query query = query(where("name").in(names));
+        return metrics.timeStorage("getByNames", mongo
+                .find(query, DiffCaseDocument.class)
+                .flatMap(document -> Mono
+                        .zip(
+                                loadSide(document.leftBlob, document.left, document.leftFile),
+                                loadSide(document.rightBlob, document.right, document.rightFile))
+                        .map(sides -> toDiffCaseEntity(document, sides.getT1(), sides.getT2())))
+                .collectList());
+    }
+
+    /**
+     * Returns the content hash of one side of a case, without loading any data.
+     *
+     * @param name of the case
+     * @param side of the data
+     * @return the content hash, empty if case does not exist or was stored without hashes
+     */
+    public Mono<String> getSideHash(String name, DiffSide side) {
+        final String field = LEFT.equals(side) ? "leftBlob" : "rightBlob";
         final Query query = query(where("name").is(name));
+        query.fields().include(field);
+        return metrics.timeStorage("getSideHash", mongo
+                .findOne(query, DiffCaseDocument.class)
+                .flatMap(document -> Mono.justOrEmpty(LEFT.equals(side) ? document.leftBlob : document.rightBlob)));
+    }
+
+    /**
+     * Returns the report of a case, if it is up to date with the case sides.
+     *
+     * @param name of the case
+     * @return the report, empty if case does not exist or its report is outdated
+     */
+    public Mono<DiffReport> getReportByCaseName(String name) {
+        final Query query = query(where("name").is(name).and("dirty").ne(true));
         query.fields().include("report"); // projection to load just report data
-        return mongo
+        return metrics.timeStorage("getReportByCaseName", mongo
                 .findOne(query, DiffCaseDocument.class)
                 .map(document -> document.report)
-                .map(DiffingStorage::toDiffReportEntity);
+                .map(DiffingStorage::toDiffReportEntity));
+    }
+
+    /**
+     * Returns the reports of many cases with a single query, loading just their name and report data.
+     * Reports are streamed as they are read, without waiting for the whole result.
+     *
+     * @param names of the cases
+     * @return report of each case found, in no particular order, missing if it is outdated
+     */
+    public Flux<CaseReport> getReportsByCaseNames(Collection<String> names) {
+        final Query query = query(where("name").in(names));
+        query.fields().include("name").include("report").include("dirty");
+        return metrics.timeStorage("getReportsByCaseNames", mongo
+                .find(query, DiffCaseDocument.class)
+                .map(document -> new CaseReport(
+                        document.name,
+                        document.dirty || document.report == null ? null : toDiffReportEntity(document.report))));
+    }
+
+    /**
+     * Returns the summary of the report of a case, if it is up to date with the case sides.
+     * Just status and summary are loaded, not insights nor edits. Reports stored without summary
+     * by earlier versions are loaded whole to compute it.
+     *
+     * @param name of the case
+     * @return the summary, empty if case does not exist or its report is outdated
+     */
+    public Mono<DiffSummary> getSummaryByCaseName(String name) {
+        final Query query = query(where("name").is(name).and("dirty").ne(true));
+        query.fields().include("report.status").include("report.summary");
+        return metrics.timeStorage("getSummaryByCaseName", mongo
+                .findOne(query, DiffCaseDocument.class)
+                .filter(document -> document.report != null)
+                .flatMap(document -> document.report.summary == null
+                        ? getReportByCaseName(name).map(DiffReport::getSummary)
+                        : Mono.just(toDiffSummaryEntity(document.report.status, document.report.summary))));
+    }
+
+    /**
+     * Tells whether a case exists, without loading any of it.
+     *
+     * @param name of the case
+     * @return true if a case exists with that name
+     */
+    public Mono<Boolean> exists(String name) {
+        return metrics.timeStorage("exists", mongo.exists(query(where("name").is(name)), DiffCaseDocument.class));
+    }
+
+    /**
+     * Queues a case to be diffed in the background. If the case is queued already, its job is superseded:
+     * it is diffed just once, but again if it is being diffed right now.
+     * <p>
+     * New data is diffed right away: the claim of the job is dropped, along with any backoff left by failed
+     * attempts on the previous data, and attempts are counted from zero again. A worker still diffing the previous
+     * data finds the job superseded when done, so its report is not stored and the job is not removed.
+     *
+     * @param name of the case
+     * @return completion signal once the job is queued
+     */
+    public Mono<Void> enqueueDiff(String name) {
+        final Update update = new Update()
+                .inc("generation", 1)
+                .set("queuedAt", new Date())
+                .set("attempts", 0)
+                .unset("claimedUntil");
+        return metrics.timeStorage("enqueueDiff", mongo
+                .upsert(query(where("id").is(name)), update, DiffJobDocument.class)
+                // a concurrent upsert created the job first, so just update it
+                .retry(1, DuplicateKeyException.class::isInstance)
+                .then());
+    }
+
+    /**
+     * Queues a case to be diffed in the background, unless it is queued already.
+     * Used to recover outdated cases whose job was lost, so it does not supersede the current job.
+     *
+     * @param name of the case
+     * @return completion signal once the job is queued
+     */
+    public Mono<Void> enqueueDiffIfAbsent(String name) {
+        final Update update = new Update().setOnInsert("generation", 1L).setOnInsert("queuedAt", new Date());
+        return metrics.timeStorage("enqueueDiffIfAbsent", mongo
+                .upsert(query(where("id").is(name)), update, DiffJobDocument.class)
+                .onErrorResume(DuplicateKeyException.class, e -> Mono.empty()) // queued concurrently
+                .then());
+    }
+
+    /**
+     * Claims the oldest queued job that is not claimed by another worker, or whose claim expired.
+     *
+     * @param lease time the job is claimed for
+     * @return the claimed job, empty if there is none to claim
+     */
+    public Mono<DiffJob> claimDiff(Duration lease) {
+        final Date now = new Date();
+        final Query query = query(new Criteria().orOperator(
+                where("claimedUntil").is(null),
+                where("claimedUntil").lte(now)));
+        query.with(Sort.by("queuedAt"));
+        final Update update = new Update().set("claimedUntil", new Date(now.getTime() + lease.toMillis()));
+        return metrics.timeStorage("claimDiff", mongo
+                .findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), DiffJobDocument.class)
+                .map(document -> new DiffJob(document.id, document.generation, document.attempts)));
+    }
+
+    /**
+     * Removes a claimed job once its case is diffed, unless the case was queued again in the meantime.
+     * In that case, the job is released instead, so that the case is diffed again.
+     *
+     * @param job that was claimed
+     * @return completion signal once the job is removed or released
+     */
+    public Mono<Void> completeDiff(DiffJob job) {
+        final Query query = query(where("id").is(job.getCaseName()).and("generation").is(job.getGeneration()));
+        return metrics.timeStorage("completeDiff", mongo
+                .remove(query, DiffJobDocument.class)
+                .flatMap(result -> result.getDeletedCount() > 0 ? Mono.<Void>empty() : releaseDiff(job)));
+    }
+
+    /**
+     * Keeps a claimed job from being claimed again until a backoff time passes, counting a failed attempt,
+     * unless the case was queued again in the meantime. In that case, the job is released instead,
+     * so that the case is diffed again right away with the latest sides.
+     *
+     * @param job     that was claimed
+     * @param backoff time until the job can be claimed again
+     * @return completion signal once the job is updated
+     */
+    public Mono<Void> retryDiff(DiffJob job, Duration backoff) {
+        final Query query = query(where("id").is(job.getCaseName()).and("generation").is(job.getGeneration()));
+        final Update update = new Update()
+                .set("claimedUntil", new Date(System.currentTimeMillis() + backoff.toMillis()))
+                .inc("attempts", 1);
+        return metrics.timeStorage("retryDiff", mongo
+                .updateFirst(query, update, DiffJobDocument.class)
+                .flatMap(result -> result.getMatchedCount() > 0 ? Mono.<Void>empty() : releaseDiff(job)));
+    }
+
+    /**
+     * Releases a claimed job without removing it, so that it can be claimed again right away.
+     *
+     * @param job that was claimed
+     * @return completion signal once the job is released
+     */
+    public Mono<Void> releaseDiff(DiffJob job) {
+        final Update update = new Update().unset("claimedUntil");
+        return metrics.timeStorage("releaseDiff", mongo
+                .updateFirst(query(where("id").is(job.getCaseName())), update, DiffJobDocument.class)
+                .then());
+    }
+
+    /**
+     * Matches a case at the given version. Cases stored before versions were introduced are at version zero.
+     */
+    private static Criteria atVersion(String id, long version) {
+        final Criteria criteria = where("id").is(id);
+        return version == 0
+                ? criteria.orOperator(where("version").is(0L), where("version").exists(false))
+                : criteria.and("version").is(version);
+    }
+
+    private static void setChangedSide(Update update, String side, String hash, String previousHash) {
+        if (!hash.equals(previousHash)) {
+            update.set(side + "Blob", hash).unset(side).unset(side + "File");
+        }
+    }
+
+    /**
+     * Inserts a new case, or updates the changed sides and the report of an existing one.
+     */
+    private Mono<Void> write(DiffCaseDocument document, DiffCaseDocument previous) {
+        if (document.id == null) {
+            return mongo
+                    .insert(document)
+                    .onErrorMap(DuplicateKeyException.class, e -> new OptimisticLockingFailureException(
+                            "case " + document.name + " was created concurrently", e))
+                    .then();
+        }
+        return mongo
+                .updateFirst(query(atVersion(document.id, document.version)), updateOf(document, previous),
+                        DiffCaseDocument.class)
+                .flatMap(result -> {
+                    if (result.getMatchedCount() == 0) {
+                        return Mono.error(new OptimisticLockingFailureException(
+                                "case " + document.name + " was modified concurrently"));
+                    }
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    /**
+     * Updates the changed sides and the report of an existing case.
+     */
+    private static Update updateOf(DiffCaseDocument document, DiffCaseDocument previous) {
+        final Update update = new Update()
+                .set("engine", document.engine)
+                .set("report", document.report)
+                .set("dirty", document.dirty)
+                .inc("version", 1);
+        setChangedSide(update, "left", document.leftBlob, previous.leftBlob);
+        setChangedSide(update, "right", document.rightBlob, previous.rightBlob);
+        return update;
+    }
+
+    /**
+     * Inserts the new cases and updates the existing ones in a single unordered bulk write.
+     * <p>
+     * Updates are upserts matching the case at its version, so that if the version does not match, the insert
+     * fails on the existing id. This way each conflict is reported as an error of its own write,
+     * while the rest of the writes are applied.
+     *
+     * @return whether each case was written, false if it was modified or created concurrently
+     */
+    private Mono<List<Boolean>> writeAll(List<DiffCaseDocument> documents, List<DiffCaseDocument> previous) {
+        final MongoConverter converter = mongo.getConverter();
+        final MongoPersistentEntity<?> entity =
+                converter.getMappingContext().getRequiredPersistentEntity(DiffCaseDocument.class);
+        final QueryMapper queryMapper = new QueryMapper(converter);
+        final UpdateMapper updateMapper = new UpdateMapper(converter);
+        final List<WriteModel<Document>> writes = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            final DiffCaseDocument document = documents.get(i);
+            if (document.id == null) {
+                final Document inserted = new Document();
+                converter.write(document, inserted);
+                writes.add(new InsertOneModel<>(inserted));
+            } else {
+                final Document filter = queryMapper.getMappedObject(
+                        query(atVersion(document.id, document.version)).getQueryObject(), entity);
+                final Document update = updateMapper.getMappedObject(
+                        updateOf(document, previous.get(i)).getUpdateObject(), entity);
+                writes.add(new UpdateOneModel<>(filter, update, new UpdateOptions().upsert(true)));
+            }
+        }
+        return Mono
+                .from(mongo
+                        .getCollection(mongo.getCollectionName(DiffCaseDocument.class))
+                        .bulkWrite(writes, new BulkWriteOptions().ordered(false)))
+                .map(result -> Collections.nCopies(writes.size(), true))
+                .onErrorResume(MongoBulkWriteException.class, e -> {
+                    final List<Boolean> written = new ArrayList<>(Collections.nCopies(writes.size(), true));
+                    for (BulkWriteError error : e.getWriteErrors()) {
+                        if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                            return Mono.error(e);
+                        }
+                        written.set(error.getIndex(), false);
+                    }
+                    return Mono.just(written);
+                });
+    }
+
+    private Mono<Void> acquireChanged(BinaryData data, String previousHash) {
+        return data.getHash().equals(previousHash) ? Mono.empty() : blobs.acquire(data);
+    }
+
+    /**
+     * Releases the side data referenced by a document that is not referenced by another one.
+     * GridFS files of documents stored in the old format are deleted too.
+     */
+    private Mono<Void> releaseReplaced(DiffCaseDocument replaced, DiffCaseDocument replacement) {
+        return Flux
+                .merge(
+                        releaseChanged(replaced.leftBlob, replacement.leftBlob),
+                        releaseChanged(replaced.rightBlob, replacement.rightBlob),
+                        blobs.deleteFile(replaced.leftFile),
+                        blobs.deleteFile(replaced.rightFile))
+                .then();
+    }
+
+    private Mono<Void> releaseChanged(String hash, String replacementHash) {
+        return hash == null || hash.equals(replacementHash) ? Mono.empty() : blobs.release(hash);
+    }
+
+    private Mono<BinaryData> loadSide(String hash, byte[] inline, GridFsFileDocument file) {
+        if (hash != null) {
+            return blobs.load(hash);
+        } else if (file != null) {
+            return blobs.download(file).map(BinaryData::of);
+        }
+        return Mono.just(inline == null ? BinaryData.empty() : BinaryData.of(inline));
+    }
+
+    /**
+     * Finds the side data currently referenced by many cases with a single query.
+     *
+     * @return a document with just side references loaded for each given one, in the same order
+     */
+    private Mono<List<DiffCaseDocument>> findAllSides(List<DiffCaseDocument> documents) {
+        final List<String> ids = documents.stream()
+                .map(document -> document.id)
+                .filter(Objects::nonNull)
+                .collect(toList());
+        final Mono<Map<String, DiffCaseDocument>> found;
+        if (ids.isEmpty()) {
+            found = Mono.just(Collections.emptyMap());
+        } else {
+            final Query query = query(where("id").in(ids));
+            query.fields().include("leftBlob").include("rightBlob").include("leftFile").include("rightFile")
+                    .include("version");
+            found = mongo
+                    .find(query, DiffCaseDocument.class)
+                    .collectMap(document -> document.id);
+        }
+        return found.map(previousById -> documents.stream()
+                .map(document -> document.id == null
+                        ? new DiffCaseDocument()
+                        : previousById.getOrDefault(document.id, new DiffCaseDocument()))
+                .collect(toList()));
+    }
+
+    /**
+     * Finds the side data currently referenced by a case.
+     *
+     * @param id of the case, null if it is a new one
+     * @return a document with just side references loaded, empty if there is none
+     */
+    private Mono<DiffCaseDocument> findSides(String id) {
+        if (id == null) {
+            return Mono.just(new DiffCaseDocument());
+        }
+        final Query query = query(where("id").is(id));
+        query.fields().include("leftBlob").include("rightBlob").include("leftFile").include("rightFile")
+                .include("version");
+        return mongo
+                .findOne(query, DiffCaseDocument.class)
+                .defaultIfEmpty(new DiffCaseDocument());
     }
 
 }
@@ -0,0 +1,151 @@
+package com.calipsoide.diffing.persistence;
+
+import com.calipsoide.diffing.business.DiffEdit;
+import com.calipsoide.diffing.business.DiffReport;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Compact binary encoding of report insights, stored as a single BSON binary field.
+ * <p>
+ * Layout is the number of insights followed by a (gap, length) pair per insight, all of them varints.
+ * The gap is the distance from the end of the previous insight to the offset of the current one, zigzag-encoded
+ * so that insights out of order still work. As insights of a positional diff are sorted and usually close
+ * to each other, most values fit in one or two bytes, instead of the tens of bytes taken by a subdocument.
+ * <p>
+ * Edits are encoded the same way, with a (gap, length) pair for each side per edit.
+ */
+final class PackedInsights {
+
+    private PackedInsights() {
+    }
+
+    static byte[] encode(DiffReport report) {
+        final int count = report.getInsightCount();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(1 + count * 3);
+        writeVarint(output, count);
+        long previousEnd = 0;
+        for (int i = 0; i < count; i++) {
+            final int offset = report.getOffsetAt(i);
+            final int length = report.getLengthAt(i);
+            final long gap = offset - previousEnd;
+            writeVarint(output, (gap << 1) ^ (gap >> 63));
+            writeVarint(output, length);
+            previousEnd = (long) offset + length;
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * @param packed encoded insights
+     * @return offset and length of each insight, one after the other
+     */
+    static int[] decode(byte[] packed) {
+        final Reader reader = new Reader(packed);
+        final long count = reader.readVarint();
+        checkArgument(count <= packed.length, "corrupted packed insights");
+        final int[] runs = new int[(int) count * 2];
+        long previousEnd = 0;
+        for (int i = 0; i < runs.length; i += 2) {
+            final long zigzag = reader.readVarint();
+            final long offset = previousEnd + ((zigzag >>> 1) ^ -(zigzag & 1));
+            final long length = reader.readVarint();
+            checkArgument(offset >= 0 && offset <= Integer.MAX_VALUE && length <= Integer.MAX_VALUE,
+                    "corrupted packed insights");
+            runs[i] = (int) offset;
+            runs[i + 1] = (int) length;
+            previousEnd = offset + length;
+        }
+        return runs;
+    }
+
+    static byte[] encodeEdits(DiffReport report) {
+        final List<DiffEdit> edits = report.getEdits();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(1 + edits.size() * 6);
+        writeVarint(output, edits.size());
+        long previousLeftEnd = 0;
+        long previousRightEnd = 0;
+        for (DiffEdit edit : edits) {
+            final long leftGap = edit.getLeftOffset() - previousLeftEnd;
+            writeVarint(output, (leftGap << 1) ^ (leftGap >> 63));
+            writeVarint(output, edit.getLeftLength());
+            final long rightGap = edit.getRightOffset() - previousRightEnd;
+            writeVarint(output, (rightGap << 1) ^ (rightGap >> 63));
+            writeVarint(output, edit.getRightLength());
+            previousLeftEnd = (long) edit.getLeftOffset() + edit.getLeftLength();
+            previousRightEnd = (long) edit.getRightOffset() + edit.getRightLength();
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * @param packed encoded edits
+     * @return left offset, left length, right offset and right length of each edit, one after the other
+     */
+    static int[] decodeEdits(byte[] packed) {
+        final Reader reader = new Reader(packed);
+        final long count = reader.readVarint();
+        checkArgument(count <= packed.length, "corrupted packed edits");
+        final int[] edits = new int[(int) count * 4];
+        long previousLeftEnd = 0;
+        long previousRightEnd = 0;
+        for (int i = 0; i < edits.length; i += 4) {
+            previousLeftEnd = readRange(reader, previousLeftEnd, edits, i);
+            previousRightEnd = readRange(reader, previousRightEnd, edits, i + 2);
+        }
+        return edits;
+    }
+
+    /**
+     * Reads a (gap, length) pair into the given position of the array.
+     *
+     * @return end of the range read
+     */
+    private static long readRange(Reader reader, long previousEnd, int[] values, int position) {
+        final long zigzag = reader.readVarint();
+        final long offset = previousEnd + ((zigzag >>> 1) ^ -(zigzag & 1));
+        final long length = reader.readVarint();
+        checkArgument(offset >= 0 && offset <= Integer.MAX_VALUE && length <= Integer.MAX_VALUE,
+                "corrupted packed edits");
+        values[position] = (int) offset;
+        values[position + 1] = (int) length;
+        return offset + length;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream output, long value) {
+        while ((value & ~0x7FL) != 0) {
+            output.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write((int) value);
+    }
+
+    private static class Reader {
+
+        private final byte[] bytes;
+
+        private int position;
+
+        private Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                checkArgument(position < bytes.length, "corrupted packed insights");
+                final byte current = bytes[position++];
+                value |= (long) (current & 0x7F) << shift;
+                if (current >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("corrupted packed insights");
+        }
+
+    }
+
+}
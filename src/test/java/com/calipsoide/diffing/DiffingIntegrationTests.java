@@ -6,15 +6,22 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.reactive.server.WebTestClient;
 
 import java.util.Base64;
 
+import static com.calipsoide.diffing.api.WebConfiguration.APPLICATION_CBOR;
+import static com.calipsoide.diffing.api.WebConfiguration.APPLICATION_NDJSON;
+import static com.calipsoide.diffing.api.WebConfiguration.APPLICATION_PACKED_REPORT;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
+import static org.apache.commons.lang3.RandomUtils.nextBytes;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasSize;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_OCTET_STREAM;
 import static org.springframework.web.reactive.function.BodyInserters.fromObject;
 
 @ExtendWith(SpringExtension.class)
@@ -234,4 +241,485 @@ class DiffingIntegrationTests {
                 .jsonPath("status").isEqualTo("equal");
     }
 
+    @Test
+    void processRawBinary() {
+        final String id = randomAlphanumeric(32);
+        final byte[] bytes = randomAlphanumeric(32).getBytes(UTF_8);
+        final byte[] changedBytes = bytes.clone();
+        changedBytes[3] = (byte) ~changedBytes[3];
+        webTestClient
+                .post()
+                .uri("/v1/diff/{id}/left", id)
+                .contentType(APPLICATION_OCTET_STREAM)
+                .syncBody(bytes)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isNoContent();
+        webTestClient
+                .post()
+                .uri("/v1/diff/{id}/right", id)
+                .contentType(APPLICATION_OCTET_STREAM)
+                .syncBody(changedBytes)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isNoContent();
+        webTestClient
+                .get()
+                .uri("/v1/diff/{id}", id)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("status").isEqualTo("not_equal")
+                .jsonPath("insights").value(hasSize(1))
+                .jsonPath("insights[0].offset").isEqualTo(3)
+                .jsonPath("insights[0].length").isEqualTo(1);
+    }
+
+    @Test
+    void missingRawBinary() {
+        webTestClient
+                .post()
+                .uri("/v1/diff/{id}/left", randomAlphanumeric(32))
+                .contentType(APPLICATION_OCTET_STREAM)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void prometheusMetrics() {
+        postSidesWithThreeInsights();
+        webTestClient
+                .get()
+                .uri("/actuator/prometheus")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .value(containsString("diffing_reports_total{status=\"not_equal\""))
+                .value(containsString("diffing_diff_seconds_count{engine=\"positional\",scope=\"full\""))
+                .value(containsString("diffing_storage_seconds_count{operation=\"save\""))
+                .value(containsString("diffing_payload_size_bytes_bucket{side=\"right\""))
+                .value(containsString("diffing_executor_queued"))
+                .value(containsString("diffing_executor_rejected_total"));
+    }
+
+    @Test
+    void pagedInsights() {
+        final String id = postSidesWithThreeInsights();
+        webTestClient
+                .get()
+                .uri("/v1/diff/{id}?limit=2", id)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("status").isEqualTo("not_equal")
+                .jsonPath("insights").value(hasSize(2))
+                .jsonPath("insights[0].offset").isEqualTo(2)
+                .jsonPath("insights[1].offset").isEqualTo(10)
+                .jsonPath("next").isEqualTo(10);
+        webTestClient
+                .get()
+                .uri("/v1/diff/{id}?limit=2&after=10", id)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("insights").value(hasSize(1))
+                .jsonPath("insights[0].offset").isEqualTo(20)
+                .jsonPath("insights[0].length").isEqualTo(1)
+                .jsonPath("next").doesNotExist();
+    }
+
+    @Test
+    void summaryView() {
+        final String id = postSidesWithThreeInsights();
+        webTestClient
+                .get()
+                .uri("/v1/diff/{id}?view=summary", id)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("status").isEqualTo("not_equal")
+                .jsonPath("differingBytes").isEqualTo(3)
+                .jsonPath("runCount").isEqualTo(3)
+                .jsonPath("longestRun").isEqualTo(1)
+                .jsonPath("firstOffset").isEqualTo(2)
+                .jsonPath("lastOffset").isEqualTo(20)
+                .jsonPath("insights").doesNotExist();
+    }
+
+    @Test
+    void unknownView() {
+        webTestClient
+                .get()
+                .uri("/v1/diff/{id}?view=everything", randomAlphanumeric(32))
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void pagedInsightsInvalidLimit() {
+        webTestClient
+                .get()
+                .uri("/v1/diff/{id}?limit=0", randomAlphanumeric(32))
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void streamedInsights() {
+        final String id = postSidesWithThreeInsights();
+        webTestClient
+                .get()
+                .uri("/v1/diff/{id}/insights?after=2", id)
+                .accept(APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(APPLICATION_NDJSON)
+                .expectBody(String.class)
+                .isEqualTo("{\"offset\":10,\"length\":1}\n{\"offset\":20,\"length\":1}\n");
+    }
+
+    @Test
+    void streamedInsightsMissingCase() {
+        webTestClient
+                .get()
+                .uri("/v1/diff/{id}/insights", randomAlphanumeric(32))
+                .accept(APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void reportNegotiated() {
+        final String id = randomAlphanumeric(32);
+        final byte[] bytes = nextBytes(16);
+        final byte[] changedBytes = bytes.clone();
+        changedBytes[3] = (byte) ~changedBytes[3];
+        webTestClient
+                .post()
+                .uri("/v1/diff/{id}/left", id)
+                .contentType(APPLICATION_OCTET_STREAM)
+                .syncBody(bytes)
+                .exchange()
+                .expectStatus().isNoContent();
+        webTestClient
+                .post()
+                .uri("/v1/diff/{id}/right", id)
+                .contentType(APPLICATION_OCTET_STREAM)
+                .syncBody(changedBytes)
+                .exchange()
+                .expectStatus().isNoContent();
+        webTestClient
+                .get()
+                .uri("/v1/diff/{id}", id)
+                .accept(APPLICATION_PACKED_REPORT)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(APPLICATION_PACKED_REPORT)
+                .expectBody(byte[].class)
+                .isEqualTo(new byte[]{9, 'n', 'o', 't', '_', 'e', 'q', 'u', 'a', 'l', 0, 1, 6, 1, 0});
+        webTestClient
+                .get()
+                .uri("/v1/diff/{id}", id)
+                .accept(APPLICATION_CBOR)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(APPLICATION_CBOR);
+        webTestClient
+                .get()
+                .uri("/v1/diff/{id}", id)
+                .accept(MediaType.ALL)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(APPLICATION_JSON)
+                .expectBody()
+                .jsonPath("insights[0].offset").isEqualTo(3);
+    }
+
+    @Test
+    void manyReports() {
+        final String id = postSidesWithThreeInsights();
+        final String missingId = randomAlphanumeric(32);
+        webTestClient
+                .post()
+                .uri("/v1/diff/_reports")
+                .contentType(APPLICATION_JSON)
+                .syncBody(new String[]{missingId, id})
+                .accept(APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(APPLICATION_NDJSON)
+                .expectBody(String.class)
+                .isEqualTo(""
+                        + "{\"name\":\"" + id + "\",\"status\":200,\"report\":{\"status\":\"not_equal\","
+                        + "\"insights\":[{\"offset\":2,\"length\":1},{\"offset\":10,\"length\":1},"
+                        + "{\"offset\":20,\"length\":1}]}}\n"
+                        + "{\"name\":\"" + missingId + "\",\"status\":404}\n");
+    }
+
+    @Test
+    void manyReportsWithoutNames() {
+        webTestClient
+                .post()
+                .uri("/v1/diff/_reports")
+                .contentType(APPLICATION_JSON)
+                .syncBody(new String[0])
+                .accept(APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void manyReportsWithNullName() {
+        webTestClient
+                .post()
+                .uri("/v1/diff/_reports")
+                .contentType(APPLICATION_JSON)
+                .syncBody(new String[]{randomAlphanumeric(32), null})
+                .accept(APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    /**
+     * Posts both sides of a new case, differing at offsets 2, 10 and 20.
+     *
+     * @return name of the case
+     */
+    private String postSidesWithThreeInsights() {
+        final String id = randomAlphanumeric(32);
+        final byte[] rightBytes = new byte[32];
+        rightBytes[2] = 1;
+        rightBytes[10] = 1;
+        rightBytes[20] = 1;
+        webTestClient
+                .post()
+                .uri("/v1/diff/{id}/left", id)
+                .contentType(APPLICATION_OCTET_STREAM)
+                .syncBody(new byte[32])
+                .exchange()
+                .expectStatus().isNoContent();
+        webTestClient
+                .post()
+                .uri("/v1/diff/{id}/right", id)
+                .contentType(APPLICATION_OCTET_STREAM)
+                .syncBody(rightBytes)
+                .exchange()
+                .expectStatus().isNoContent();
+        return id;
+    }
+
+    @Test
+    void processBulk() {
+        final String firstId = randomAlphanumeric(32);
+        final String secondId = randomAlphanumeric(32);
+        final byte[] bytes = new byte[16];
+        final String leftData = Base64.getEncoder().encodeToString(bytes);
+        bytes[4] = 1;
+        final String rightData = Base64.getEncoder().encodeToString(bytes);
+        final String body = ""
+                + "{\"name\":\"" + firstId + "\",\"side\":\"left\",\"data\":\"" + leftData + "\"}\n"
+                + "{\"name\":\"" + secondId + "\",\"side\":\"middle\",\"data\":\"" + leftData + "\"}\n"
+                + "{\"name\":\"" + secondId + "\",\"side\":\"left\",\"data\":\"" + leftData + "\"}\n"
+                + "{\"name\":\"" + firstId + "\",\"side\":\"right\",\"data\":\"" + rightData + "\"}\n";
+        webTestClient
+                .post()
+                .uri("/v1/diff/_bulk")
+                .contentType(APPLICATION_NDJSON)
+                .syncBody(body)
+                .accept(APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .isEqualTo(""
+                        + "{\"name\":\"" + firstId + "\",\"side\":\"left\",\"status\":204}\n"
+                        + "{\"name\":\"" + secondId + "\",\"side\":null,\"status\":400,"
+                        + "\"error\":\"missing or invalid side\"}\n"
+                        + "{\"name\":\"" + secondId + "\",\"side\":\"left\",\"status\":204}\n"
+                        + "{\"name\":\"" + firstId + "\",\"side\":\"right\",\"status\":204}\n");
+        webTestClient
+                .get()
+                .uri("/v1/diff/{id}", firstId)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("status").isEqualTo("not_equal")
+                .jsonPath("insights[0].offset").isEqualTo(4)
+                .jsonPath("insights[0].length").isEqualTo(1);
+        webTestClient
+                .get()
+                .uri("/v1/diff/{id}", secondId)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("status").isEqualTo("length_mismatch");
+    }
+
+    @Test
+    void patchRange() {
+        final String id = randomAlphanumeric(32);
+        final byte[] bytes = randomAlphanumeric(32).getBytes(UTF_8);
+        for (String side : new String[]{"left", "right"}) {
+            webTestClient
+                    .post()
+                    .uri("/v1/diff/{id}/{side}", id, side)
+                    .contentType(APPLICATION_OCTET_STREAM)
+                    .syncBody(bytes)
+                    .accept(APPLICATION_JSON)
+                    .exchange()
+                    .expectStatus().isNoContent();
+        }
+        webTestClient
+                .patch()
+                .uri("/v1/diff/{id}/right?offset={offset}", id, 10)
+                .contentType(APPLICATION_OCTET_STREAM)
+                .syncBody(new byte[]{(byte) ~bytes[10], (byte) ~bytes[11]})
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isNoContent();
+        webTestClient
+                .get()
+                .uri("/v1/diff/{id}", id)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("status").isEqualTo("not_equal")
+                .jsonPath("insights").value(hasSize(1))
+                .jsonPath("insights[0].offset").isEqualTo(10)
+                .jsonPath("insights[0].length").isEqualTo(2);
+    }
+
+    @Test
+    void patchOutOfBounds() {
+        final String id = randomAlphanumeric(32);
+        webTestClient
+                .post()
+                .uri("/v1/diff/{id}/left", id)
+                .contentType(APPLICATION_OCTET_STREAM)
+                .syncBody(new byte[8])
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isNoContent();
+        webTestClient
+                .patch()
+                .uri("/v1/diff/{id}/left?offset={offset}", id, 6)
+                .contentType(APPLICATION_OCTET_STREAM)
+                .syncBody(new byte[4])
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void patchMissingCase() {
+        webTestClient
+                .patch()
+                .uri("/v1/diff/{id}/left?offset={offset}", randomAlphanumeric(32), 0)
+                .contentType(APPLICATION_OCTET_STREAM)
+                .syncBody(new byte[4])
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void processWithMyersEngine() {
+        final String id = randomAlphanumeric(32);
+        final byte[] leftBytes = "the quick brown fox".getBytes(UTF_8);
+        final byte[] rightBytes = "the quick fox".getBytes(UTF_8);
+        webTestClient
+                .post()
+                .uri("/v1/diff/{id}/left?engine=myers", id)
+                .contentType(APPLICATION_OCTET_STREAM)
+                .syncBody(leftBytes)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isNoContent();
+        webTestClient
+                .post()
+                .uri("/v1/diff/{id}/right", id) // engine is kept for the case
+                .contentType(APPLICATION_OCTET_STREAM)
+                .syncBody(rightBytes)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isNoContent();
+        webTestClient
+                .get()
+                .uri("/v1/diff/{id}", id)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("status").isEqualTo("not_equal")
+                .jsonPath("insights").doesNotExist()
+                .jsonPath("edits").value(hasSize(1))
+                .jsonPath("edits[0].type").isEqualTo("delete")
+                .jsonPath("edits[0].leftOffset").isEqualTo(10)
+                .jsonPath("edits[0].leftLength").isEqualTo(6)
+                .jsonPath("edits[0].rightOffset").isEqualTo(10)
+                .jsonPath("edits[0].rightLength").isEqualTo(0);
+    }
+
+    @Test
+    void processWithBlocksEngine() {
+        final String id = randomAlphanumeric(32);
+        final byte[] leftBytes = nextBytes(4096);
+        final byte[] rightBytes = new byte[leftBytes.length + 2];
+        System.arraycopy(leftBytes, 0, rightBytes, 0, 1000);
+        rightBytes[1000] = (byte) ~leftBytes[1000]; // 2 bytes inserted, unlike the ones around them
+        rightBytes[1001] = (byte) ~leftBytes[999];
+        System.arraycopy(leftBytes, 1000, rightBytes, 1002, leftBytes.length - 1000);
+        webTestClient
+                .post()
+                .uri("/v1/diff/{id}/left?engine=blocks", id)
+                .contentType(APPLICATION_OCTET_STREAM)
+                .syncBody(leftBytes)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isNoContent();
+        webTestClient
+                .post()
+                .uri("/v1/diff/{id}/right", id)
+                .contentType(APPLICATION_OCTET_STREAM)
+                .syncBody(rightBytes)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isNoContent();
+        webTestClient
+                .get()
+                .uri("/v1/diff/{id}", id)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("status").isEqualTo("not_equal")
+                .jsonPath("edits").value(hasSize(1))
+                .jsonPath("edits[0].type").isEqualTo("insert")
+                .jsonPath("edits[0].leftOffset").isEqualTo(1000)
+                .jsonPath("edits[0].leftLength").isEqualTo(0)
+                .jsonPath("edits[0].rightOffset").isEqualTo(1000)
+                .jsonPath("edits[0].rightLength").isEqualTo(2);
+    }
+
+    @Test
+    void unknownEngine() {
+        webTestClient
+                .post()
+                .uri("/v1/diff/{id}/left?engine=psychic", randomAlphanumeric(32))
+                .contentType(APPLICATION_OCTET_STREAM)
+                .syncBody(new byte[8])
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
 }
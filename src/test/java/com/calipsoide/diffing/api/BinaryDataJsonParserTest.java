@@ -0,0 +1,110 @@
+package com.calipsoide.diffing.api;
+
+import com.calipsoide.diffing.business.BinaryData;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.lang3.RandomUtils.nextBytes;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BinaryDataJsonParserTest {
+
+    private static BinaryDataJsonParser parse(String json, int chunkSize) {
+        return parse(json, chunkSize, 0, 0);
+    }
+
+    private static BinaryDataJsonParser parse(String json, int chunkSize, int sizeHint, int maxInlineLength) {
+        final BinaryDataJsonParser parser = new BinaryDataJsonParser("data", sizeHint, maxInlineLength);
+        final byte[] bytes = json.getBytes(UTF_8);
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            final ByteBuffer chunk = ByteBuffer.wrap(bytes, i, Math.min(chunkSize, bytes.length - i));
+            parser.feed(chunk);
+            parser.feedTrailing(chunk);
+        }
+        return parser;
+    }
+
+    @Test
+    void decodesDataInAnyChunking() {
+        final byte[] bytes = nextBytes(100);
+        final String json = "{\"data\": \"" + Base64.getEncoder().encodeToString(bytes) + "\"}";
+        for (int chunkSize = 1; chunkSize <= json.length(); chunkSize++) {
+            final BinaryData data = parse(json, chunkSize).getBinary().orElseThrow(AssertionError::new);
+            assertThat(data.getBytes()).isEqualTo(bytes);
+        }
+    }
+
+    @Test
+    void trimsDataStoredInline() {
+        final byte[] bytes = nextBytes(100);
+        final String json = "{\"data\": \"" + Base64.getEncoder().encodeToString(bytes) + "\"}";
+        // hinted by the length of the body, so the output array is a bit larger than the decoded data
+        final int sizeHint = json.length() / 4 * 3;
+        final BinaryData inline = parse(json, 16, sizeHint, 100).getBinary().orElseThrow(AssertionError::new);
+        assertThat(inline.getBytes()).isEqualTo(bytes).isSameAs(inline.getBytes()); // stored as is, no copy
+        final BinaryData large = parse(json, 16, sizeHint, 99).getBinary().orElseThrow(AssertionError::new);
+        assertThat(large.getBytes()).isEqualTo(bytes).isNotSameAs(large.getBytes()); // handed over as a slice
+        assertThat(large.asByteBuffer().remaining()).isEqualTo(100);
+    }
+
+    @Test
+    void resolvesEscapedCharacters() {
+        final String json = "{\"data\": \"\\/\\u002F8=\"}"; // "//8=" with escaped slashes
+        final BinaryData data = parse(json, 3).getBinary().orElseThrow(AssertionError::new);
+        assertThat(data.getBytes()).containsExactly((byte) 0xFF, (byte) 0xFF);
+    }
+
+    @Test
+    void skipsOtherFields() {
+        final String json = "{\"other\": {\"data\": [\"QUJD\"]}, \"name\": \"abc\", \"flag\": true, \"data\": \"QUJD\"}";
+        final BinaryDataJsonParser parser = parse(json, 5);
+        assertThat(parser.getBinary().map(BinaryData::getBytes)).contains("ABC".getBytes(UTF_8));
+    }
+
+    @Test
+    void joinsEscapedSurrogatePairs() {
+        final BinaryDataJsonParser parser = new BinaryDataJsonParser("\uD83D\uDE00", 0, 0); // one emoji
+        final ByteBuffer chunk = ByteBuffer.wrap("{\"\\uD83D\\uDE00\": \"QUJD\"}".getBytes(UTF_8));
+        parser.feed(chunk);
+        assertThat(parser.getBinary().map(BinaryData::getBytes)).contains("ABC".getBytes(UTF_8));
+    }
+
+    @Test
+    void loneSurrogates() {
+        assertThatThrownBy(() -> parse("{\"\\uD83D\": \"QUJD\"}", 1))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> parse("{\"\\uD83Dx\": \"QUJD\"}", 1))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> parse("{\"\\uDE00\": \"QUJD\"}", 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void missingData() {
+        assertThat(parse("{}", 1).getBinary()).isEmpty();
+        assertThat(parse("{\"data\": null}", 1).getBinary()).isEmpty();
+    }
+
+    @Test
+    void invalidData() {
+        assertThatThrownBy(() -> parse("{\"data\": \":-%-&-#\"}", 4))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> parse("{\"data\": \"QUJDR\"}", 4))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> parse("{\"data\": 42}", 4))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void malformedJson() {
+        assertThatThrownBy(() -> parse("[]", 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> parse("{\"data\": \"QUJD\"} {}", 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> parse("{\"data\": \"QUJD\"", 1).getBinary())
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
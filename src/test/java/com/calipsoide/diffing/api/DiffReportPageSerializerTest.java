@@ -0,0 +1,67 @@
+package com.calipsoide.diffing.api;
+
+import com.calipsoide.diffing.api.DiffReportResource.DiffEditResource;
+import com.calipsoide.diffing.api.DiffReportResource.DiffInsightResource;
+import com.calipsoide.diffing.business.DiffReport;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import static com.calipsoide.diffing.business.DiffReport.Status.EQUAL;
+import static com.calipsoide.diffing.business.DiffReport.Status.NOT_EQUAL;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DiffReportPageSerializerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void sameFieldsAsResource() throws Exception {
+        final DiffReport report = DiffReport.of(NOT_EQUAL, new int[]{3, 2, 7, 1, 300, 4});
+        final DiffReportResource resource = new DiffReportResource(
+                "not_equal",
+                new DiffInsightResource[]{
+                        new DiffInsightResource(3, 2),
+                        new DiffInsightResource(7, 1),
+                        new DiffInsightResource(300, 4)},
+                new DiffEditResource[0]);
+        assertThat(objectMapper.writeValueAsString(new DiffReportPage(report, 0, 3, true)))
+                .isEqualTo(objectMapper.writeValueAsString(resource));
+    }
+
+    @Test
+    void sameFieldsAsResourceWithEdits() throws Exception {
+        final DiffReport report = DiffReport.ofEdits(NOT_EQUAL, new int[]{2, 0, 2, 3});
+        final DiffReportResource resource = new DiffReportResource(
+                "not_equal",
+                new DiffInsightResource[0],
+                new DiffEditResource[]{new DiffEditResource("insert", 2, 0, 2, 3)});
+        assertThat(objectMapper.writeValueAsString(new DiffReportPage(report, 0, 0, true)))
+                .isEqualTo(objectMapper.writeValueAsString(resource));
+    }
+
+    @Test
+    void editsInFirstPageOnly() throws Exception {
+        final DiffReport report = DiffReport.ofEdits(NOT_EQUAL, new int[]{2, 0, 2, 3});
+        final DiffReportResource resource =
+                new DiffReportResource("not_equal", new DiffInsightResource[0], new DiffEditResource[0]);
+        assertThat(objectMapper.writeValueAsString(new DiffReportPage(report, 0, 0, false)))
+                .isEqualTo(objectMapper.writeValueAsString(resource));
+    }
+
+    @Test
+    void nextPageCursor() throws Exception {
+        final DiffReport report = DiffReport.of(NOT_EQUAL, new int[]{3, 2, 7, 1, 300, 4});
+        assertThat(objectMapper.readTree(objectMapper.writeValueAsString(new DiffReportPage(report, 1, 2, false)))
+                .get("next").asInt()).isEqualTo(7);
+    }
+
+    @Test
+    void sameFieldsAsResourceWhenEqual() throws Exception {
+        final DiffReport report = DiffReport.of(EQUAL);
+        final DiffReportResource resource =
+                new DiffReportResource("equal", new DiffInsightResource[0], new DiffEditResource[0]);
+        assertThat(objectMapper.writeValueAsString(new DiffReportPage(report, 0, 0, true)))
+                .isEqualTo(objectMapper.writeValueAsString(resource));
+    }
+
+}
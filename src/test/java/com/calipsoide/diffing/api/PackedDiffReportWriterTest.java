@@ -0,0 +1,67 @@
+package com.calipsoide.diffing.api;
+
+import com.calipsoide.diffing.business.DiffReport;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import static com.calipsoide.diffing.business.DiffReport.Status.NOT_EQUAL;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PackedDiffReportWriterTest {
+
+    private static byte[] encode(DiffReportPage page) {
+        final DataBuffer buffer = PackedDiffReportWriter.encode(page, new DefaultDataBufferFactory());
+        final byte[] bytes = new byte[buffer.readableByteCount()];
+        buffer.read(bytes);
+        return bytes;
+    }
+
+    @Test
+    void encodeInsights() {
+        final DiffReport report = DiffReport.of(NOT_EQUAL, new int[]{3, 2, 7, 1, 300, 4});
+        final byte[] packed = encode(new DiffReportPage(report, 0, 3, true));
+        assertThat(packed).containsExactly(
+                9, 'n', 'o', 't', '_', 'e', 'q', 'u', 'a', 'l',
+                0, // no next page
+                3, // insights
+                6, 2, // gap 3, zigzag-encoded
+                4, 1, // gap 2 from the end of the previous insight
+                0xC8, 0x04, 4, // gap 292 takes two bytes
+                0); // edits
+    }
+
+    @Test
+    void encodePage() {
+        final DiffReport report = DiffReport.of(NOT_EQUAL, new int[]{3, 2, 7, 1, 300, 4});
+        final byte[] packed = encode(new DiffReportPage(report, 1, 2, false));
+        assertThat(packed).endsWith(
+                8, // next page after offset 7, plus one
+                1, // insights
+                14, 1, // gap from the start, as the page is read on its own
+                0); // edits
+    }
+
+    @Test
+    void encodeEdits() {
+        final DiffReport report = DiffReport.ofEdits(NOT_EQUAL, new int[]{2, 0, 2, 3, 10, 1, 13, 1});
+        final byte[] packed = encode(new DiffReportPage(report, 0, 0, true));
+        assertThat(packed).endsWith(
+                0, // no next page
+                0, // insights
+                2, // edits
+                4, 0, 4, 3, // insert at 2 on both sides
+                16, 1, 16, 1); // replace 8 bytes after the end of the previous edit on both sides
+    }
+
+    @Test
+    void encodeEditsInFirstPageOnly() {
+        final DiffReport report = DiffReport.ofEdits(NOT_EQUAL, new int[]{2, 0, 2, 3, 10, 1, 13, 1});
+        final byte[] packed = encode(new DiffReportPage(report, 0, 0, false));
+        assertThat(packed).endsWith(
+                0, // no next page
+                0, // insights
+                0); // edits, sent with the first page only
+    }
+
+}
@@ -0,0 +1,237 @@
+package com.calipsoide.diffing.api;
+
+import com.calipsoide.diffing.business.BinaryData;
+import com.calipsoide.diffing.business.DiffSide;
+import com.calipsoide.diffing.business.DiffingMetrics;
+import com.calipsoide.diffing.business.DiffingService;
+import com.calipsoide.diffing.business.MemoryBudget;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
+import static org.apache.commons.lang3.RandomUtils.nextBytes;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.http.HttpHeaders.RETRY_AFTER;
+import static org.springframework.http.HttpStatus.PAYLOAD_TOO_LARGE;
+import static org.springframework.http.MediaType.APPLICATION_OCTET_STREAM;
+import static org.springframework.web.reactive.function.BodyInserters.fromPublisher;
+
+@ExtendWith(MockitoExtension.class)
+class UploadAdmissionFilterTest {
+
+    @Mock
+    private DiffingService service;
+
+    private static MemoryBudget budget(long limit, int queueLimit, long queueTimeoutMs) {
+        return new MemoryBudget(limit, queueLimit, queueTimeoutMs, new DiffingMetrics(new SimpleMeterRegistry()));
+    }
+
+    private static DataBuffer chunk(int length) {
+        return new DefaultDataBufferFactory().wrap(nextBytes(length));
+    }
+
+    /**
+     * Waits for the bytes reserved by a request to be released, which happens right after its response is sent.
+     */
+    private static void assertReleased(MemoryBudget budget) throws InterruptedException {
+        for (int i = 0; i < 100 && budget.getReservedBytes() != 0; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(budget.getReservedBytes()).isZero();
+    }
+
+    private WebTestClient bind(MemoryBudget budget) {
+        return WebTestClient
+                .bindToController(new DiffingController(service))
+                .webFilter(new UploadAdmissionFilter(budget, new ObjectMapper()))
+                .build();
+    }
+
+    /**
+     * Makes the service record the bytes reserved while it processes an upload.
+     */
+    private void processRecordingReserved(MemoryBudget budget, AtomicLong reserved) {
+        when(service.process(anyString(), any(DiffSide.class), any(BinaryData.class), isNull()))
+                .thenReturn(Mono.fromRunnable(() -> reserved.set(budget.getReservedBytes())));
+    }
+
+    @Test
+    @DisplayName("rejects uploads larger than the whole budget with 413")
+    void tooLarge() {
+        final MemoryBudget budget = budget(16, 1, 1000);
+        bind(budget)
+                .post()
+                .uri("/v1/diff/{name}/left", randomAlphanumeric(32))
+                .contentType(APPLICATION_OCTET_STREAM)
+                .contentLength(32)
+                .syncBody(nextBytes(32))
+                .exchange()
+                .expectStatus().isEqualTo(PAYLOAD_TOO_LARGE)
+                .expectBody()
+                .jsonPath("error").isEqualTo("payload is larger than the memory budget");
+        verify(service, never()).process(anyString(), any(DiffSide.class), any(BinaryData.class), any());
+        assertThat(budget.getReservedBytes()).isZero();
+    }
+
+    @Test
+    @DisplayName("rejects uploads with 503 if the queue is full")
+    void queueFull() {
+        final MemoryBudget budget = budget(32, 0, 1000);
+        assertThat(budget.tryReserve(32)).isTrue(); // held by another upload
+        bind(budget)
+                .post()
+                .uri("/v1/diff/{name}/left", randomAlphanumeric(32))
+                .contentType(APPLICATION_OCTET_STREAM)
+                .contentLength(16)
+                .syncBody(nextBytes(16))
+                .exchange()
+                .expectStatus().isEqualTo(503)
+                .expectHeader().valueEquals(RETRY_AFTER, "1")
+                .expectBody()
+                .jsonPath("error").isEqualTo("too many uploads in progress");
+        verify(service, never()).process(anyString(), any(DiffSide.class), any(BinaryData.class), any());
+        assertThat(budget.getReservedBytes()).isEqualTo(32);
+    }
+
+    @Test
+    @DisplayName("rejects uploads with 503 once they waited too long in the queue")
+    void queueTimeout() {
+        final MemoryBudget budget = budget(32, 1, 50);
+        assertThat(budget.tryReserve(32)).isTrue();
+        bind(budget)
+                .post()
+                .uri("/v1/diff/{name}/left", randomAlphanumeric(32))
+                .contentType(APPLICATION_OCTET_STREAM)
+                .contentLength(16)
+                .syncBody(nextBytes(16))
+                .exchange()
+                .expectStatus().isEqualTo(503)
+                .expectHeader().valueEquals(RETRY_AFTER, "1");
+        verify(service, never()).process(anyString(), any(DiffSide.class), any(BinaryData.class), any());
+        assertThat(budget.getQueuedCount()).isZero();
+        assertThat(budget.getReservedBytes()).isEqualTo(32);
+    }
+
+    @Test
+    @DisplayName("reserves the declared length while the upload is processed, and releases it once done")
+    void admitted() throws InterruptedException {
+        final MemoryBudget budget = budget(1000, 1, 1000);
+        final AtomicLong reserved = new AtomicLong();
+        processRecordingReserved(budget, reserved);
+        bind(budget)
+                .post()
+                .uri("/v1/diff/{name}/left", randomAlphanumeric(32))
+                .contentType(APPLICATION_OCTET_STREAM)
+                .contentLength(32)
+                .syncBody(nextBytes(32))
+                .exchange()
+                .expectStatus().isNoContent();
+        assertThat(reserved.get()).isEqualTo(32);
+        assertReleased(budget);
+    }
+
+    @Test
+    @DisplayName("releases the declared length if processing fails")
+    void failed() throws InterruptedException {
+        final MemoryBudget budget = budget(1000, 1, 1000);
+        when(service.process(anyString(), any(DiffSide.class), any(BinaryData.class), isNull()))
+                .thenReturn(Mono.error(new IllegalStateException("ups!")));
+        bind(budget)
+                .post()
+                .uri("/v1/diff/{name}/left", randomAlphanumeric(32))
+                .contentType(APPLICATION_OCTET_STREAM)
+                .contentLength(32)
+                .syncBody(nextBytes(32))
+                .exchange()
+                .expectStatus().is5xxServerError();
+        assertReleased(budget);
+    }
+
+    @Test
+    @DisplayName("releases the declared length if the client goes away")
+    void cancelled() {
+        final MemoryBudget budget = budget(1000, 1, 1000);
+        final MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest
+                .post("/v1/diff/{name}/left", randomAlphanumeric(32))
+                .contentLength(8)
+                .body("12345678"));
+        final Disposable upload = new UploadAdmissionFilter(budget, new ObjectMapper())
+                .filter(exchange, admitted -> Mono.never())
+                .subscribe();
+        assertThat(budget.getReservedBytes()).isEqualTo(8);
+        upload.dispose();
+        assertThat(budget.getReservedBytes()).isZero();
+    }
+
+    @Test
+    @DisplayName("reserves each chunk of an upload without declared length as it arrives")
+    void chunked() throws InterruptedException {
+        final MemoryBudget budget = budget(1000, 1, 1000);
+        final AtomicLong reserved = new AtomicLong();
+        processRecordingReserved(budget, reserved);
+        bind(budget)
+                .post()
+                .uri("/v1/diff/{name}/left", randomAlphanumeric(32))
+                .contentType(APPLICATION_OCTET_STREAM)
+                .body(fromPublisher(Flux.just(chunk(8), chunk(16)), DataBuffer.class))
+                .exchange()
+                .expectStatus().isNoContent();
+        assertThat(reserved.get()).isEqualTo(24);
+        assertReleased(budget);
+    }
+
+    @Test
+    @DisplayName("rejects an upload without declared length with 503 as soon as a chunk does not fit")
+    void chunkedOverBudget() throws InterruptedException {
+        final MemoryBudget budget = budget(16, 1, 1000);
+        bind(budget)
+                .post()
+                .uri("/v1/diff/{name}/left", randomAlphanumeric(32))
+                .contentType(APPLICATION_OCTET_STREAM)
+                .body(fromPublisher(Flux.just(chunk(8), chunk(16)), DataBuffer.class))
+                .exchange()
+                .expectStatus().isEqualTo(503)
+                .expectHeader().valueEquals(RETRY_AFTER, "1");
+        verify(service, never()).process(anyString(), any(DiffSide.class), any(BinaryData.class), any());
+        assertReleased(budget);
+    }
+
+    @Test
+    @DisplayName("answers reads whose diff on read does not fit in the budget with the same 503 as uploads")
+    void readOverBudget() {
+        final String name = randomAlphanumeric(32);
+        when(service.getReportOf(name))
+                .thenReturn(Mono.error(new RejectedExecutionException("memory budget is exhausted")));
+        bind(budget(16, 1, 1000))
+                .get()
+                .uri("/v1/diff/{name}", name)
+                .exchange()
+                .expectStatus().isEqualTo(503)
+                .expectHeader().valueEquals(RETRY_AFTER, "1")
+                .expectBody()
+                .jsonPath("error").isEqualTo("too many diffs in progress");
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.calipsoide.diffing.business;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.apache.commons.lang3.RandomUtils.nextBytes;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BinaryDataTest {
+
+    @Test
+    void wrapArray() {
+        final byte[] bytes = nextBytes(32);
+        final BinaryData data = BinaryData.of(bytes);
+        assertThat(data.getBytes()).isSameAs(bytes);
+        assertThat(data.asByteBuffer().isReadOnly()).isTrue();
+        assertThat(data.asByteBuffer().remaining()).isEqualTo(32);
+    }
+
+    @Test
+    void wrapSlice() {
+        final byte[] bytes = nextBytes(32);
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes, 8, 16);
+        final BinaryData data = BinaryData.of(buffer);
+        assertThat(buffer.position()).isEqualTo(8);
+        assertThat(data.getLength()).isEqualTo(16);
+        assertThat(data.getByteAt(0)).isEqualTo(bytes[8]);
+        assertThat(data.getBytes()).isEqualTo(Arrays.copyOfRange(bytes, 8, 24));
+        assertThat(data.getHash()).isEqualTo(BinaryData.of(Arrays.copyOfRange(bytes, 8, 24)).getHash());
+        bytes[8] = (byte) ~bytes[8];
+        assertThat(data.getByteAt(0)).isEqualTo(bytes[8]); // shared, not copied
+    }
+
+    @Test
+    void wrapDirectBuffer() {
+        final byte[] bytes = nextBytes(32);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        final BinaryData data = BinaryData.of(buffer);
+        assertThat(data.getBytes()).isEqualTo(bytes);
+        assertThat(data.getHash()).isEqualTo(BinaryData.of(bytes).getHash());
+        final byte[] patched = bytes.clone();
+        patched[4] = 1;
+        patched[5] = 2;
+        assertThat(data.patch(4, new byte[]{1, 2}).getBytes()).isEqualTo(patched);
+    }
+
+}
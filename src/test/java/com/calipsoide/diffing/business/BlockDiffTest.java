@@ -0,0 +1,100 @@
+package com.calipsoide.diffing.business;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static java.nio.ByteBuffer.wrap;
+import static org.apache.commons.lang3.RandomUtils.nextBytes;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BlockDiffTest {
+
+    private final BlockDiff blockDiff = new BlockDiff(16);
+
+    @Test
+    void equalSides() {
+        final byte[] bytes = nextBytes(1000);
+        assertThat(blockDiff.diff(wrap(bytes), wrap(bytes.clone()))).isEmpty();
+        assertThat(blockDiff.diff(wrap(new byte[0]), wrap(new byte[0]))).isEmpty();
+    }
+
+    @Test
+    void sidesShorterThanBlocks() {
+        assertThat(blockDiff.diff(wrap(new byte[]{1, 2, 3}), wrap(new byte[]{1, 5, 3}))).containsExactly(1, 1, 1, 1);
+        assertThat(blockDiff.diff(wrap(new byte[0]), wrap(new byte[5]))).containsExactly(0, 0, 0, 5);
+    }
+
+    @Test
+    void insertionNearTheStart() {
+        final byte[] left = nextBytes(1024 * 1024);
+        final ByteArrayOutputStream right = new ByteArrayOutputStream();
+        right.write(left, 0, 10);
+        right.write(new byte[]{(byte) ~left[10], (byte) ~left[9]}, 0, 2);
+        right.write(left, 10, left.length - 10);
+        assertThat(blockDiff.diff(wrap(left), wrap(right.toByteArray()))).containsExactly(10, 0, 10, 2);
+    }
+
+    @Test
+    void deletionAndReplacement() {
+        final byte[] left = nextBytes(10000);
+        left[3100] = (byte) ~left[3000]; // so that common prefix ends right at the deletion
+        final ByteArrayOutputStream right = new ByteArrayOutputStream();
+        right.write(left, 0, 3000);
+        right.write(left, 3100, 4000); // 100 bytes deleted
+        right.write(new byte[]{(byte) ~left[7100]}, 0, 1); // 1 byte replaced
+        right.write(left, 7101, left.length - 7101);
+        assertThat(blockDiff.diff(wrap(left), wrap(right.toByteArray())))
+                .containsExactly(3000, 100, 3000, 0, 7100, 1, 7000, 1);
+    }
+
+    @Test
+    void validScriptForRandomEdits() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            final byte[] left = new byte[random.nextInt(500)];
+            final int alphabet = random.nextBoolean() ? 2 : 256; // also repetitive data
+            for (int j = 0; j < left.length; j++) {
+                left[j] = (byte) random.nextInt(alphabet);
+            }
+            final ByteArrayOutputStream right = new ByteArrayOutputStream();
+            int position = 0;
+            while (position < left.length) {
+                final int length = Math.min(left.length - position, 1 + random.nextInt(80));
+                switch (random.nextInt(3)) {
+                    case 0: // inserted before
+                        final byte[] inserted = nextBytes(random.nextInt(20));
+                        right.write(inserted, 0, inserted.length);
+                        right.write(left, position, length);
+                        break;
+                    case 1: // deleted
+                        break;
+                    default:
+                        right.write(left, position, length);
+                }
+                position += length;
+            }
+            assertApplies(left, right.toByteArray(), blockDiff.diff(wrap(left), wrap(right.toByteArray())));
+        }
+    }
+
+    /**
+     * Asserts that edits are sorted, separated by common bytes, and turn left side into right side.
+     */
+    private static void assertApplies(byte[] left, byte[] right, int[] edits) {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        int position = 0;
+        for (int i = 0; i < edits.length; i += 4) {
+            assertThat(edits[i + 1] + edits[i + 3]).isPositive();
+            assertThat(edits[i]).isGreaterThanOrEqualTo(i == 0 ? 0 : position + 1);
+            result.write(left, position, edits[i] - position);
+            assertThat(edits[i + 2]).isEqualTo(result.size());
+            result.write(right, edits[i + 2], edits[i + 3]);
+            position = edits[i] + edits[i + 1];
+        }
+        result.write(left, position, left.length - position);
+        assertThat(result.toByteArray()).isEqualTo(right);
+    }
+
+}
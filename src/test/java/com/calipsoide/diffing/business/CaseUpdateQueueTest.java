@@ -0,0 +1,102 @@
+package com.calipsoide.diffing.business;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.apache.commons.lang3.RandomUtils.nextBytes;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CaseUpdateQueueTest {
+
+    private final List<BinaryData[]> writes = new ArrayList<>();
+
+    @Test
+    @DisplayName("merges the updates that queue up while a case is written")
+    void mergeQueuedUpdates() {
+        final MonoProcessor<Void> firstWrite = MonoProcessor.create();
+        final CaseUpdateQueue queue = new CaseUpdateQueue(Duration.ZERO, (name, leftData, rightData, engine) -> {
+            writes.add(new BinaryData[]{leftData, rightData});
+            return writes.size() == 1 ? firstWrite : Mono.empty();
+        });
+        final BinaryData first = BinaryData.of(nextBytes(8));
+        final BinaryData second = BinaryData.of(nextBytes(8));
+        final BinaryData third = BinaryData.of(nextBytes(8));
+        final BinaryData fourth = BinaryData.of(nextBytes(8));
+        final MonoProcessor<Void> firstResult = queue.submit("case", DiffSide.LEFT, first, null).toProcessor();
+        final MonoProcessor<Void> secondResult = queue.submit("case", DiffSide.LEFT, second, null).toProcessor();
+        final MonoProcessor<Void> thirdResult = queue.submit("case", DiffSide.RIGHT, third, null).toProcessor();
+        final MonoProcessor<Void> fourthResult = queue.submit("case", DiffSide.LEFT, fourth, null).toProcessor();
+        assertThat(writes).hasSize(1); // the rest wait for the first write
+        assertThat(secondResult.isTerminated()).isFalse();
+        firstWrite.onComplete();
+        StepVerifier
+                .create(Mono.when(firstResult, secondResult, thirdResult, fourthResult))
+                .verifyComplete();
+        assertThat(writes).hasSize(2);
+        assertThat(writes.get(0)).containsExactly(first, null);
+        assertThat(writes.get(1)).containsExactly(fourth, third);
+        assertThat(queue.getQueuedCaseCount()).isZero();
+    }
+
+    @Test
+    @DisplayName("does not make updates of different cases wait for each other")
+    void writeCasesIndependently() {
+        final CaseUpdateQueue queue = new CaseUpdateQueue(Duration.ZERO, (name, leftData, rightData, engine) -> {
+            writes.add(new BinaryData[]{leftData, rightData});
+            return MonoProcessor.create(); // never completes
+        });
+        queue.submit("one", DiffSide.LEFT, BinaryData.of(nextBytes(8)), null).subscribe();
+        queue.submit("other", DiffSide.LEFT, BinaryData.of(nextBytes(8)), null).subscribe();
+        assertThat(writes).hasSize(2);
+        assertThat(queue.getQueuedCaseCount()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("merges the updates that arrive within the window")
+    void mergeUpdatesWithinWindow() {
+        final CaseUpdateQueue queue =
+                new CaseUpdateQueue(Duration.ofMillis(100), (name, leftData, rightData, engine) -> {
+                    writes.add(new BinaryData[]{leftData, rightData});
+                    return Mono.empty();
+                });
+        final BinaryData left = BinaryData.of(nextBytes(8));
+        final BinaryData right = BinaryData.of(nextBytes(8));
+        StepVerifier
+                .create(Mono.when(
+                        queue.submit("case", DiffSide.LEFT, left, null),
+                        queue.submit("case", DiffSide.RIGHT, right, DiffEngine.MYERS)))
+                .verifyComplete();
+        assertThat(writes).hasSize(1);
+        assertThat(writes.get(0)).containsExactly(left, right);
+    }
+
+    @Test
+    @DisplayName("fails every update merged into a failed write")
+    void shareWriteError() {
+        final CaseUpdateQueue queue =
+                new CaseUpdateQueue(Duration.ofMillis(100), (name, leftData, rightData, engine) -> {
+                    writes.add(new BinaryData[]{leftData, rightData});
+                    return Mono.error(new IllegalStateException("ups!"));
+                });
+        final MonoProcessor<Void> leftResult =
+                queue.submit("case", DiffSide.LEFT, BinaryData.of(nextBytes(8)), null).toProcessor();
+        final MonoProcessor<Void> rightResult =
+                queue.submit("case", DiffSide.RIGHT, BinaryData.of(nextBytes(8)), null).toProcessor();
+        StepVerifier
+                .create(leftResult)
+                .verifyErrorMessage("ups!");
+        StepVerifier
+                .create(rightResult)
+                .verifyErrorMessage("ups!");
+        assertThat(writes).hasSize(1);
+        assertThat(queue.getQueuedCaseCount()).isZero();
+    }
+
+}
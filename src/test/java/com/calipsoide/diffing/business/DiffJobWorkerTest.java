@@ -0,0 +1,115 @@
+package com.calipsoide.diffing.business;
+
+import com.calipsoide.diffing.persistence.DiffingStorage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class DiffJobWorkerTest {
+
+    private DiffJobWorker worker;
+
+    @Mock
+    private DiffingService service;
+
+    @Mock
+    private DiffingStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        worker = new DiffJobWorker(service, storage, 1, 100, 60, 3, 1000);
+    }
+
+    @Test
+    @DisplayName("runs queued jobs until there are none left")
+    void pollRunsJobs() {
+        final DiffJob first = new DiffJob(randomAlphanumeric(32), 1, 0);
+        final DiffJob second = new DiffJob(randomAlphanumeric(32), 3, 0);
+        when(storage.claimDiff(Duration.ofSeconds(60))).thenReturn(Mono.just(first), Mono.just(second), Mono.empty());
+        when(service.diffQueued(any())).thenReturn(Mono.empty());
+        when(storage.completeDiff(any(DiffJob.class))).thenReturn(Mono.empty());
+        StepVerifier
+                .create(worker.poll())
+                .verifyComplete();
+        verify(service).diffQueued(first.getCaseName());
+        verify(service).diffQueued(second.getCaseName());
+        verify(storage).completeDiff(first);
+        verify(storage).completeDiff(second);
+        verify(storage, times(3)).claimDiff(Duration.ofSeconds(60));
+    }
+
+    @Test
+    @DisplayName("releases a job that cannot be diffed now, and stops claiming until the next poll")
+    void pollReleasesFailedJob() {
+        final DiffJob job = new DiffJob(randomAlphanumeric(32), 1, 0);
+        when(storage.claimDiff(Duration.ofSeconds(60))).thenReturn(Mono.just(job));
+        when(service.diffQueued(job.getCaseName())).thenReturn(Mono.error(new RejectedExecutionException("busy")));
+        when(storage.releaseDiff(job)).thenReturn(Mono.empty());
+        StepVerifier
+                .create(worker.poll())
+                .verifyComplete();
+        verify(storage, never()).completeDiff(any(DiffJob.class));
+        verify(storage, times(1)).claimDiff(Duration.ofSeconds(60));
+    }
+
+    @Test
+    @DisplayName("retries a failing job after a backoff, while other jobs still complete")
+    void pollRetriesFailingJob() {
+        final DiffJob failing = new DiffJob(randomAlphanumeric(32), 1, 1);
+        final DiffJob other = new DiffJob(randomAlphanumeric(32), 1, 0);
+        when(storage.claimDiff(Duration.ofSeconds(60))).thenReturn(Mono.just(failing), Mono.just(other), Mono.empty());
+        when(service.diffQueued(failing.getCaseName()))
+                .thenReturn(Mono.error(new IllegalStateException("missing file")));
+        when(service.diffQueued(other.getCaseName())).thenReturn(Mono.empty());
+        when(storage.retryDiff(failing, Duration.ofMillis(2000))).thenReturn(Mono.empty());
+        when(storage.completeDiff(other)).thenReturn(Mono.empty());
+        StepVerifier
+                .create(worker.poll())
+                .verifyComplete();
+        verify(storage).retryDiff(failing, Duration.ofMillis(2000)); // second failed attempt, so backoff doubled
+        verify(storage, never()).completeDiff(failing);
+        verify(storage, never()).releaseDiff(any(DiffJob.class));
+        verify(storage).completeDiff(other);
+        verify(storage, times(3)).claimDiff(Duration.ofSeconds(60));
+    }
+
+    @Test
+    @DisplayName("drops a job that failed too many times")
+    void pollDropsFailingJob() {
+        final DiffJob job = new DiffJob(randomAlphanumeric(32), 1, 2);
+        when(storage.claimDiff(Duration.ofSeconds(60))).thenReturn(Mono.just(job), Mono.empty());
+        when(service.diffQueued(job.getCaseName())).thenReturn(Mono.error(new IllegalStateException("corrupt blob")));
+        when(storage.completeDiff(job)).thenReturn(Mono.empty());
+        StepVerifier
+                .create(worker.poll())
+                .verifyComplete();
+        verify(storage).completeDiff(job);
+        verify(storage, never()).retryDiff(any(DiffJob.class), any(Duration.class));
+    }
+
+    @Test
+    @DisplayName("completes the poll if the queue cannot be read")
+    void pollStorageError() {
+        when(storage.claimDiff(Duration.ofSeconds(60))).thenReturn(Mono.error(new IllegalStateException("ups!")));
+        StepVerifier
+                .create(worker.poll())
+                .verifyComplete();
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.calipsoide.diffing.business;
+
+import com.google.common.collect.ImmutableList;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static com.calipsoide.diffing.business.DiffReport.Status.EQUAL;
+import static com.calipsoide.diffing.business.DiffReport.Status.NOT_EQUAL;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DiffReportCacheTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private double gets(String result) {
+        return registry.get("cache.gets").tag("cache", "diff.reports").tag("result", result).functionCounter().count();
+    }
+
+    @Test
+    @DisplayName("keeps reports until invalidated")
+    void putAndInvalidate() {
+        final DiffReportCache cache = new DiffReportCache(100, 60, new DiffingMetrics(registry));
+        final DiffReport report = DiffReport.of(EQUAL);
+        cache.put("case", report);
+        assertThat(cache.get("case")).contains(report);
+        cache.invalidate("case");
+        assertThat(cache.get("case")).isEmpty();
+        assertThat(gets("hit")).isEqualTo(1);
+        assertThat(gets("miss")).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("does not cache a report read before the case was written")
+    void putIfCurrent() {
+        final DiffReportCache cache = new DiffReportCache(100, 60, new DiffingMetrics(registry));
+        final DiffReport read = DiffReport.of(EQUAL);
+        final DiffReport written = DiffReport.of(NOT_EQUAL);
+        final long generation = cache.generation("case");
+        cache.put("case", written);
+        assertThat(cache.putIfCurrent("case", read, generation)).isFalse();
+        assertThat(cache.get("case")).contains(written);
+        final long invalidated = cache.generation("case");
+        cache.invalidate("case");
+        assertThat(cache.putIfCurrent("case", read, invalidated)).isFalse();
+        assertThat(cache.get("case")).isEmpty();
+        assertThat(cache.putIfCurrent("case", read, cache.generation("case"))).isTrue();
+        assertThat(cache.get("case")).contains(read);
+    }
+
+    @Test
+    @DisplayName("evicts reports weighing more than the cache limit")
+    void evictByWeight() {
+        final DiffReportCache cache = new DiffReportCache(100, 60, new DiffingMetrics(registry));
+        final DiffReport report = DiffReport.of(
+                NOT_EQUAL, ImmutableList.copyOf(Collections.nCopies(200, new DiffInsight(0, 1))));
+        cache.put("huge", report);
+        assertThat(cache.get("huge")).isEmpty();
+        assertThat(registry.get("cache.evictions").tag("cache", "diff.reports").functionCounter().count())
+                .isEqualTo(1);
+    }
+
+}
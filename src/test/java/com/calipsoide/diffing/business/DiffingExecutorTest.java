@@ -0,0 +1,76 @@
+package com.calipsoide.diffing.business;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DiffingExecutorTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final DiffingExecutor executor = new DiffingExecutor(1, 1, new DiffingMetrics(registry));
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        latch.countDown();
+        executor.destroy();
+    }
+
+    @Test
+    void runsOffCallerThread() {
+        final Thread caller = Thread.currentThread();
+        StepVerifier
+                .create(Mono.fromCallable(Thread::currentThread).subscribeOn(executor.getScheduler()))
+                .assertNext(thread -> {
+                    assertThat(thread).isNotEqualTo(caller);
+                    assertThat(thread.getName()).startsWith("diffing-");
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void rejectsWhenQueueIsFull() throws InterruptedException {
+        final Mono<Boolean> blocked = Mono.fromCallable(() -> {
+            latch.await();
+            return true;
+        });
+        blocked.subscribeOn(executor.getScheduler()).subscribe(); // takes the only thread
+        blocked.subscribeOn(executor.getScheduler()).subscribe(); // takes the only queue slot
+        StepVerifier
+                .create(blocked.subscribeOn(executor.getScheduler()))
+                .verifyError(RejectedExecutionException.class);
+        assertThat(executor.getRejectedCount()).isEqualTo(1);
+        awaitUntil(() -> executor.getActiveCount() == 1); // the thread may not have started the task yet
+        assertThat(registry.get("diffing.executor.active").gauge().value()).isEqualTo(1);
+        assertThat(registry.get("diffing.executor.queued").gauge().value()).isEqualTo(1);
+        assertThat(registry.get("diffing.executor.rejected").functionCounter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void countsCompletedTasks() throws InterruptedException {
+        StepVerifier
+                .create(Mono.just(true).subscribeOn(executor.getScheduler()))
+                .expectNext(true)
+                .verifyComplete();
+        // the pool counts a task as completed right after it returns, which may be after its result is emitted
+        awaitUntil(() -> executor.getCompletedCount() == 1);
+        assertThat(registry.get("diffing.executor.completed").functionCounter().count()).isEqualTo(1);
+    }
+
+}
@@ -2,8 +2,11 @@ package com.calipsoide.diffing.business;
 
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import static com.calipsoide.diffing.business.DiffReport.Status.*;
 import static org.apache.commons.lang3.RandomUtils.nextBytes;
@@ -113,4 +116,285 @@ class DiffingLogicTest {
         assertThat(difference.getLength()).isEqualTo(leftBytes.length);
     }
 
-}
\ No newline at end of file
+    @Test
+    void summaryOfDiff() {
+        final byte[] leftBytes = nextBytes(64);
+        final byte[] rightBytes = leftBytes.clone();
+        for (int i : new int[]{3, 20, 21, 22, 40, 41}) {
+            rightBytes[i] = (byte) ~rightBytes[i];
+        }
+        final DiffReport report = logic.diff(BinaryData.of(leftBytes), BinaryData.of(rightBytes));
+        final DiffSummary summary = report.getSummary();
+        assertThat(summary.getStatus()).isEqualTo(NOT_EQUAL);
+        assertThat(summary.getDifferingBytes()).isEqualTo(6);
+        assertThat(summary.getRunCount()).isEqualTo(3);
+        assertThat(summary.getLongestRun()).isEqualTo(3);
+        assertThat(summary.getFirstOffset()).isEqualTo(3);
+        assertThat(summary.getLastOffset()).isEqualTo(41);
+    }
+
+    @Test
+    void summaryOfEqualSides() {
+        final byte[] bytes = nextBytes(64);
+        final DiffSummary summary = logic.diff(BinaryData.of(bytes), BinaryData.of(bytes.clone())).getSummary();
+        assertThat(summary.getStatus()).isEqualTo(EQUAL);
+        assertThat(summary.getDifferingBytes()).isZero();
+        assertThat(summary.getRunCount()).isZero();
+        assertThat(summary.getFirstOffset()).isEqualTo(-1);
+        assertThat(summary.getLastOffset()).isEqualTo(-1);
+    }
+
+    @Test
+    void differencesAcrossWordBoundaries() {
+        final byte[] leftBytes = nextBytes(27);
+        final byte[] rightBytes = Arrays.copyOf(leftBytes, leftBytes.length);
+        // offset 6, length 4 (spans first and second words)
+        for (int i = 6; i < 10; i++) {
+            rightBytes[i] = (byte) ~rightBytes[i];
+        }
+        // offset 15, length 10 (spans second, third and fourth words, ends in the unaligned tail)
+        for (int i = 15; i < 25; i++) {
+            rightBytes[i] = (byte) ~rightBytes[i];
+        }
+        // offset 26, length 1 (last byte)
+        rightBytes[26] = (byte) ~rightBytes[26];
+        final DiffReport report = logic.diff(BinaryData.of(leftBytes), BinaryData.of(rightBytes));
+        assertThat(report.getStatus()).isEqualTo(NOT_EQUAL);
+        final List<DiffInsight> insights = report.getInsights();
+        assertThat(insights).hasSize(3);
+        assertThat(insights.get(0).getOffset()).isEqualTo(6);
+        assertThat(insights.get(0).getLength()).isEqualTo(4);
+        assertThat(insights.get(1).getOffset()).isEqualTo(15);
+        assertThat(insights.get(1).getLength()).isEqualTo(10);
+        assertThat(insights.get(2).getOffset()).isEqualTo(26);
+        assertThat(insights.get(2).getLength()).isEqualTo(1);
+    }
+
+    @Test
+    void sameResultsAsByteByByteComparison() {
+        final Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            final byte[] leftBytes = nextBytes(random.nextInt(100));
+            final byte[] rightBytes = Arrays.copyOf(leftBytes, leftBytes.length);
+            final double density = random.nextDouble();
+            for (int i = 0; i < rightBytes.length; i++) {
+                if (random.nextDouble() < density) {
+                    rightBytes[i] ^= 1 << random.nextInt(8); // flip a single bit
+                }
+            }
+            final List<DiffInsight> insights =
+                    logic.diff(BinaryData.of(leftBytes), BinaryData.of(rightBytes)).getInsights();
+            final List<int[]> expected = byteByByteRuns(leftBytes, rightBytes);
+            assertThat(insights).hasSize(expected.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertThat(insights.get(i).getOffset()).isEqualTo(expected.get(i)[0]);
+                assertThat(insights.get(i).getLength()).isEqualTo(expected.get(i)[1]);
+            }
+        }
+    }
+
+    @Test
+    void parallelDiffJoinsRunsAcrossChunks() {
+        final DiffingLogic parallelLogic = new DiffingLogic(64, 16); // chunks of 16 bytes at most
+        final byte[] leftBytes = nextBytes(64);
+        final byte[] rightBytes = Arrays.copyOf(leftBytes, leftBytes.length);
+        // offset 12, length 24 (crosses the chunk boundaries at 16 and 32)
+        for (int i = 12; i < 36; i++) {
+            rightBytes[i] = (byte) ~rightBytes[i];
+        }
+        // offset 48, length 16 (a whole chunk, up to the end)
+        for (int i = 48; i < 64; i++) {
+            rightBytes[i] = (byte) ~rightBytes[i];
+        }
+        final DiffReport report = parallelLogic.diff(BinaryData.of(leftBytes), BinaryData.of(rightBytes));
+        assertThat(report.getStatus()).isEqualTo(NOT_EQUAL);
+        final List<DiffInsight> insights = report.getInsights();
+        assertThat(insights).hasSize(2);
+        assertThat(insights.get(0).getOffset()).isEqualTo(12);
+        assertThat(insights.get(0).getLength()).isEqualTo(24);
+        assertThat(insights.get(1).getOffset()).isEqualTo(48);
+        assertThat(insights.get(1).getLength()).isEqualTo(16);
+    }
+
+    @Test
+    void parallelDiffSameResultsAsSequential() {
+        final DiffingLogic parallelLogic = new DiffingLogic(0, 16);
+        final Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            final byte[] leftBytes = nextBytes(random.nextInt(1000));
+            final byte[] rightBytes = Arrays.copyOf(leftBytes, leftBytes.length);
+            for (int i = 0; i < rightBytes.length; i++) {
+                if (random.nextInt(4) == 0) {
+                    rightBytes[i] = (byte) ~rightBytes[i];
+                }
+            }
+            final List<DiffInsight> expected =
+                    logic.diff(BinaryData.of(leftBytes), BinaryData.of(rightBytes)).getInsights();
+            final List<DiffInsight> actual =
+                    parallelLogic.diff(BinaryData.of(leftBytes), BinaryData.of(rightBytes)).getInsights();
+            assertThat(actual).hasSize(expected.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertThat(actual.get(i).getOffset()).isEqualTo(expected.get(i).getOffset());
+                assertThat(actual.get(i).getLength()).isEqualTo(expected.get(i).getLength());
+            }
+        }
+    }
+
+    @Test
+    void sidesBackedByBuffers() {
+        final DiffingLogic parallelLogic = new DiffingLogic(0, 16);
+        final byte[] leftBytes = nextBytes(100);
+        final byte[] rightBytes = Arrays.copyOf(leftBytes, leftBytes.length);
+        rightBytes[3] = (byte) ~rightBytes[3];
+        rightBytes[50] = (byte) ~rightBytes[50];
+        rightBytes[51] = (byte) ~rightBytes[51];
+        // left side in a direct buffer, right side in an unaligned slice of a larger array
+        final ByteBuffer direct = ByteBuffer.allocateDirect(leftBytes.length);
+        direct.put(leftBytes).flip();
+        final byte[] larger = new byte[rightBytes.length + 10];
+        System.arraycopy(rightBytes, 0, larger, 3, rightBytes.length);
+        final BinaryData leftData = BinaryData.of(direct);
+        final BinaryData rightData = BinaryData.of(ByteBuffer.wrap(larger, 3, rightBytes.length));
+        final List<DiffReport> reports =
+                Arrays.asList(logic.diff(leftData, rightData), parallelLogic.diff(leftData, rightData));
+        for (DiffReport report : reports) {
+            assertThat(report.getStatus()).isEqualTo(NOT_EQUAL);
+            assertThat(report.getInsights()).hasSize(2);
+            assertThat(report.getInsights().get(0).getOffset()).isEqualTo(3);
+            assertThat(report.getInsights().get(0).getLength()).isEqualTo(1);
+            assertThat(report.getInsights().get(1).getOffset()).isEqualTo(50);
+            assertThat(report.getInsights().get(1).getLength()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void rediffSplicesRunsAtRangeBounds() {
+        final byte[] leftBytes = nextBytes(64);
+        final byte[] rightBytes = Arrays.copyOf(leftBytes, leftBytes.length);
+        for (int i = 10; i < 20; i++) {
+            rightBytes[i] = (byte) ~rightBytes[i]; // offset 10, length 10
+        }
+        for (int i = 40; i < 50; i++) {
+            rightBytes[i] = (byte) ~rightBytes[i]; // offset 40, length 10
+        }
+        final DiffReport previous = logic.diff(BinaryData.of(leftBytes), BinaryData.of(rightBytes));
+        // range 15..45 now differs entirely, joining both runs into one
+        for (int i = 15; i < 45; i++) {
+            rightBytes[i] = (byte) ~leftBytes[i];
+        }
+        final DiffReport report =
+                logic.rediff(previous, BinaryData.of(leftBytes), BinaryData.of(rightBytes), 15, 45);
+        assertThat(report.getStatus()).isEqualTo(NOT_EQUAL);
+        assertThat(report.getInsightCount()).isEqualTo(1);
+        assertThat(report.getOffsetAt(0)).isEqualTo(10);
+        assertThat(report.getLengthAt(0)).isEqualTo(40);
+        // range 12..48 is equal again, leaving the trimmed edges of the run
+        System.arraycopy(leftBytes, 12, rightBytes, 12, 36);
+        final DiffReport trimmed =
+                logic.rediff(report, BinaryData.of(leftBytes), BinaryData.of(rightBytes), 12, 48);
+        assertThat(trimmed.getInsightCount()).isEqualTo(2);
+        assertThat(trimmed.getOffsetAt(0)).isEqualTo(10);
+        assertThat(trimmed.getLengthAt(0)).isEqualTo(2);
+        assertThat(trimmed.getOffsetAt(1)).isEqualTo(48);
+        assertThat(trimmed.getLengthAt(1)).isEqualTo(2);
+    }
+
+    @Test
+    void rediffSameResultsAsFullDiff() {
+        final Random random = new Random(13);
+        for (int round = 0; round < 1000; round++) {
+            final byte[] leftBytes = nextBytes(random.nextInt(200));
+            final byte[] rightBytes = Arrays.copyOf(leftBytes, leftBytes.length);
+            for (int i = 0; i < rightBytes.length; i++) {
+                if (random.nextInt(8) == 0) {
+                    rightBytes[i] = (byte) ~rightBytes[i];
+                }
+            }
+            final DiffReport previous = logic.diff(BinaryData.of(leftBytes), BinaryData.of(rightBytes));
+            final int from = random.nextInt(leftBytes.length + 1);
+            final int to = from + random.nextInt(leftBytes.length - from + 1);
+            for (int i = from; i < to; i++) {
+                rightBytes[i] = random.nextBoolean() ? leftBytes[i] : (byte) random.nextInt();
+            }
+            final List<DiffInsight> expected =
+                    logic.diff(BinaryData.of(leftBytes), BinaryData.of(rightBytes)).getInsights();
+            final DiffReport actual =
+                    logic.rediff(previous, BinaryData.of(leftBytes), BinaryData.of(rightBytes), from, to);
+            assertThat(actual.getStatus()).isEqualTo(expected.isEmpty() ? EQUAL : NOT_EQUAL);
+            assertThat(actual.getInsightCount()).isEqualTo(expected.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertThat(actual.getOffsetAt(i)).isEqualTo(expected.get(i).getOffset());
+                assertThat(actual.getLengthAt(i)).isEqualTo(expected.get(i).getLength());
+            }
+        }
+    }
+
+    private static List<int[]> byteByByteRuns(byte[] left, byte[] right) {
+        final List<int[]> runs = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= left.length; i++) {
+            final boolean different = i < left.length && left[i] != right[i];
+            if (different && start < 0) {
+                start = i;
+            } else if (!different && start >= 0) {
+                runs.add(new int[]{start, i - start});
+                start = -1;
+            }
+        }
+        return runs;
+    }
+
+    @Test
+    void editDiffOfUnequalLengths() {
+        final byte[] leftBytes = nextBytes(32);
+        final byte[] rightBytes = new byte[leftBytes.length + 2];
+        System.arraycopy(leftBytes, 0, rightBytes, 0, 10);
+        rightBytes[10] = (byte) ~leftBytes[10]; // 2 bytes inserted, unlike the ones around them
+        rightBytes[11] = (byte) ~leftBytes[9];
+        System.arraycopy(leftBytes, 10, rightBytes, 12, leftBytes.length - 10);
+        final DiffReport report = logic.editDiff(BinaryData.of(leftBytes), BinaryData.of(rightBytes));
+        assertThat(report.getStatus()).isEqualTo(NOT_EQUAL);
+        assertThat(report.getInsights()).isEmpty();
+        assertThat(report.getEdits()).hasSize(1);
+        final DiffEdit edit = report.getEdits().get(0);
+        assertThat(edit.getType()).isEqualTo(DiffEdit.Type.INSERT);
+        assertThat(edit.getLeftOffset()).isEqualTo(10);
+        assertThat(edit.getRightOffset()).isEqualTo(10);
+        assertThat(edit.getRightLength()).isEqualTo(2);
+    }
+
+    @Test
+    void editDiffOfEqualSides() {
+        final byte[] bytes = nextBytes(32);
+        final DiffReport report = logic.editDiff(BinaryData.of(bytes), BinaryData.of(bytes.clone()));
+        assertThat(report.getStatus()).isEqualTo(EQUAL);
+        assertThat(report.getEdits()).isEmpty();
+    }
+
+    @Test
+    void blockDiffOfShiftedData() {
+        final byte[] leftBytes = nextBytes(64 * 1024);
+        final byte[] rightBytes = new byte[leftBytes.length - 100];
+        System.arraycopy(leftBytes, 0, rightBytes, 0, 1000);
+        System.arraycopy(leftBytes, 1100, rightBytes, 1000, leftBytes.length - 1100); // 100 bytes deleted
+        leftBytes[1100] = (byte) ~leftBytes[1000]; // so that common prefix ends right at the deletion
+        rightBytes[1000] = leftBytes[1100];
+        final DiffReport report = logic.blockDiff(BinaryData.of(leftBytes), BinaryData.of(rightBytes));
+        assertThat(report.getStatus()).isEqualTo(NOT_EQUAL);
+        assertThat(report.getEdits()).hasSize(1);
+        final DiffEdit edit = report.getEdits().get(0);
+        assertThat(edit.getType()).isEqualTo(DiffEdit.Type.DELETE);
+        assertThat(edit.getLeftOffset()).isEqualTo(1000);
+        assertThat(edit.getLeftLength()).isEqualTo(100);
+        assertThat(edit.getRightOffset()).isEqualTo(1000);
+    }
+
+    @Test
+    void blockDiffOfEqualSides() {
+        final byte[] bytes = nextBytes(1024);
+        final DiffReport report = logic.blockDiff(BinaryData.of(bytes), BinaryData.of(bytes.clone()));
+        assertThat(report.getStatus()).isEqualTo(EQUAL);
+        assertThat(report.getEdits()).isEmpty();
+    }
+
+}
@@ -1,6 +1,9 @@
 package com.calipsoide.diffing.business;
 
 import com.calipsoide.diffing.persistence.DiffingStorage;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -8,15 +11,28 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.OptimisticLockingFailureException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.core.scheduler.Schedulers;
 import reactor.test.StepVerifier;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.calipsoide.diffing.business.DiffReport.Status.EQUAL;
 import static com.calipsoide.diffing.business.DiffReport.Status.LENGTH_MISMATCH;
 import static com.calipsoide.diffing.business.DiffReport.Status.NOT_EQUAL;
 import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
 import static org.apache.commons.lang3.RandomUtils.nextBytes;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -31,9 +47,18 @@ class DiffingServiceTest {
     @Mock
     private DiffingLogic logic;
 
+    private DiffReportCache cache;
+
+    private MeterRegistry registry;
+
+    private DiffingMetrics metrics;
+
     @BeforeEach
     void setUp() {
-        service = new DiffingService(storage, logic);
+        registry = new SimpleMeterRegistry();
+        metrics = new DiffingMetrics(registry);
+        cache = new DiffReportCache(1000, 60, metrics);
+        service = new DiffingService(storage, logic, Schedulers.immediate(), cache, DiffingService.Mode.EAGER, metrics);
     }
 
     @Test
@@ -41,6 +66,7 @@ class DiffingServiceTest {
     void reportNotFound() {
         final String name = randomAlphanumeric(32);
         when(storage.getReportByCaseName(name)).thenReturn(Mono.empty());
+        when(storage.getByName(name)).thenReturn(Mono.empty());
         StepVerifier
                 .create(service.getReportOf(name))
                 .expectNextCount(0)
@@ -59,6 +85,150 @@ class DiffingServiceTest {
                 .verifyComplete();
     }
 
+    @Test
+    @DisplayName("returns cached report without reading storage again")
+    void reportCached() {
+        final String name = randomAlphanumeric(32);
+        final DiffReport stored = DiffReport.of(DiffReport.Status.EQUAL);
+        when(storage.getReportByCaseName(name)).thenReturn(Mono.just(stored));
+        StepVerifier
+                .create(service.getReportOf(name).then(service.getReportOf(name)))
+                .expectNext(stored)
+                .verifyComplete();
+        verify(storage, times(1)).getReportByCaseName(name);
+        assertThat(registry.get("cache.gets").tag("result", "hit").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("cache.gets").tag("result", "miss").functionCounter().count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("does not cache a report read while the case is saved")
+    void reportReadDuringSave() {
+        final String name = randomAlphanumeric(32);
+        final BinaryData leftData = BinaryData.of(nextBytes(32));
+        final DiffReport stale = DiffReport.of(EQUAL);
+        final DiffReport latest = DiffReport.of(LENGTH_MISMATCH);
+        final MonoProcessor<DiffReport> reading = MonoProcessor.create();
+        when(storage.getReportByCaseName(name)).thenReturn(reading);
+        when(storage.getByName(name)).thenReturn(Mono.empty());
+        when(logic.diff(eq(leftData), any(BinaryData.class))).thenReturn(latest);
+        when(storage.save(any(DiffCase.class))).thenReturn(Mono.empty());
+        StepVerifier
+                .create(service.getReportOf(name))
+                .then(() -> StepVerifier
+                        .create(service.process(name, DiffSide.LEFT, leftData))
+                        .verifyComplete())
+                .then(() -> reading.onNext(stale)) // read started before the save, so it returns the old report
+                .expectNext(stale)
+                .verifyComplete();
+        assertThat(cache.get(name)).contains(latest);
+    }
+
+    @Test
+    @DisplayName("in async mode, does not cache a report read while a side is stored")
+    void reportReadDuringStore() {
+        final String name = randomAlphanumeric(32);
+        final BinaryData leftData = BinaryData.of(nextBytes(32));
+        final DiffReport stale = DiffReport.of(EQUAL);
+        final DiffingService asyncService =
+                new DiffingService(storage, logic, Schedulers.immediate(), cache, DiffingService.Mode.ASYNC, metrics);
+        final MonoProcessor<DiffReport> reading = MonoProcessor.create();
+        when(storage.getReportByCaseName(name)).thenReturn(reading);
+        when(storage.getSideHash(name, DiffSide.LEFT)).thenReturn(Mono.empty());
+        when(storage.saveSide(name, DiffSide.LEFT, leftData, null)).thenReturn(Mono.empty());
+        when(storage.enqueueDiff(name)).thenReturn(Mono.empty());
+        StepVerifier
+                .create(asyncService.getReportOf(name))
+                .then(() -> StepVerifier
+                        .create(asyncService.process(name, DiffSide.LEFT, leftData))
+                        .verifyComplete())
+                .then(() -> reading.onNext(stale))
+                .expectNext(stale)
+                .verifyComplete();
+        assertThat(cache.get(name)).isEmpty(); // so that the next read finds the report pending
+    }
+
+    @Test
+    @DisplayName("returns reports of many cases reading the uncached ones with a single query")
+    void reportsOfManyCases() {
+        final String cachedName = randomAlphanumeric(32);
+        final String storedName = randomAlphanumeric(32);
+        final String outdatedName = randomAlphanumeric(32);
+        final String missingName = randomAlphanumeric(32);
+        final DiffReport cached = DiffReport.of(EQUAL);
+        final DiffReport stored = DiffReport.of(NOT_EQUAL, new int[]{4, 2});
+        final DiffReport diffed = DiffReport.of(LENGTH_MISMATCH);
+        final DiffCase outdatedDiffCase =
+                DiffCase.builder()
+                        .withName(outdatedName)
+                        .withLeftData(BinaryData.of(nextBytes(32)))
+                        .withRightData(BinaryData.empty())
+                        .build();
+        cache.put(cachedName, cached);
+        when(storage.getReportsByCaseNames(Arrays.asList(storedName, outdatedName, missingName)))
+                .thenReturn(Flux.just(new CaseReport(storedName, stored), new CaseReport(outdatedName, null)));
+        when(storage.getByName(outdatedName)).thenReturn(Mono.just(outdatedDiffCase));
+        when(logic.diff(any(BinaryData.class), any(BinaryData.class))).thenReturn(diffed);
+        when(storage.saveReport(outdatedDiffCase, diffed)).thenReturn(Mono.just(true));
+        final List<String> names = Arrays.asList(cachedName, storedName, outdatedName, missingName, cachedName);
+        StepVerifier
+                .create(service.getReportsOf(names).collectList())
+                .assertNext(caseReports -> {
+                    assertThat(caseReports)
+                            .extracting(CaseReport::getName)
+                            .containsExactly(cachedName, storedName, outdatedName, missingName);
+                    assertThat(caseReports.get(0).getReport()).contains(cached);
+                    assertThat(caseReports.get(1).getReport()).contains(stored);
+                    assertThat(caseReports.get(2).getReport()).contains(diffed);
+                    assertThat(caseReports.get(3).getReport()).isEmpty();
+                })
+                .verifyComplete();
+        verify(storage, never()).getReportByCaseName(anyString());
+        assertThat(cache.get(storedName)).contains(stored);
+    }
+
+    @Test
+    @DisplayName("does not cache reports of many cases read while one of them is saved")
+    void reportsReadDuringSave() {
+        final String name = randomAlphanumeric(32);
+        final DiffReport stale = DiffReport.of(EQUAL);
+        final DiffReport latest = DiffReport.of(LENGTH_MISMATCH);
+        final MonoProcessor<CaseReport> reading = MonoProcessor.create();
+        when(storage.getReportsByCaseNames(Collections.singletonList(name))).thenReturn(reading.flux());
+        StepVerifier
+                .create(service.getReportsOf(Collections.singletonList(name)))
+                .then(() -> cache.put(name, latest)) // as a concurrent save does
+                .then(() -> reading.onNext(new CaseReport(name, stale)))
+                .assertNext(caseReport -> assertThat(caseReport.getReport()).contains(stale))
+                .verifyComplete();
+        assertThat(cache.get(name)).contains(latest);
+    }
+
+    @Test
+    @DisplayName("returns summary from storage without loading the report")
+    void summaryFound() {
+        final String name = randomAlphanumeric(32);
+        final DiffSummary stored = new DiffSummary(NOT_EQUAL, 10, 2, 8, 4, 30);
+        when(storage.getSummaryByCaseName(name)).thenReturn(Mono.just(stored));
+        StepVerifier
+                .create(service.getSummaryOf(name))
+                .expectNext(stored)
+                .verifyComplete();
+        verify(storage, never()).getReportByCaseName(name);
+    }
+
+    @Test
+    @DisplayName("returns summary of cached report without reading storage")
+    void summaryCached() {
+        final String name = randomAlphanumeric(32);
+        final DiffReport stored = DiffReport.of(NOT_EQUAL, new int[]{4, 2, 10, 8});
+        when(storage.getReportByCaseName(name)).thenReturn(Mono.just(stored));
+        StepVerifier
+                .create(service.getReportOf(name).then(service.getSummaryOf(name)))
+                .expectNext(stored.getSummary())
+                .verifyComplete();
+        verify(storage, never()).getSummaryByCaseName(name);
+    }
+
     @Test
     @DisplayName("safely fails if storage read fails")
     void getReportSafeFailure() {
@@ -138,6 +308,10 @@ class DiffingServiceTest {
         assertThat(updatedDiffCase.getLeftData()).isEqualTo(leftData);
         assertThat(updatedDiffCase.getRightData()).isEqualTo(rightData);
         assertThat(updatedDiffCase.getReport()).isEqualTo(report);
+        StepVerifier
+                .create(service.getReportOf(name)) // served from cache, no storage read stubbed
+                .expectNext(report)
+                .verifyComplete();
     }
 
     @Test
@@ -184,9 +358,586 @@ class DiffingServiceTest {
         when(storage.getByName(name)).thenReturn(Mono.just(originalDiffCase));
         when(logic.diff(leftData, rightData)).thenReturn(report);
         when(storage.save(any(DiffCase.class))).thenReturn(Mono.error(new RuntimeException("ups!")));
+        cache.put(name, DiffReport.of(LENGTH_MISMATCH));
         StepVerifier
                 .create(service.process(name, DiffSide.LEFT, leftData))
                 .verifyErrorMessage("ups!");
+        assertThat(cache.get(name)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("diffs again with the latest state if case was updated concurrently")
+    void processConflict() {
+        final String name = randomAlphanumeric(32);
+        final BinaryData leftData = BinaryData.of(nextBytes(32));
+        final BinaryData rightData = BinaryData.of(nextBytes(32));
+        final DiffCase staleDiffCase =
+                DiffCase.builder()
+                        .withName(name)
+                        .withLeftData(BinaryData.empty())
+                        .withRightData(BinaryData.empty())
+                        .withReport(DiffReport.of(EQUAL))
+                        .withVersion(1)
+                        .build();
+        final DiffCase latestDiffCase =
+                DiffCase.builder()
+                        .withName(name)
+                        .withLeftData(BinaryData.empty())
+                        .withRightData(rightData) // right side was added meanwhile
+                        .withReport(DiffReport.of(LENGTH_MISMATCH))
+                        .withVersion(2)
+                        .build();
+        final DiffReport report = DiffReport.of(NOT_EQUAL);
+        when(storage.getByName(name)).thenReturn(Mono.just(staleDiffCase), Mono.just(latestDiffCase));
+        when(logic.diff(eq(leftData), any(BinaryData.class))).thenReturn(DiffReport.of(LENGTH_MISMATCH), report);
+        when(storage.save(any(DiffCase.class)))
+                .thenReturn(Mono.error(new OptimisticLockingFailureException("conflict")), Mono.empty());
+        StepVerifier
+                .create(service.process(name, DiffSide.LEFT, leftData))
+                .verifyComplete();
+        final ArgumentCaptor<DiffCase> captor = ArgumentCaptor.forClass(DiffCase.class);
+        verify(storage, times(2)).save(captor.capture());
+        final DiffCase savedDiffCase = captor.getAllValues().get(1);
+        assertThat(savedDiffCase.getVersion()).isEqualTo(2);
+        assertThat(savedDiffCase.getRightData()).isEqualTo(rightData);
+        assertThat(cache.get(name)).contains(report);
+    }
+
+    @Test
+    @DisplayName("diffs with the requested engine, even if data is unchanged")
+    void processWithEngine() {
+        final String name = randomAlphanumeric(32);
+        final BinaryData leftData = BinaryData.of(nextBytes(32));
+        final BinaryData rightData = BinaryData.of(nextBytes(40));
+        final DiffCase originalDiffCase =
+                DiffCase.builder()
+                        .withName(name)
+                        .withLeftData(leftData)
+                        .withRightData(rightData)
+                        .withReport(DiffReport.of(LENGTH_MISMATCH))
+                        .build();
+        final DiffReport report = DiffReport.ofEdits(NOT_EQUAL, new int[]{0, 32, 0, 40});
+        when(storage.getByName(name)).thenReturn(Mono.just(originalDiffCase));
+        when(logic.editDiff(leftData, rightData)).thenReturn(report);
+        when(storage.save(any(DiffCase.class))).thenReturn(Mono.empty());
+        StepVerifier
+                .create(service.process(name, DiffSide.RIGHT, rightData, DiffEngine.MYERS))
+                .verifyComplete();
+        final ArgumentCaptor<DiffCase> captor = ArgumentCaptor.forClass(DiffCase.class);
+        verify(storage).save(captor.capture());
+        final DiffCase updatedDiffCase = captor.getValue();
+        assertThat(updatedDiffCase.getEngine()).isEqualTo(DiffEngine.MYERS);
+        assertThat(updatedDiffCase.getReport()).isEqualTo(report);
+        verify(logic, never()).diff(any(BinaryData.class), any(BinaryData.class));
+    }
+
+    @Test
+    @DisplayName("diffs with the block matching engine when requested")
+    void processWithBlocksEngine() {
+        final String name = randomAlphanumeric(32);
+        final BinaryData leftData = BinaryData.of(nextBytes(32));
+        final BinaryData rightData = BinaryData.of(nextBytes(40));
+        final DiffCase originalDiffCase =
+                DiffCase.builder()
+                        .withName(name)
+                        .withLeftData(leftData)
+                        .withRightData(BinaryData.of(nextBytes(8)))
+                        .withReport(DiffReport.of(LENGTH_MISMATCH))
+                        .build();
+        final DiffReport report = DiffReport.ofEdits(NOT_EQUAL, new int[]{0, 32, 0, 40});
+        when(storage.getByName(name)).thenReturn(Mono.just(originalDiffCase));
+        when(logic.blockDiff(leftData, rightData)).thenReturn(report);
+        when(storage.save(any(DiffCase.class))).thenReturn(Mono.empty());
+        StepVerifier
+                .create(service.process(name, DiffSide.RIGHT, rightData, DiffEngine.BLOCKS))
+                .verifyComplete();
+        final ArgumentCaptor<DiffCase> captor = ArgumentCaptor.forClass(DiffCase.class);
+        verify(storage).save(captor.capture());
+        assertThat(captor.getValue().getEngine()).isEqualTo(DiffEngine.BLOCKS);
+        assertThat(captor.getValue().getReport()).isEqualTo(report);
+        verify(logic, never()).editDiff(any(BinaryData.class), any(BinaryData.class));
+    }
+
+    @Test
+    @DisplayName("keeps diffing a case with the engine it was last diffed with")
+    void processKeepsEngine() {
+        final String name = randomAlphanumeric(32);
+        final BinaryData leftData = BinaryData.of(nextBytes(32));
+        final BinaryData rightData = BinaryData.of(nextBytes(40));
+        final DiffCase originalDiffCase =
+                DiffCase.builder()
+                        .withName(name)
+                        .withEngine(DiffEngine.MYERS)
+                        .withLeftData(BinaryData.of(nextBytes(8)))
+                        .withRightData(rightData)
+                        .withReport(DiffReport.ofEdits(NOT_EQUAL, new int[]{0, 8, 0, 40}))
+                        .build();
+        final DiffReport report = DiffReport.ofEdits(NOT_EQUAL, new int[]{0, 32, 0, 40});
+        when(storage.getByName(name)).thenReturn(Mono.just(originalDiffCase));
+        when(logic.editDiff(leftData, rightData)).thenReturn(report);
+        when(storage.save(any(DiffCase.class))).thenReturn(Mono.empty());
+        StepVerifier
+                .create(service.process(name, DiffSide.LEFT, leftData))
+                .verifyComplete();
+        final ArgumentCaptor<DiffCase> captor = ArgumentCaptor.forClass(DiffCase.class);
+        verify(storage).save(captor.capture());
+        assertThat(captor.getValue().getEngine()).isEqualTo(DiffEngine.MYERS);
+        assertThat(captor.getValue().getReport()).isEqualTo(report);
+    }
+
+    @Test
+    @DisplayName("patches a side diffing just the overwritten range")
+    void patchRange() {
+        final String name = randomAlphanumeric(32);
+        final byte[] bytes = nextBytes(32);
+        final DiffCase originalDiffCase =
+                DiffCase.builder()
+                        .withName(name)
+                        .withLeftData(BinaryData.of(bytes))
+                        .withRightData(BinaryData.of(bytes.clone()))
+                        .withReport(DiffReport.of(EQUAL))
+                        .build();
+        final DiffReport report = DiffReport.of(NOT_EQUAL, new int[]{4, 2});
+        when(storage.getByName(name)).thenReturn(Mono.just(originalDiffCase));
+        when(logic.rediff(eq(originalDiffCase.getReport()), any(BinaryData.class), any(BinaryData.class), eq(4), eq(6)))
+                .thenReturn(report);
+        when(storage.save(any(DiffCase.class))).thenReturn(Mono.empty());
+        StepVerifier
+                .create(service.patch(name, DiffSide.RIGHT, 4, new byte[]{(byte) ~bytes[4], (byte) ~bytes[5]}))
+                .expectNext(true)
+                .verifyComplete();
+        final ArgumentCaptor<DiffCase> captor = ArgumentCaptor.forClass(DiffCase.class);
+        verify(storage).save(captor.capture());
+        final DiffCase patchedDiffCase = captor.getValue();
+        assertThat(patchedDiffCase.getLeftData()).isEqualTo(originalDiffCase.getLeftData());
+        assertThat(patchedDiffCase.getRightData().getByteAt(4)).isEqualTo((byte) ~bytes[4]);
+        assertThat(patchedDiffCase.getRightData().getByteAt(6)).isEqualTo(bytes[6]);
+        assertThat(patchedDiffCase.getReport()).isEqualTo(report);
+        verify(logic, never()).diff(any(BinaryData.class), any(BinaryData.class));
+    }
+
+    @Test
+    @DisplayName("does not patch a case that does not exist")
+    void patchMissingCase() {
+        final String name = randomAlphanumeric(32);
+        when(storage.getByName(name)).thenReturn(Mono.empty());
+        StepVerifier
+                .create(service.patch(name, DiffSide.LEFT, 0, nextBytes(4)))
+                .expectNext(false)
+                .verifyComplete();
+        verify(storage, never()).save(any(DiffCase.class));
+    }
+
+    @Test
+    @DisplayName("records payload size, diff time and report status")
+    void processRecordsMetrics() {
+        final String name = randomAlphanumeric(32);
+        final BinaryData binaryData = BinaryData.of(nextBytes(32));
+        when(storage.getByName(name)).thenReturn(Mono.empty());
+        when(logic.diff(eq(binaryData), any(BinaryData.class))).thenReturn(DiffReport.of(LENGTH_MISMATCH));
+        when(storage.save(any(DiffCase.class))).thenReturn(Mono.empty());
+        StepVerifier
+                .create(service.process(name, DiffSide.LEFT, binaryData))
+                .verifyComplete();
+        final DistributionSummary payloadSize = registry.get("diffing.payload.size").tag("side", "left").summary();
+        assertThat(payloadSize.count()).isEqualTo(1);
+        assertThat(payloadSize.totalAmount()).isEqualTo(32);
+        assertThat(registry.get("diffing.diff").tag("engine", "positional").timer().count()).isEqualTo(1);
+        assertThat(registry.get("diffing.reports").tag("status", "length_mismatch").counter().count()).isEqualTo(1);
+        assertThat(registry.get("diffing.reports").tag("status", "not_equal").counter().count()).isZero();
+    }
+
+    @Test
+    @DisplayName("processes many items loading and saving their cases together")
+    void processAll() {
+        final String firstName = randomAlphanumeric(32);
+        final String secondName = randomAlphanumeric(32);
+        final BulkItem firstLeft = new BulkItem(firstName, DiffSide.LEFT, BinaryData.of(nextBytes(32)));
+        final BulkItem invalid = new BulkItem(firstName, null, BinaryData.of(nextBytes(32)));
+        final BulkItem secondLeft = new BulkItem(secondName, DiffSide.LEFT, BinaryData.of(nextBytes(32)));
+        final BulkItem firstRight = new BulkItem(firstName, DiffSide.RIGHT, BinaryData.of(nextBytes(32)));
+        final DiffReport report = DiffReport.of(NOT_EQUAL, new int[]{0, 32});
+        when(storage.getByNames(anyCollection())).thenReturn(Mono.just(Collections.emptyList()));
+        when(logic.diff(any(BinaryData.class), any(BinaryData.class))).thenReturn(report);
+        when(storage.saveAll(anyList())).thenReturn(Mono.just(Arrays.asList(true, true)));
+        final MemoryBudget budget = new MemoryBudget(1000, 0, 1000, metrics);
+        final DiffingService bulkService = new DiffingService(storage, logic, Schedulers.immediate(), cache,
+                DiffingService.Mode.EAGER, metrics, 10, 1, Duration.ZERO, budget);
+        StepVerifier
+                .create(bulkService.processAll(Flux.just(firstLeft, invalid, secondLeft, firstRight)))
+                .assertNext(result -> {
+                    assertThat(result.getItem()).isSameAs(firstLeft);
+                    assertThat(result.getError()).isEmpty();
+                })
+                .assertNext(result -> {
+                    assertThat(result.getItem()).isSameAs(invalid);
+                    assertThat(result.getError()).containsInstanceOf(IllegalArgumentException.class);
+                })
+                .assertNext(result -> assertThat(result.getItem()).isSameAs(secondLeft))
+                .assertNext(result -> assertThat(result.getItem()).isSameAs(firstRight))
+                .verifyComplete();
+        @SuppressWarnings("unchecked")
+        final ArgumentCaptor<List<DiffCase>> captor = ArgumentCaptor.forClass(List.class);
+        verify(storage, times(1)).getByNames(anyCollection());
+        verify(storage, times(1)).saveAll(captor.capture());
+        verify(logic, times(2)).diff(any(BinaryData.class), any(BinaryData.class));
+        final DiffCase first = captor.getValue().get(0);
+        assertThat(first.getName()).isEqualTo(firstName);
+        assertThat(first.getLeftData()).isEqualTo(firstLeft.getData());
+        assertThat(first.getRightData()).isEqualTo(firstRight.getData());
+        assertThat(captor.getValue().get(1).getName()).isEqualTo(secondName);
+        assertThat(cache.get(firstName)).contains(report);
+        assertThat(budget.getReservedBytes()).isZero();
+    }
+
+    @Test
+    @DisplayName("fails the bulk items that do not fit in the memory budget, saving the ones reserved before")
+    void processAllOverBudget() {
+        final BulkItem admitted = new BulkItem(randomAlphanumeric(32), DiffSide.LEFT, BinaryData.of(nextBytes(32)));
+        final BulkItem rejected = new BulkItem(randomAlphanumeric(32), DiffSide.LEFT, BinaryData.of(nextBytes(32)));
+        when(storage.getByNames(Collections.singleton(admitted.getName())))
+                .thenReturn(Mono.just(Collections.emptyList()));
+        when(logic.diff(any(BinaryData.class), any(BinaryData.class))).thenReturn(DiffReport.of(LENGTH_MISMATCH));
+        when(storage.saveAll(anyList())).thenReturn(Mono.just(Collections.singletonList(true)));
+        final MemoryBudget budget = new MemoryBudget(100, 0, 1000, metrics);
+        final DiffingService bulkService = new DiffingService(storage, logic, Schedulers.immediate(), cache,
+                DiffingService.Mode.EAGER, metrics, 10, 1, Duration.ZERO, budget);
+        assertThat(budget.tryReserve(60)).isTrue(); // held by other uploads
+        StepVerifier
+                .create(bulkService.processAll(Flux.just(admitted, rejected)))
+                .assertNext(result -> assertThat(result.getError()).isEmpty())
+                .assertNext(result ->
+                        assertThat(result.getError()).containsInstanceOf(RejectedExecutionException.class))
+                .verifyComplete();
+        assertThat(budget.getReservedBytes()).isEqualTo(60);
+    }
+
+    @Test
+    @DisplayName("releases the bytes of the bulk items not saved yet if the bulk is cancelled")
+    void processAllCancelled() {
+        final BulkItem item = new BulkItem(randomAlphanumeric(32), DiffSide.LEFT, BinaryData.of(nextBytes(32)));
+        final MemoryBudget budget = new MemoryBudget(1000, 0, 1000, metrics);
+        final DiffingService bulkService = new DiffingService(storage, logic, Schedulers.immediate(), cache,
+                DiffingService.Mode.EAGER, metrics, 10, 1, Duration.ZERO, budget);
+        StepVerifier
+                .create(bulkService.processAll(Flux.concat(Flux.just(item), Flux.never())))
+                .then(() -> assertThat(budget.getReservedBytes()).isEqualTo(32)) // waiting for its batch to fill
+                .thenCancel()
+                .verify();
+        assertThat(budget.getReservedBytes()).isZero();
+        verify(storage, never()).saveAll(anyList());
+    }
+
+    @Test
+    @DisplayName("reserves the sides of an outdated case from the memory budget while diffing it on read")
+    void reportOutdatedReservesBudget() {
+        final String name = randomAlphanumeric(32);
+        final DiffCase outdatedDiffCase =
+                DiffCase.builder()
+                        .withName(name)
+                        .withLeftData(BinaryData.of(nextBytes(32)))
+                        .withRightData(BinaryData.of(nextBytes(16)))
+                        .build();
+        final DiffReport report = DiffReport.of(LENGTH_MISMATCH);
+        final MemoryBudget budget = new MemoryBudget(1000, 0, 1000, metrics);
+        final DiffingService lazyService = new DiffingService(storage, logic, Schedulers.immediate(), cache,
+                DiffingService.Mode.LAZY, metrics, 10, 1, Duration.ZERO, budget);
+        final MonoProcessor<Boolean> saving = MonoProcessor.create();
+        when(storage.getReportByCaseName(name)).thenReturn(Mono.empty());
+        when(storage.getByName(name)).thenReturn(Mono.just(outdatedDiffCase));
+        when(logic.diff(any(BinaryData.class), any(BinaryData.class))).thenReturn(report);
+        when(storage.saveReport(outdatedDiffCase, report)).thenReturn(saving);
+        StepVerifier
+                .create(lazyService.getReportOf(name))
+                .then(() -> assertThat(budget.getReservedBytes()).isEqualTo(48))
+                .then(() -> saving.onNext(true))
+                .expectNext(report)
+                .verifyComplete();
+        assertThat(budget.getReservedBytes()).isZero();
+    }
+
+    @Test
+    @DisplayName("processes items one by one if their case is updated concurrently")
+    void processAllConflict() {
+        final String name = randomAlphanumeric(32);
+        final BulkItem item = new BulkItem(name, DiffSide.LEFT, BinaryData.of(nextBytes(32)));
+        when(storage.getByNames(anyCollection())).thenReturn(Mono.just(Collections.emptyList()));
+        when(logic.diff(any(BinaryData.class), any(BinaryData.class))).thenReturn(DiffReport.of(LENGTH_MISMATCH));
+        when(storage.saveAll(anyList())).thenReturn(Mono.just(Collections.singletonList(false)));
+        when(storage.getByName(name)).thenReturn(Mono.empty());
+        when(storage.save(any(DiffCase.class))).thenReturn(Mono.empty());
+        StepVerifier
+                .create(service.processAll(Flux.just(item)))
+                .assertNext(result -> assertThat(result.getError()).isEmpty())
+                .verifyComplete();
+        verify(storage, times(1)).save(any(DiffCase.class));
+    }
+
+    @Test
+    @DisplayName("fails the items of a batch if its cases cannot be loaded")
+    void processAllStorageError() {
+        final BulkItem item = new BulkItem(randomAlphanumeric(32), DiffSide.LEFT, BinaryData.of(nextBytes(32)));
+        final IllegalStateException error = new IllegalStateException("storage down");
+        when(storage.getByNames(anyCollection())).thenReturn(Mono.error(error));
+        StepVerifier
+                .create(service.processAll(Flux.just(item)))
+                .assertNext(result -> assertThat(result.getError()).contains(error))
+                .verifyComplete();
+        verify(storage, never()).saveAll(anyList());
+    }
+
+    @Test
+    @DisplayName("merges uploads to a case that queue up while it is saved")
+    void processCoalesced() {
+        final String name = randomAlphanumeric(32);
+        final BinaryData firstData = BinaryData.of(nextBytes(32));
+        final BinaryData secondData = BinaryData.of(nextBytes(32));
+        final BinaryData thirdData = BinaryData.of(nextBytes(32));
+        final MonoProcessor<DiffCase> loading = MonoProcessor.create();
+        when(storage.getByName(name)).thenReturn(loading, Mono.empty());
+        when(logic.diff(any(BinaryData.class), any(BinaryData.class))).thenReturn(DiffReport.of(LENGTH_MISMATCH));
+        when(storage.save(any(DiffCase.class))).thenReturn(Mono.empty());
+        final MonoProcessor<Void> first = service.process(name, DiffSide.LEFT, firstData).toProcessor();
+        final MonoProcessor<Void> second = service.process(name, DiffSide.LEFT, secondData).toProcessor();
+        final MonoProcessor<Void> third = service.process(name, DiffSide.RIGHT, thirdData).toProcessor();
+        assertThat(second.isTerminated()).isFalse();
+        loading.onComplete();
+        StepVerifier
+                .create(Mono.when(first, second, third))
+                .verifyComplete();
+        final ArgumentCaptor<DiffCase> captor = ArgumentCaptor.forClass(DiffCase.class);
+        verify(storage, times(2)).save(captor.capture());
+        assertThat(captor.getAllValues().get(1).getLeftData()).isEqualTo(secondData);
+        assertThat(captor.getAllValues().get(1).getRightData()).isEqualTo(thirdData);
+        verify(logic, times(2)).diff(any(BinaryData.class), any(BinaryData.class));
+    }
+
+    @Test
+    @DisplayName("fails fast without saving if diff cannot be scheduled")
+    void processRejected() {
+        final String name = randomAlphanumeric(32);
+        final DiffingService busyService = new DiffingService(storage, logic, Schedulers.fromExecutor(task -> {
+            throw new RejectedExecutionException("busy");
+        }), cache, DiffingService.Mode.EAGER, metrics);
+        StepVerifier
+                .create(busyService.process(name, DiffSide.LEFT, BinaryData.of(nextBytes(32))))
+                .verifyError(RejectedExecutionException.class);
+        verify(storage, never()).save(any(DiffCase.class));
+    }
+
+    @Test
+    @DisplayName("skips diff and save if side data did not change")
+    void processUnchangedSide() {
+        final String name = randomAlphanumeric(32);
+        final BinaryData binaryData = BinaryData.of(nextBytes(32));
+        final DiffCase originalDiffCase =
+                DiffCase.builder()
+                        .withName(name)
+                        .withLeftData(binaryData)
+                        .withRightData(BinaryData.empty())
+                        .withReport(DiffReport.of(LENGTH_MISMATCH))
+                        .build();
+        when(storage.getByName(name)).thenReturn(Mono.just(originalDiffCase));
+        StepVerifier
+                .create(service.process(name, DiffSide.LEFT, BinaryData.of(binaryData.getBytes().clone())))
+                .verifyComplete();
+        verify(logic, never()).diff(any(BinaryData.class), any(BinaryData.class));
+        verify(storage, never()).save(any(DiffCase.class));
+    }
+
+    @Test
+    @DisplayName("saves data equal to the stored side if a previous write is about to replace it")
+    void processUnchangedSideAfterPendingWrite() {
+        final String name = randomAlphanumeric(32);
+        final BinaryData storedData = BinaryData.of(nextBytes(32));
+        final BinaryData newData = BinaryData.of(nextBytes(32));
+        final DiffCase storedDiffCase =
+                DiffCase.builder()
+                        .withName(name)
+                        .withLeftData(storedData)
+                        .withRightData(BinaryData.empty())
+                        .withReport(DiffReport.of(LENGTH_MISMATCH))
+                        .build();
+        final DiffCase writtenDiffCase = storedDiffCase.copy().withLeftData(newData).build();
+        final MonoProcessor<DiffCase> loading = MonoProcessor.create();
+        when(storage.getByName(name)).thenReturn(loading, Mono.just(writtenDiffCase));
+        when(logic.diff(any(BinaryData.class), any(BinaryData.class))).thenReturn(DiffReport.of(LENGTH_MISMATCH));
+        when(storage.save(any(DiffCase.class))).thenReturn(Mono.empty());
+        final MonoProcessor<Void> first = service.process(name, DiffSide.LEFT, newData).toProcessor();
+        final MonoProcessor<Void> second =
+                service.process(name, DiffSide.LEFT, BinaryData.of(storedData.getBytes().clone())).toProcessor();
+        assertThat(second.isTerminated()).isFalse(); // queued behind the first write, not skipped
+        loading.onNext(storedDiffCase);
+        StepVerifier
+                .create(Mono.when(first, second))
+                .verifyComplete();
+        final ArgumentCaptor<DiffCase> captor = ArgumentCaptor.forClass(DiffCase.class);
+        verify(storage, times(2)).save(captor.capture());
+        assertThat(captor.getAllValues().get(0).getLeftData()).isEqualTo(newData);
+        assertThat(captor.getAllValues().get(1).getLeftData().getHash()).isEqualTo(storedData.getHash());
+    }
+
+    @Test
+    @DisplayName("reports sides with the same content as equal without diffing them")
+    void processSameContent() {
+        final String name = randomAlphanumeric(32);
+        final byte[] bytes = nextBytes(32);
+        final DiffCase originalDiffCase =
+                DiffCase.builder()
+                        .withName(name)
+                        .withLeftData(BinaryData.of(bytes))
+                        .withRightData(BinaryData.empty())
+                        .withReport(DiffReport.of(LENGTH_MISMATCH))
+                        .build();
+        when(storage.getByName(name)).thenReturn(Mono.just(originalDiffCase));
+        when(storage.save(any(DiffCase.class))).thenReturn(Mono.empty());
+        StepVerifier
+                .create(service.process(name, DiffSide.RIGHT, BinaryData.of(bytes.clone())))
+                .verifyComplete();
+        verify(logic, never()).diff(any(BinaryData.class), any(BinaryData.class));
+        final ArgumentCaptor<DiffCase> captor = ArgumentCaptor.forClass(DiffCase.class);
+        verify(storage).save(captor.capture());
+        assertThat(captor.getValue().getReport().getStatus()).isEqualTo(DiffReport.Status.EQUAL);
+    }
+
+    @Test
+    @DisplayName("in lazy mode, stores the side without diffing it")
+    void processLazy() {
+        final String name = randomAlphanumeric(32);
+        final BinaryData binaryData = BinaryData.of(nextBytes(32));
+        final DiffingService lazyService =
+                new DiffingService(storage, logic, Schedulers.immediate(), cache, DiffingService.Mode.LAZY, metrics);
+        cache.put(name, DiffReport.of(LENGTH_MISMATCH));
+        when(storage.getSideHash(name, DiffSide.LEFT)).thenReturn(Mono.empty());
+        when(storage.saveSide(name, DiffSide.LEFT, binaryData, null)).thenReturn(Mono.empty());
+        StepVerifier
+                .create(lazyService.process(name, DiffSide.LEFT, binaryData))
+                .verifyComplete();
+        verify(logic, never()).diff(any(BinaryData.class), any(BinaryData.class));
+        verify(storage, never()).save(any(DiffCase.class));
+        assertThat(cache.get(name)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("in async mode, stores the side and queues the case to be diffed")
+    void processAsync() {
+        final String name = randomAlphanumeric(32);
+        final BinaryData binaryData = BinaryData.of(nextBytes(32));
+        final DiffingService asyncService =
+                new DiffingService(storage, logic, Schedulers.immediate(), cache, DiffingService.Mode.ASYNC, metrics);
+        when(storage.getSideHash(name, DiffSide.LEFT)).thenReturn(Mono.empty());
+        when(storage.saveSide(name, DiffSide.LEFT, binaryData, null)).thenReturn(Mono.empty());
+        when(storage.enqueueDiff(name)).thenReturn(Mono.empty());
+        StepVerifier
+                .create(asyncService.process(name, DiffSide.LEFT, binaryData))
+                .verifyComplete();
+        verify(logic, never()).diff(any(BinaryData.class), any(BinaryData.class));
+        verify(storage).enqueueDiff(name);
+    }
+
+    @Test
+    @DisplayName("in async mode, returns a pending report without diffing an outdated case")
+    void reportPending() {
+        final String name = randomAlphanumeric(32);
+        final DiffingService asyncService =
+                new DiffingService(storage, logic, Schedulers.immediate(), cache, DiffingService.Mode.ASYNC, metrics);
+        when(storage.getReportByCaseName(name)).thenReturn(Mono.empty());
+        when(storage.exists(name)).thenReturn(Mono.just(true));
+        when(storage.enqueueDiffIfAbsent(name)).thenReturn(Mono.empty());
+        StepVerifier
+                .create(asyncService.getReportOf(name))
+                .assertNext(report -> assertThat(report.getStatus()).isEqualTo(DiffReport.Status.PENDING))
+                .verifyComplete();
+        verify(storage, never()).getByName(name);
+        assertThat(cache.get(name)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("in async mode, returns an empty result if case does not exist")
+    void reportPendingNotFound() {
+        final String name = randomAlphanumeric(32);
+        final DiffingService asyncService =
+                new DiffingService(storage, logic, Schedulers.immediate(), cache, DiffingService.Mode.ASYNC, metrics);
+        when(storage.getReportByCaseName(name)).thenReturn(Mono.empty());
+        when(storage.exists(name)).thenReturn(Mono.just(false));
+        StepVerifier
+                .create(asyncService.getReportOf(name))
+                .verifyComplete();
+        verify(storage, never()).enqueueDiffIfAbsent(name);
+    }
+
+    @Test
+    @DisplayName("computes and stores outdated report on read")
+    void reportOutdated() {
+        final String name = randomAlphanumeric(32);
+        final BinaryData leftData = BinaryData.of(nextBytes(32));
+        final BinaryData rightData = BinaryData.of(nextBytes(32));
+        final DiffCase outdatedDiffCase =
+                DiffCase.builder()
+                        .withId(randomAlphanumeric(16))
+                        .withName(name)
+                        .withLeftData(leftData)
+                        .withRightData(rightData)
+                        .build(); // no report, as it is outdated
+        final DiffReport report = DiffReport.of(NOT_EQUAL);
+        when(storage.getReportByCaseName(name)).thenReturn(Mono.empty());
+        when(storage.getByName(name)).thenReturn(Mono.just(outdatedDiffCase));
+        when(logic.diff(leftData, rightData)).thenReturn(report);
+        when(storage.saveReport(outdatedDiffCase, report)).thenReturn(Mono.just(true));
+        StepVerifier
+                .create(service.getReportOf(name).then(service.getReportOf(name)))
+                .expectNext(report)
+                .verifyComplete();
+        verify(logic, times(1)).diff(leftData, rightData); // second read is served from cache
+    }
+
+    @Test
+    @DisplayName("does not cache a report computed on read if sides changed meanwhile")
+    void reportOutdatedRace() {
+        final String name = randomAlphanumeric(32);
+        final DiffCase outdatedDiffCase =
+                DiffCase.builder()
+                        .withId(randomAlphanumeric(16))
+                        .withName(name)
+                        .withLeftData(BinaryData.of(nextBytes(32)))
+                        .withRightData(BinaryData.of(nextBytes(16)))
+                        .build();
+        final DiffReport report = DiffReport.of(LENGTH_MISMATCH);
+        when(storage.getReportByCaseName(name)).thenReturn(Mono.empty());
+        when(storage.getByName(name)).thenReturn(Mono.just(outdatedDiffCase));
+        when(logic.diff(any(BinaryData.class), any(BinaryData.class))).thenReturn(report);
+        when(storage.saveReport(outdatedDiffCase, report)).thenReturn(Mono.just(false));
+        StepVerifier
+                .create(service.getReportOf(name))
+                .expectNext(report)
+                .verifyComplete();
+        assertThat(cache.get(name)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("concurrent reads of an outdated report share a single diff")
+    void reportOutdatedShared() {
+        final String name = randomAlphanumeric(32);
+        final DiffCase outdatedDiffCase =
+                DiffCase.builder()
+                        .withId(randomAlphanumeric(16))
+                        .withName(name)
+                        .withLeftData(BinaryData.of(nextBytes(32)))
+                        .withRightData(BinaryData.of(nextBytes(32)))
+                        .build();
+        final DiffReport report = DiffReport.of(NOT_EQUAL);
+        final MonoProcessor<DiffCase> loading = MonoProcessor.create();
+        when(storage.getReportByCaseName(name)).thenReturn(Mono.empty());
+        when(storage.getByName(name)).thenReturn(loading);
+        when(logic.diff(any(BinaryData.class), any(BinaryData.class))).thenReturn(report);
+        when(storage.saveReport(outdatedDiffCase, report)).thenReturn(Mono.just(true));
+        StepVerifier
+                .create(Flux.merge(service.getReportOf(name), service.getReportOf(name)))
+                .then(() -> loading.onNext(outdatedDiffCase))
+                .expectNext(report, report)
+                .verifyComplete();
+        verify(storage, times(1)).getByName(name);
+        verify(logic, times(1)).diff(any(BinaryData.class), any(BinaryData.class));
     }
 
 }
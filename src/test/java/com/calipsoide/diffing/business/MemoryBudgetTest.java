@@ -0,0 +1,73 @@
+package com.calipsoide.diffing.business;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MemoryBudgetTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final MemoryBudget budget = new MemoryBudget(100, 1, 1000, new DiffingMetrics(registry));
+
+    @Test
+    void reserveAndRelease() {
+        StepVerifier.create(budget.reserve(60)).verifyComplete();
+        assertThat(budget.getReservedBytes()).isEqualTo(60);
+        assertThat(registry.get("diffing.budget.reserved").gauge().value()).isEqualTo(60);
+        budget.release(60);
+        assertThat(budget.getReservedBytes()).isZero();
+    }
+
+    @Test
+    void reserveQueued() {
+        assertThat(budget.tryReserve(60)).isTrue();
+        StepVerifier
+                .create(budget.reserve(60))
+                .then(() -> {
+                    assertThat(budget.getQueuedCount()).isEqualTo(1);
+                    assertThat(registry.get("diffing.budget.queued").gauge().value()).isEqualTo(1);
+                    assertThat(budget.tryReserve(10)).isFalse(); // queued ones go first
+                    budget.release(60);
+                })
+                .verifyComplete();
+        assertThat(budget.getQueuedCount()).isZero();
+        assertThat(budget.getReservedBytes()).isEqualTo(60);
+    }
+
+    @Test
+    void reserveWhenQueueIsFull() {
+        assertThat(budget.tryReserve(100)).isTrue();
+        final Disposable queued = budget.reserve(10).subscribe();
+        StepVerifier.create(budget.reserve(10)).verifyError(RejectedExecutionException.class);
+        queued.dispose();
+        assertThat(budget.getQueuedCount()).isZero();
+        assertThat(budget.getReservedBytes()).isEqualTo(100);
+    }
+
+    @Test
+    void reserveTimeout() {
+        assertThat(budget.tryReserve(100)).isTrue();
+        StepVerifier
+                .withVirtualTime(() -> budget.reserve(10))
+                .expectSubscription()
+                .thenAwait(Duration.ofSeconds(1))
+                .verifyError(RejectedExecutionException.class);
+        assertThat(budget.getQueuedCount()).isZero();
+        budget.release(100);
+        assertThat(budget.getReservedBytes()).isZero(); // timed out reservation is not granted afterwards
+    }
+
+    @Test
+    void reserveMoreThanBudget() {
+        StepVerifier.create(budget.reserve(101)).verifyError(IllegalArgumentException.class);
+        assertThat(budget.getReservedBytes()).isZero();
+    }
+
+}
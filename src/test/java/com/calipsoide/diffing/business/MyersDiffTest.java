@@ -0,0 +1,139 @@
+package com.calipsoide.diffing.business;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static java.nio.ByteBuffer.wrap;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.apache.commons.lang3.RandomUtils.nextBytes;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MyersDiffTest {
+
+    private final MyersDiff myersDiff = new MyersDiff(10000, 10000);
+
+    @Test
+    void equalSides() {
+        final byte[] bytes = nextBytes(64);
+        assertThat(myersDiff.diff(wrap(bytes), wrap(bytes.clone()))).isEmpty();
+        assertThat(myersDiff.diff(wrap(new byte[0]), wrap(new byte[0]))).isEmpty();
+    }
+
+    @Test
+    void emptySide() {
+        assertThat(myersDiff.diff(wrap(new byte[0]), wrap(new byte[5]))).containsExactly(0, 0, 0, 5);
+        assertThat(myersDiff.diff(wrap(new byte[5]), wrap(new byte[0]))).containsExactly(0, 5, 0, 0);
+    }
+
+    @Test
+    void insertion() {
+        final int[] edits = myersDiff.diff(wrap(ascii("abcdefgh")), wrap(ascii("abcXYdefgh")));
+        assertThat(edits).containsExactly(3, 0, 3, 2);
+    }
+
+    @Test
+    void deletion() {
+        final int[] edits = myersDiff.diff(wrap(ascii("abcdefgh")), wrap(ascii("abefgh")));
+        assertThat(edits).containsExactly(2, 2, 2, 0);
+    }
+
+    @Test
+    void replacementsAndShifts() {
+        final int[] edits = myersDiff.diff(wrap(ascii("the quick brown fox")), wrap(ascii("a quick red fox!")));
+        assertApplies(ascii("the quick brown fox"), ascii("a quick red fox!"), edits);
+        assertThat(cost(edits)).isEqualTo(shortestCost(ascii("the quick brown fox"), ascii("a quick red fox!")));
+    }
+
+    @Test
+    void shortestScript() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            final byte[] left = randomBytes(random, random.nextInt(40));
+            final byte[] right = randomBytes(random, random.nextInt(40));
+            final int[] edits = myersDiff.diff(wrap(left), wrap(right));
+            assertApplies(left, right, edits);
+            assertThat(cost(edits)).isEqualTo(shortestCost(left, right));
+        }
+    }
+
+    @Test
+    void overBudgetRangeReplacedWhole() {
+        final byte[] left = new byte[1000];
+        final byte[] right = new byte[1000];
+        for (int i = 100; i < 900; i += 10) {
+            right[i] = 1; // 80 changes, each one a deletion and an insertion
+        }
+        assertThat(myersDiff.diff(wrap(left), wrap(right))).hasSize(80 * 4);
+        final int[] edits = new MyersDiff(10, 10000).diff(wrap(left), wrap(right));
+        assertThat(edits).containsExactly(100, 791, 100, 791);
+    }
+
+    @Test
+    void largeSidesWithFewEdits() {
+        final byte[] left = nextBytes(1024 * 1024);
+        final ByteArrayOutputStream right = new ByteArrayOutputStream();
+        right.write(left, 0, 1000);
+        right.write(new byte[]{1, 2, 3}, 0, 3); // inserted
+        right.write(left, 1000, 499000);
+        right.write(left, 500100, left.length - 500100); // 100 bytes deleted
+        final int[] edits = myersDiff.diff(wrap(left), wrap(right.toByteArray()));
+        assertApplies(left, right.toByteArray(), edits);
+        assertThat(cost(edits)).isEqualTo(103);
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(US_ASCII);
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) random.nextInt(3); // small alphabet, so there is plenty in common
+        }
+        return bytes;
+    }
+
+    private static int cost(int[] edits) {
+        int cost = 0;
+        for (int i = 0; i < edits.length; i += 4) {
+            cost += edits[i + 1] + edits[i + 3];
+        }
+        return cost;
+    }
+
+    /**
+     * @return number of inserted and deleted bytes of the shortest edit script, through the longest common subsequence
+     */
+    private static int shortestCost(byte[] left, byte[] right) {
+        final int[][] common = new int[left.length + 1][right.length + 1];
+        for (int i = 1; i <= left.length; i++) {
+            for (int j = 1; j <= right.length; j++) {
+                common[i][j] = left[i - 1] == right[j - 1]
+                        ? common[i - 1][j - 1] + 1
+                        : Math.max(common[i - 1][j], common[i][j - 1]);
+            }
+        }
+        return left.length + right.length - 2 * common[left.length][right.length];
+    }
+
+    /**
+     * Asserts that edits are sorted, separated by common bytes, and turn left side into right side.
+     */
+    private static void assertApplies(byte[] left, byte[] right, int[] edits) {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        int position = 0;
+        for (int i = 0; i < edits.length; i += 4) {
+            assertThat(edits[i + 1] + edits[i + 3]).isPositive();
+            assertThat(edits[i]).isGreaterThanOrEqualTo(i == 0 ? 0 : position + 1);
+            result.write(left, position, edits[i] - position);
+            assertThat(edits[i + 2]).isEqualTo(result.size());
+            result.write(right, edits[i + 2], edits[i + 3]);
+            position = edits[i] + edits[i + 1];
+        }
+        result.write(left, position, left.length - position);
+        assertThat(result.toByteArray()).isEqualTo(right);
+    }
+
+}
@@ -0,0 +1,190 @@
+package com.calipsoide.diffing.persistence;
+
+import com.calipsoide.diffing.business.BinaryData;
+import com.calipsoide.diffing.persistence.DiffCaseDocument.GridFsFileDocument;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.reactivestreams.client.Success;
+import com.mongodb.reactivestreams.client.gridfs.AsyncInputStream;
+import com.mongodb.reactivestreams.client.gridfs.GridFSBucket;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
+import static org.apache.commons.lang3.RandomUtils.nextBytes;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class BlobStorageTest {
+
+    private static final int GRID_FS_THRESHOLD = 1024;
+
+    private BlobStorage blobs;
+
+    @Mock
+    private ReactiveMongoTemplate mongo;
+
+    @Mock
+    private GridFSBucket gridFs;
+
+    @BeforeEach
+    void setUp() {
+        blobs = new BlobStorage(mongo, gridFs, GRID_FS_THRESHOLD);
+    }
+
+    @Test
+    void acquireExisting() {
+        final BinaryData data = BinaryData.of(nextBytes(64));
+        final BlobDocument existing = new BlobDocument();
+        existing.references = 2;
+        when(mongo.findAndModify(
+                argThat(query -> query.getQueryObject().get("id").equals(data.getHash())),
+                argThat(update -> update.getUpdateObject().get("$inc", Document.class).get("references").equals(1)),
+                any(FindAndModifyOptions.class),
+                eq(BlobDocument.class))).thenReturn(Mono.just(existing));
+        StepVerifier
+                .create(blobs.acquire(data))
+                .verifyComplete();
+        verify(mongo, never()).insert(any(BlobDocument.class));
+    }
+
+    @Test
+    void acquireNewInline() {
+        final BinaryData data = BinaryData.of(nextBytes(GRID_FS_THRESHOLD));
+        when(mongo.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(BlobDocument.class))).thenReturn(Mono.empty());
+        when(mongo.insert(any(BlobDocument.class))).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        StepVerifier
+                .create(blobs.acquire(data))
+                .verifyComplete();
+        final ArgumentCaptor<BlobDocument> captor = ArgumentCaptor.forClass(BlobDocument.class);
+        verify(mongo).insert(captor.capture());
+        final BlobDocument blob = captor.getValue();
+        assertThat(blob.id).isEqualTo(data.getHash());
+        assertThat(blob.data).isSameAs(data.getBytes());
+        assertThat(blob.file).isNull();
+        assertThat(blob.references).isEqualTo(1);
+    }
+
+    @Test
+    void acquireNewInGridFs() {
+        final BinaryData data = BinaryData.of(nextBytes(GRID_FS_THRESHOLD + 1));
+        final ObjectId fileId = new ObjectId();
+        when(mongo.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(BlobDocument.class))).thenReturn(Mono.empty());
+        when(gridFs.uploadFromStream(eq(data.getHash()), any(AsyncInputStream.class))).thenReturn(Mono.just(fileId));
+        when(mongo.insert(any(BlobDocument.class))).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        StepVerifier
+                .create(blobs.acquire(data))
+                .verifyComplete();
+        final ArgumentCaptor<BlobDocument> captor = ArgumentCaptor.forClass(BlobDocument.class);
+        verify(mongo).insert(captor.capture());
+        final BlobDocument blob = captor.getValue();
+        assertThat(blob.data).isNull();
+        assertThat(blob.file.fileId).isEqualTo(fileId);
+        assertThat(blob.file.length).isEqualTo(GRID_FS_THRESHOLD + 1);
+    }
+
+    @Test
+    void acquireConcurrentInsert() {
+        final BinaryData data = BinaryData.of(nextBytes(64));
+        when(mongo.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(BlobDocument.class))).thenReturn(Mono.empty(), Mono.just(new BlobDocument()));
+        when(mongo.insert(any(BlobDocument.class))).thenReturn(Mono.error(new DuplicateKeyException("dup")));
+        StepVerifier
+                .create(blobs.acquire(data))
+                .verifyComplete();
+        verify(mongo, times(2)).findAndModify(any(Query.class), any(Update.class),
+                any(FindAndModifyOptions.class), eq(BlobDocument.class));
+    }
+
+    @Test
+    void releaseStillReferenced() {
+        final String hash = randomAlphanumeric(64);
+        final BlobDocument blob = new BlobDocument();
+        blob.references = 1;
+        when(mongo.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(BlobDocument.class))).thenReturn(Mono.just(blob));
+        StepVerifier
+                .create(blobs.release(hash))
+                .verifyComplete();
+        verify(mongo, never()).remove(any(Query.class), eq(BlobDocument.class));
+    }
+
+    @Test
+    void releaseLastReference() {
+        final String hash = randomAlphanumeric(64);
+        final BlobDocument blob = new BlobDocument();
+        blob.references = 0;
+        blob.file = new GridFsFileDocument();
+        blob.file.fileId = new ObjectId();
+        when(mongo.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(BlobDocument.class))).thenReturn(Mono.just(blob));
+        when(mongo.remove(argThat((Query query) -> query.getQueryObject().containsKey("references")),
+                eq(BlobDocument.class))).thenReturn(Mono.just(DeleteResult.acknowledged(1)));
+        when(gridFs.delete(blob.file.fileId)).thenReturn(Mono.just(Success.SUCCESS));
+        StepVerifier
+                .create(blobs.release(hash))
+                .verifyComplete();
+        verify(gridFs).delete(blob.file.fileId);
+    }
+
+    @Test
+    void loadInline() {
+        final String hash = randomAlphanumeric(64);
+        final BlobDocument blob = new BlobDocument();
+        blob.data = nextBytes(64);
+        when(mongo.findById(hash, BlobDocument.class)).thenReturn(Mono.just(blob));
+        StepVerifier
+                .create(blobs.load(hash))
+                .assertNext(data -> {
+                    assertThat(data.getBytes()).isEqualTo(blob.data);
+                    assertThat(data.getHash()).isEqualTo(hash);
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void loadFromGridFs() {
+        final String hash = randomAlphanumeric(64);
+        final BlobDocument blob = new BlobDocument();
+        blob.file = new GridFsFileDocument();
+        blob.file.fileId = new ObjectId();
+        blob.file.length = 0;
+        when(mongo.findById(hash, BlobDocument.class)).thenReturn(Mono.just(blob));
+        when(gridFs.downloadToStream(eq(blob.file.fileId), any())).thenReturn(Mono.just(0L));
+        StepVerifier
+                .create(blobs.load(hash))
+                .assertNext(data -> assertThat(data.getLength()).isZero())
+                .verifyComplete();
+    }
+
+    @Test
+    void loadMissing() {
+        final String hash = randomAlphanumeric(64);
+        when(mongo.findById(hash, BlobDocument.class)).thenReturn(Mono.empty());
+        StepVerifier
+                .create(blobs.load(hash))
+                .verifyError(IllegalStateException.class);
+    }
+
+}
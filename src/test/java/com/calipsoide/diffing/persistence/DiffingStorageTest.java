@@ -2,23 +2,52 @@ package com.calipsoide.diffing.persistence;
 
 import com.calipsoide.diffing.business.BinaryData;
 import com.calipsoide.diffing.business.DiffCase;
+import com.calipsoide.diffing.business.DiffEdit;
 import com.calipsoide.diffing.business.DiffInsight;
+import com.calipsoide.diffing.business.DiffJob;
 import com.calipsoide.diffing.business.DiffReport;
+import com.calipsoide.diffing.business.DiffSide;
+import com.calipsoide.diffing.business.DiffingMetrics;
 import com.calipsoide.diffing.persistence.DiffCaseDocument.DiffInsightDocument;
 import com.calipsoide.diffing.persistence.DiffCaseDocument.DiffReportDocument;
+import com.calipsoide.diffing.persistence.DiffCaseDocument.DiffSummaryDocument;
+import com.calipsoide.diffing.persistence.DiffCaseDocument.GridFsFileDocument;
 import com.google.common.collect.ImmutableList;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
 import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.DbRefResolver;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
+import java.time.Duration;
 import java.util.List;
 
 import static com.calipsoide.diffing.business.DiffReport.Status.LENGTH_MISMATCH;
@@ -27,6 +56,9 @@ import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
 import static org.apache.commons.lang3.RandomUtils.nextBytes;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -38,9 +70,15 @@ class DiffingStorageTest {
     @Mock
     private ReactiveMongoTemplate mongo;
 
+    @Mock
+    private BlobStorage blobs;
+
+    @Mock
+    private MongoCollection<Document> collection;
+
     @BeforeEach
     void setUp() {
-        storage = new DiffingStorage(mongo);
+        storage = new DiffingStorage(mongo, blobs, new DiffingMetrics(new SimpleMeterRegistry()));
     }
 
     @Test
@@ -52,19 +90,27 @@ class DiffingStorageTest {
                         .withRightData(BinaryData.empty())
                         .withReport(DiffReport.of(LENGTH_MISMATCH))
                         .build();
-        when(mongo.save(any(DiffCaseDocument.class))).thenReturn(Mono.empty());
+        when(blobs.acquire(any(BinaryData.class))).thenReturn(Mono.empty());
+        when(blobs.deleteFile(null)).thenReturn(Mono.empty());
+        when(mongo.insert(any(DiffCaseDocument.class))).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
         StepVerifier
                 .create(storage.save(diffCase))
                 .verifyComplete();
+        verify(blobs).acquire(diffCase.getLeftData());
+        verify(blobs).acquire(diffCase.getRightData());
         final ArgumentCaptor<DiffCaseDocument> captor = ArgumentCaptor.forClass(DiffCaseDocument.class);
-        verify(mongo).save(captor.capture());
+        verify(mongo).insert(captor.capture());
         final DiffCaseDocument document = captor.getValue();
         assertThat(document.id).isNull();
-        assertThat(document.left).isEqualTo(diffCase.getLeftData().getBytes());
-        assertThat(document.right).isEmpty();
+        assertThat(document.version).isZero();
+        assertThat(document.leftBlob).isEqualTo(diffCase.getLeftData().getHash());
+        assertThat(document.rightBlob).isEqualTo(BinaryData.empty().getHash());
+        assertThat(document.left).isNull();
+        assertThat(document.right).isNull();
         final DiffReportDocument reportDocument = document.report;
         assertThat(reportDocument.status).isEqualTo(diffCase.getReport().getStatus().toString());
-        assertThat(reportDocument.insights).isEmpty();
+        assertThat(reportDocument.insights).isNull();
+        assertThat(PackedInsights.decode(reportDocument.packedInsights)).isEmpty();
     }
 
     @Test
@@ -76,25 +122,69 @@ class DiffingStorageTest {
                         .withLeftData(BinaryData.of(nextBytes(64)))
                         .withRightData(BinaryData.of(nextBytes(64)))
                         .withReport(DiffReport.of(NOT_EQUAL, ImmutableList.of(new DiffInsight(0, 64))))
+                        .withVersion(3)
                         .build();
-        when(mongo.save(any(DiffCaseDocument.class))).thenReturn(Mono.empty());
+        final DiffCaseDocument previous = new DiffCaseDocument();
+        previous.leftBlob = diffCase.getLeftData().getHash(); // left side is unchanged
+        previous.rightBlob = randomAlphanumeric(64);
+        previous.version = 3;
+        when(mongo.findOne(argThat(query -> {
+            final Document fieldsObject = query.getFieldsObject();
+            return fieldsObject.containsKey("leftBlob") && fieldsObject.containsKey("rightBlob");
+        }), eq(DiffCaseDocument.class))).thenReturn(Mono.just(previous));
+        when(blobs.acquire(diffCase.getRightData())).thenReturn(Mono.empty());
+        when(blobs.release(previous.rightBlob)).thenReturn(Mono.empty());
+        when(blobs.deleteFile(null)).thenReturn(Mono.empty());
+        when(mongo.updateFirst(
+                argThat(query -> {
+                    final Document queryObject = query.getQueryObject();
+                    return queryObject.get("id").equals(diffCase.getId()) && queryObject.get("version").equals(3L);
+                }),
+                any(Update.class),
+                eq(DiffCaseDocument.class))).thenReturn(Mono.just(UpdateResult.acknowledged(1, 1L, null)));
         StepVerifier
                 .create(storage.save(diffCase))
                 .verifyComplete();
-        final ArgumentCaptor<DiffCaseDocument> captor = ArgumentCaptor.forClass(DiffCaseDocument.class);
-        verify(mongo).save(captor.capture());
-        final DiffCaseDocument document = captor.getValue();
-        assertThat(document.id).isEqualTo(diffCase.getId());
-        assertThat(document.name).isEqualTo(diffCase.getName());
-        assertThat(document.left).isEqualTo(diffCase.getLeftData().getBytes());
-        assertThat(document.right).isEqualTo(diffCase.getRightData().getBytes());
-        final DiffReportDocument reportDocument = document.report;
+        verify(blobs, never()).acquire(diffCase.getLeftData());
+        verify(blobs, never()).release(previous.leftBlob);
+        final ArgumentCaptor<Update> captor = ArgumentCaptor.forClass(Update.class);
+        verify(mongo).updateFirst(any(Query.class), captor.capture(), eq(DiffCaseDocument.class));
+        final Document updateObject = captor.getValue().getUpdateObject();
+        final Document set = updateObject.get("$set", Document.class);
+        assertThat(set).doesNotContainKey("leftBlob"); // only the changed side is written
+        assertThat(set.get("engine")).isEqualTo("POSITIONAL");
+        assertThat(set.get("rightBlob")).isEqualTo(diffCase.getRightData().getHash());
+        assertThat(updateObject.get("$inc", Document.class).get("version")).isEqualTo(1);
+        final DiffReportDocument reportDocument = (DiffReportDocument) set.get("report");
         assertThat(reportDocument.status).isEqualTo(diffCase.getReport().getStatus().toString());
-        final List<DiffInsightDocument> insightDocuments = reportDocument.insights;
-        assertThat(insightDocuments).hasSize(1);
-        final DiffInsightDocument insightDocument = insightDocuments.get(0);
-        assertThat(insightDocument.offset).isEqualTo(0);
-        assertThat(insightDocument.length).isEqualTo(64);
+        assertThat(reportDocument.insights).isNull();
+        assertThat(PackedInsights.decode(reportDocument.packedInsights)).containsExactly(0, 64);
+    }
+
+    @Test
+    void saveUpdateFromOldFormat() {
+        final DiffCase diffCase =
+                DiffCase.builder()
+                        .withId(randomAlphanumeric(16))
+                        .withName(randomAlphanumeric(32))
+                        .withLeftData(BinaryData.of(nextBytes(64)))
+                        .withRightData(BinaryData.of(nextBytes(64)))
+                        .withReport(DiffReport.of(LENGTH_MISMATCH))
+                        .build();
+        final DiffCaseDocument previous = new DiffCaseDocument();
+        previous.rightFile = new GridFsFileDocument();
+        previous.rightFile.fileId = new ObjectId();
+        when(mongo.findOne(any(Query.class), eq(DiffCaseDocument.class))).thenReturn(Mono.just(previous));
+        when(blobs.acquire(any(BinaryData.class))).thenReturn(Mono.empty());
+        when(blobs.deleteFile(any())).thenReturn(Mono.empty());
+        when(mongo.updateFirst(
+                argThat(query -> query.getQueryObject().containsKey("$or")), // no version field in old format
+                any(Update.class),
+                eq(DiffCaseDocument.class))).thenReturn(Mono.just(UpdateResult.acknowledged(1, 1L, null)));
+        StepVerifier
+                .create(storage.save(diffCase))
+                .verifyComplete();
+        verify(blobs).deleteFile(previous.rightFile); // old GridFS file is not referenced anymore
     }
 
     @Test
@@ -107,20 +197,195 @@ class DiffingStorageTest {
                         .withRightData(BinaryData.empty())
                         .withReport(DiffReport.of(LENGTH_MISMATCH))
                         .build();
-        when(mongo.save(any(DiffCaseDocument.class))).thenReturn(Mono.error(new RuntimeException("ups!")));
+        when(mongo.findOne(any(Query.class), eq(DiffCaseDocument.class))).thenReturn(Mono.empty());
+        when(blobs.acquire(any(BinaryData.class))).thenReturn(Mono.empty());
+        when(blobs.release(anyString())).thenReturn(Mono.empty());
+        when(blobs.deleteFile(null)).thenReturn(Mono.empty());
+        when(mongo.updateFirst(any(Query.class), any(Update.class), eq(DiffCaseDocument.class)))
+                .thenReturn(Mono.error(new RuntimeException("ups!")));
+        StepVerifier
+                .create(storage.save(diffCase))
+                .verifyErrorMessage("ups!");
+        // references acquired for the failed save are given back
+        verify(blobs).release(diffCase.getLeftData().getHash());
+        verify(blobs).release(diffCase.getRightData().getHash());
+    }
+
+    @Test
+    void saveConflict() {
+        final DiffCase diffCase =
+                DiffCase.builder()
+                        .withId(randomAlphanumeric(16))
+                        .withName(randomAlphanumeric(32))
+                        .withLeftData(BinaryData.of(nextBytes(64)))
+                        .withRightData(BinaryData.empty())
+                        .withReport(DiffReport.of(LENGTH_MISMATCH))
+                        .withVersion(1)
+                        .build();
+        final DiffCaseDocument previous = new DiffCaseDocument();
+        previous.rightBlob = diffCase.getRightData().getHash();
+        previous.version = 2; // updated by someone else since loaded
+        when(mongo.findOne(any(Query.class), eq(DiffCaseDocument.class))).thenReturn(Mono.just(previous));
+        when(blobs.acquire(diffCase.getLeftData())).thenReturn(Mono.empty());
+        when(blobs.release(diffCase.getLeftData().getHash())).thenReturn(Mono.empty());
+        when(blobs.deleteFile(null)).thenReturn(Mono.empty());
+        when(mongo.updateFirst(any(Query.class), any(Update.class), eq(DiffCaseDocument.class)))
+                .thenReturn(Mono.just(UpdateResult.acknowledged(0, 0L, null)));
         StepVerifier
                 .create(storage.save(diffCase))
+                .verifyError(OptimisticLockingFailureException.class);
+        verify(blobs).release(diffCase.getLeftData().getHash());
+    }
+
+    @Test
+    void saveInsertConflict() {
+        final DiffCase diffCase =
+                DiffCase.builder()
+                        .withName(randomAlphanumeric(32))
+                        .withLeftData(BinaryData.of(nextBytes(64)))
+                        .withRightData(BinaryData.empty())
+                        .withReport(DiffReport.of(LENGTH_MISMATCH))
+                        .build();
+        when(blobs.acquire(any(BinaryData.class))).thenReturn(Mono.empty());
+        when(blobs.release(anyString())).thenReturn(Mono.empty());
+        when(blobs.deleteFile(null)).thenReturn(Mono.empty());
+        when(mongo.insert(any(DiffCaseDocument.class))).thenReturn(Mono.error(new DuplicateKeyException("dup")));
+        StepVerifier
+                .create(storage.save(diffCase))
+                .verifyError(OptimisticLockingFailureException.class);
+    }
+
+    @Test
+    void saveAll() {
+        final DiffCase inserted =
+                DiffCase.builder()
+                        .withName(randomAlphanumeric(32))
+                        .withLeftData(BinaryData.of(nextBytes(64)))
+                        .withRightData(BinaryData.empty())
+                        .withReport(DiffReport.of(LENGTH_MISMATCH))
+                        .build();
+        final DiffCase updated =
+                DiffCase.builder()
+                        .withId(randomAlphanumeric(16))
+                        .withName(randomAlphanumeric(32))
+                        .withLeftData(BinaryData.of(nextBytes(64)))
+                        .withRightData(BinaryData.of(nextBytes(64)))
+                        .withReport(DiffReport.of(NOT_EQUAL, new int[]{0, 64}))
+                        .withVersion(3)
+                        .build();
+        final DiffCaseDocument previous = new DiffCaseDocument();
+        previous.id = updated.getId();
+        previous.leftBlob = updated.getLeftData().getHash(); // left side is unchanged
+        previous.rightBlob = randomAlphanumeric(64);
+        previous.version = 3;
+        mockBulkWrites();
+        when(mongo.find(argThat(query -> query.getQueryObject().containsKey("id")), eq(DiffCaseDocument.class)))
+                .thenReturn(Flux.just(previous));
+        when(blobs.acquire(any(BinaryData.class))).thenReturn(Mono.empty());
+        when(blobs.release(previous.rightBlob)).thenReturn(Mono.empty());
+        when(blobs.deleteFile(null)).thenReturn(Mono.empty());
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+                .thenReturn(Mono.just(BulkWriteResult.unacknowledged()));
+        StepVerifier
+                .create(storage.saveAll(ImmutableList.of(inserted, updated)))
+                .expectNext(ImmutableList.of(true, true))
+                .verifyComplete();
+        verify(blobs, never()).acquire(updated.getLeftData());
+        final List<WriteModel<Document>> writes = captureBulkWrites();
+        final Document insert = ((InsertOneModel<Document>) writes.get(0)).getDocument();
+        assertThat(insert.get("name")).isEqualTo(inserted.getName());
+        assertThat(insert.get("leftBlob")).isEqualTo(inserted.getLeftData().getHash());
+        final UpdateOneModel<Document> update = (UpdateOneModel<Document>) writes.get(1);
+        final Document filter = (Document) update.getFilter();
+        assertThat(filter.get("_id")).isEqualTo(updated.getId());
+        assertThat(filter.get("version")).isEqualTo(3L);
+        final Document set = ((Document) update.getUpdate()).get("$set", Document.class);
+        assertThat(set).doesNotContainKey("leftBlob"); // only the changed side is written
+        assertThat(set.get("rightBlob")).isEqualTo(updated.getRightData().getHash());
+        assertThat(update.getOptions().isUpsert()).isTrue(); // so that a version mismatch fails on the existing id
+    }
+
+    @Test
+    void saveAllConflict() {
+        final DiffCase first =
+                DiffCase.builder()
+                        .withName(randomAlphanumeric(32))
+                        .withLeftData(BinaryData.of(nextBytes(64)))
+                        .withRightData(BinaryData.empty())
+                        .withReport(DiffReport.of(LENGTH_MISMATCH))
+                        .build();
+        final DiffCase second =
+                DiffCase.builder()
+                        .withName(randomAlphanumeric(32))
+                        .withLeftData(BinaryData.of(nextBytes(64)))
+                        .withRightData(BinaryData.empty())
+                        .withReport(DiffReport.of(LENGTH_MISMATCH))
+                        .build();
+        mockBulkWrites();
+        when(blobs.acquire(any(BinaryData.class))).thenReturn(Mono.empty());
+        when(blobs.release(anyString())).thenReturn(Mono.empty());
+        when(blobs.deleteFile(null)).thenReturn(Mono.empty());
+        final BulkWriteError duplicate = new BulkWriteError(11000, "dup", new BsonDocument(), 1);
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenReturn(Mono.error(
+                new MongoBulkWriteException(
+                        BulkWriteResult.unacknowledged(), ImmutableList.of(duplicate), null, new ServerAddress())));
+        StepVerifier
+                .create(storage.saveAll(ImmutableList.of(first, second)))
+                .expectNext(ImmutableList.of(true, false))
+                .verifyComplete();
+        // references acquired for the case that was not saved are given back
+        verify(blobs, never()).release(first.getLeftData().getHash());
+        verify(blobs).release(second.getLeftData().getHash());
+        verify(mongo, never()).find(any(Query.class), eq(DiffCaseDocument.class)); // all of them are new
+    }
+
+    @Test
+    void saveAllSafeFailure() {
+        final DiffCase diffCase =
+                DiffCase.builder()
+                        .withName(randomAlphanumeric(32))
+                        .withLeftData(BinaryData.of(nextBytes(64)))
+                        .withRightData(BinaryData.empty())
+                        .withReport(DiffReport.of(LENGTH_MISMATCH))
+                        .build();
+        mockBulkWrites();
+        when(blobs.acquire(any(BinaryData.class))).thenReturn(Mono.empty());
+        when(blobs.release(anyString())).thenReturn(Mono.empty());
+        when(blobs.deleteFile(null)).thenReturn(Mono.empty());
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+                .thenReturn(Mono.error(new RuntimeException("ups!")));
+        StepVerifier
+                .create(storage.saveAll(ImmutableList.of(diffCase)))
                 .verifyErrorMessage("ups!");
+        verify(blobs).release(diffCase.getLeftData().getHash());
+    }
+
+    private void mockBulkWrites() {
+        final MappingMongoConverter converter =
+                new MappingMongoConverter(mock(DbRefResolver.class), new MongoMappingContext());
+        converter.afterPropertiesSet();
+        when(mongo.getConverter()).thenReturn(converter);
+        when(mongo.getCollectionName(DiffCaseDocument.class)).thenReturn("diffCaseDocument");
+        when(mongo.getCollection("diffCaseDocument")).thenReturn(collection);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<WriteModel<Document>> captureBulkWrites() {
+        final ArgumentCaptor<List<WriteModel<Document>>> captor = ArgumentCaptor.forClass(List.class);
+        verify(collection).bulkWrite(captor.capture(), any(BulkWriteOptions.class));
+        return captor.getValue();
     }
 
     @Test
     void getByName() {
         final String name = randomAlphanumeric(32);
+        final BinaryData leftData = BinaryData.of(nextBytes(64));
+        final BinaryData rightData = BinaryData.of(nextBytes(64));
         final DiffCaseDocument document = new DiffCaseDocument();
         document.id = randomAlphanumeric(16);
         document.name = name;
-        document.left = nextBytes(64);
-        document.right = nextBytes(64);
+        document.leftBlob = leftData.getHash();
+        document.rightBlob = rightData.getHash();
         final DiffReportDocument reportDocument = new DiffReportDocument();
         reportDocument.status = NOT_EQUAL.name();
         final DiffInsightDocument insightDocument = new DiffInsightDocument();
@@ -132,13 +397,15 @@ class DiffingStorageTest {
             final Document queryObject = query.getQueryObject();
             return queryObject.get("name").equals(name);
         }), eq(DiffCaseDocument.class))).thenReturn(Mono.just(document));
+        when(blobs.load(leftData.getHash())).thenReturn(Mono.just(leftData));
+        when(blobs.load(rightData.getHash())).thenReturn(Mono.just(rightData));
         StepVerifier
                 .create(storage.getByName(name))
                 .assertNext(diffCase -> {
                     assertThat(diffCase.getId()).isEqualTo(document.id);
                     assertThat(diffCase.getName()).isEqualTo(name);
-                    assertThat(diffCase.getLeftData().getBytes()).isEqualTo(document.left);
-                    assertThat(diffCase.getRightData().getBytes()).isEqualTo(document.right);
+                    assertThat(diffCase.getLeftData()).isEqualTo(leftData);
+                    assertThat(diffCase.getRightData()).isEqualTo(rightData);
                     final DiffReport report = diffCase.getReport();
                     assertThat(report.getStatus()).isEqualTo(NOT_EQUAL);
                     final List<DiffInsight> insights = report.getInsights();
@@ -150,6 +417,55 @@ class DiffingStorageTest {
                 .verifyComplete();
     }
 
+    @Test
+    void getByNameFromOldFormat() {
+        final String name = randomAlphanumeric(32);
+        final byte[] leftBytes = nextBytes(2048);
+        final DiffCaseDocument document = new DiffCaseDocument();
+        document.id = randomAlphanumeric(16);
+        document.name = name;
+        document.leftFile = new GridFsFileDocument();
+        document.leftFile.fileId = new ObjectId();
+        document.leftFile.length = leftBytes.length;
+        document.right = nextBytes(64);
+        final DiffReportDocument reportDocument = new DiffReportDocument();
+        reportDocument.status = LENGTH_MISMATCH.name();
+        reportDocument.insights = ImmutableList.of();
+        document.report = reportDocument;
+        when(mongo.findOne(any(Query.class), eq(DiffCaseDocument.class))).thenReturn(Mono.just(document));
+        when(blobs.download(document.leftFile)).thenReturn(Mono.just(leftBytes));
+        StepVerifier
+                .create(storage.getByName(name))
+                .assertNext(diffCase -> {
+                    assertThat(diffCase.getLeftData().getBytes()).isEqualTo(leftBytes);
+                    assertThat(diffCase.getRightData().getBytes()).isEqualTo(document.right);
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void getByNames() {
+        final BinaryData leftData = BinaryData.of(nextBytes(64));
+        final DiffCaseDocument first = new DiffCaseDocument();
+        first.name = randomAlphanumeric(32);
+        first.leftBlob = leftData.getHash();
+        final DiffCaseDocument second = new DiffCaseDocument();
+        second.name = randomAlphanumeric(32);
+        second.right = nextBytes(8); // stored in the old format
+        when(mongo.find(
+                argThat(query -> query.getQueryObject().get("name", Document.class).containsKey("$in")),
+                eq(DiffCaseDocument.class))).thenReturn(Flux.just(first, second));
+        when(blobs.load(leftData.getHash())).thenReturn(Mono.just(leftData));
+        StepVerifier
+                .create(storage.getByNames(ImmutableList.of(first.name, second.name)))
+                .assertNext(diffCases -> {
+                    assertThat(diffCases).extracting(DiffCase::getName).containsExactly(first.name, second.name);
+                    assertThat(diffCases.get(0).getLeftData()).isEqualTo(leftData);
+                    assertThat(diffCases.get(1).getRightData().getLength()).isEqualTo(8);
+                })
+                .verifyComplete();
+    }
+
     @Test
     void getByNameNotFound() {
         final String name = randomAlphanumeric(32);
@@ -170,6 +486,95 @@ class DiffingStorageTest {
                 .verifyErrorMessage("ups!");
     }
 
+    @Test
+    void getSideHash() {
+        final String name = randomAlphanumeric(32);
+        final DiffCaseDocument document = new DiffCaseDocument();
+        document.rightBlob = randomAlphanumeric(64);
+        when(mongo.findOne(argThat(query -> {
+            final Document queryObject = query.getQueryObject();
+            final Document fieldsObject = query.getFieldsObject();
+            return queryObject.get("name").equals(name) && fieldsObject.get("rightBlob").equals(1);
+        }), eq(DiffCaseDocument.class))).thenReturn(Mono.just(document));
+        StepVerifier
+                .create(storage.getSideHash(name, DiffSide.RIGHT))
+                .expectNext(document.rightBlob)
+                .verifyComplete();
+    }
+
+    @Test
+    void saveSide() {
+        final String name = randomAlphanumeric(32);
+        final BinaryData data = BinaryData.of(nextBytes(64));
+        final DiffCaseDocument previous = new DiffCaseDocument();
+        previous.leftBlob = randomAlphanumeric(64);
+        when(blobs.acquire(data)).thenReturn(Mono.empty());
+        when(mongo.findAndModify(
+                argThat(query -> query.getQueryObject().get("name").equals(name)),
+                argThat(update -> {
+                    final Document set = update.getUpdateObject().get("$set", Document.class);
+                    return set.get("leftBlob").equals(data.getHash()) && set.get("dirty").equals(true);
+                }),
+                argThat(FindAndModifyOptions::isUpsert),
+                eq(DiffCaseDocument.class))).thenReturn(Mono.just(previous));
+        when(blobs.release(previous.leftBlob)).thenReturn(Mono.empty());
+        when(blobs.deleteFile(null)).thenReturn(Mono.empty());
+        StepVerifier
+                .create(storage.saveSide(name, DiffSide.LEFT, data, null))
+                .verifyComplete();
+        verify(blobs).release(previous.leftBlob);
+    }
+
+    @Test
+    void saveSideSafeFailure() {
+        final String name = randomAlphanumeric(32);
+        final BinaryData data = BinaryData.of(nextBytes(64));
+        when(blobs.acquire(data)).thenReturn(Mono.empty());
+        when(mongo.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(DiffCaseDocument.class))).thenReturn(Mono.error(new RuntimeException("ups!")));
+        when(blobs.release(data.getHash())).thenReturn(Mono.empty());
+        StepVerifier
+                .create(storage.saveSide(name, DiffSide.RIGHT, data, null))
+                .verifyErrorMessage("ups!");
+        verify(blobs).release(data.getHash()); // reference acquired for the failed save is given back
+    }
+
+    @Test
+    void saveReport() {
+        final DiffCase diffCase =
+                DiffCase.builder()
+                        .withId(randomAlphanumeric(16))
+                        .withName(randomAlphanumeric(32))
+                        .withLeftData(BinaryData.of(nextBytes(64)))
+                        .withRightData(BinaryData.of(nextBytes(64)))
+                        .build();
+        when(mongo.updateFirst(
+                argThat(query -> query.getQueryObject().get("id").equals(diffCase.getId())),
+                argThat(update -> update.getUpdateObject().get("$set", Document.class).get("dirty").equals(false)),
+                eq(DiffCaseDocument.class))).thenReturn(Mono.just(UpdateResult.acknowledged(1, 1L, null)));
+        StepVerifier
+                .create(storage.saveReport(diffCase, DiffReport.of(NOT_EQUAL)))
+                .expectNext(true)
+                .verifyComplete();
+    }
+
+    @Test
+    void getByNameOutdated() {
+        final String name = randomAlphanumeric(32);
+        final DiffCaseDocument document = new DiffCaseDocument();
+        document.id = randomAlphanumeric(16);
+        document.name = name;
+        document.dirty = true;
+        when(mongo.findOne(any(Query.class), eq(DiffCaseDocument.class))).thenReturn(Mono.just(document));
+        StepVerifier
+                .create(storage.getByName(name))
+                .assertNext(diffCase -> {
+                    assertThat(diffCase.getLeftData().getLength()).isZero();
+                    assertThat(diffCase.getReport()).isNull();
+                })
+                .verifyComplete();
+    }
+
     @Test
     void getReportByName() {
         final String name = randomAlphanumeric(32);
@@ -199,6 +604,231 @@ class DiffingStorageTest {
                 .verifyComplete();
     }
 
+    @Test
+    void getReportByNamePacked() {
+        final String name = randomAlphanumeric(32);
+        final DiffCaseDocument document = new DiffCaseDocument();
+        final DiffReportDocument reportDocument = new DiffReportDocument();
+        reportDocument.status = NOT_EQUAL.name();
+        reportDocument.packedInsights = PackedInsights.encode(DiffReport.of(NOT_EQUAL, new int[]{3, 7, 12, 1}));
+        document.report = reportDocument;
+        when(mongo.findOne(any(Query.class), eq(DiffCaseDocument.class))).thenReturn(Mono.just(document));
+        StepVerifier
+                .create(storage.getReportByCaseName(name))
+                .assertNext(report -> {
+                    assertThat(report.getStatus()).isEqualTo(NOT_EQUAL);
+                    assertThat(report.getInsightCount()).isEqualTo(2);
+                    assertThat(report.getOffsetAt(1)).isEqualTo(12);
+                    assertThat(report.getLengthAt(1)).isEqualTo(1);
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void getReportsByNames() {
+        final DiffCaseDocument document = new DiffCaseDocument();
+        document.name = randomAlphanumeric(32);
+        document.report = new DiffReportDocument();
+        document.report.status = NOT_EQUAL.name();
+        document.report.packedInsights = PackedInsights.encode(DiffReport.of(NOT_EQUAL, new int[]{3, 7}));
+        final DiffCaseDocument outdated = new DiffCaseDocument();
+        outdated.name = randomAlphanumeric(32);
+        outdated.dirty = true;
+        when(mongo.find(argThat(query -> {
+            final Document fieldsObject = query.getFieldsObject();
+            return query.getQueryObject().get("name", Document.class).containsKey("$in")
+                    && fieldsObject.containsKey("report")
+                    && !fieldsObject.containsKey("leftBlob");
+        }), eq(DiffCaseDocument.class))).thenReturn(Flux.just(document, outdated));
+        StepVerifier
+                .create(storage.getReportsByCaseNames(ImmutableList.of(document.name, outdated.name)))
+                .assertNext(caseReport -> {
+                    assertThat(caseReport.getName()).isEqualTo(document.name);
+                    assertThat(caseReport.getReport()).hasValueSatisfying(report -> {
+                        assertThat(report.getStatus()).isEqualTo(NOT_EQUAL);
+                        assertThat(report.getOffsetAt(0)).isEqualTo(3);
+                    });
+                })
+                .assertNext(caseReport -> {
+                    assertThat(caseReport.getName()).isEqualTo(outdated.name);
+                    assertThat(caseReport.getReport()).isEmpty();
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void getReportByNameEdits() {
+        final String name = randomAlphanumeric(32);
+        final DiffCaseDocument document = new DiffCaseDocument();
+        final DiffReportDocument reportDocument = new DiffReportDocument();
+        reportDocument.status = NOT_EQUAL.name();
+        reportDocument.packedEdits =
+                PackedInsights.encodeEdits(DiffReport.ofEdits(NOT_EQUAL, new int[]{3, 0, 3, 2, 10, 4, 12, 0}));
+        document.report = reportDocument;
+        when(mongo.findOne(any(Query.class), eq(DiffCaseDocument.class))).thenReturn(Mono.just(document));
+        StepVerifier
+                .create(storage.getReportByCaseName(name))
+                .assertNext(report -> {
+                    assertThat(report.getStatus()).isEqualTo(NOT_EQUAL);
+                    assertThat(report.getInsightCount()).isZero();
+                    assertThat(report.getEdits()).hasSize(2);
+                    final DiffEdit deletion = report.getEdits().get(1);
+                    assertThat(deletion.getType()).isEqualTo(DiffEdit.Type.DELETE);
+                    assertThat(deletion.getLeftOffset()).isEqualTo(10);
+                    assertThat(deletion.getLeftLength()).isEqualTo(4);
+                    assertThat(deletion.getRightOffset()).isEqualTo(12);
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void getSummaryByName() {
+        final String name = randomAlphanumeric(32);
+        final DiffCaseDocument document = new DiffCaseDocument();
+        final DiffReportDocument reportDocument = new DiffReportDocument();
+        reportDocument.status = NOT_EQUAL.name();
+        reportDocument.summary = new DiffSummaryDocument();
+        reportDocument.summary.differingBytes = 8;
+        reportDocument.summary.runCount = 2;
+        reportDocument.summary.longestRun = 7;
+        reportDocument.summary.firstOffset = 3;
+        reportDocument.summary.lastOffset = 12;
+        document.report = reportDocument;
+        when(mongo.findOne(argThat(query -> {
+            final Document fieldsObject = query.getFieldsObject();
+            return query.getQueryObject().get("name").equals(name)
+                    && fieldsObject.get("report.summary").equals(1)
+                    && !fieldsObject.containsKey("report");
+        }), eq(DiffCaseDocument.class))).thenReturn(Mono.just(document));
+        StepVerifier
+                .create(storage.getSummaryByCaseName(name))
+                .assertNext(summary -> {
+                    assertThat(summary.getStatus()).isEqualTo(NOT_EQUAL);
+                    assertThat(summary.getDifferingBytes()).isEqualTo(8);
+                    assertThat(summary.getRunCount()).isEqualTo(2);
+                    assertThat(summary.getLongestRun()).isEqualTo(7);
+                    assertThat(summary.getFirstOffset()).isEqualTo(3);
+                    assertThat(summary.getLastOffset()).isEqualTo(12);
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void getSummaryByNameFromOldFormat() {
+        final String name = randomAlphanumeric(32);
+        final DiffCaseDocument projected = new DiffCaseDocument();
+        projected.report = new DiffReportDocument();
+        projected.report.status = NOT_EQUAL.name();
+        final DiffCaseDocument document = new DiffCaseDocument();
+        document.report = new DiffReportDocument();
+        document.report.status = NOT_EQUAL.name();
+        document.report.packedInsights = PackedInsights.encode(DiffReport.of(NOT_EQUAL, new int[]{3, 7, 12, 1}));
+        when(mongo.findOne(any(Query.class), eq(DiffCaseDocument.class)))
+                .thenReturn(Mono.just(projected), Mono.just(document));
+        StepVerifier
+                .create(storage.getSummaryByCaseName(name))
+                .assertNext(summary -> {
+                    assertThat(summary.getDifferingBytes()).isEqualTo(8);
+                    assertThat(summary.getRunCount()).isEqualTo(2);
+                    assertThat(summary.getLastOffset()).isEqualTo(12);
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void enqueueDiff() {
+        final String name = randomAlphanumeric(32);
+        when(mongo.upsert(
+                argThat(query -> query.getQueryObject().get("id").equals(name)),
+                argThat(update -> update.getUpdateObject().get("$inc", Document.class).get("generation").equals(1)
+                        && update.getUpdateObject().get("$set", Document.class).get("attempts").equals(0)
+                        && update.getUpdateObject().get("$unset", Document.class).containsKey("claimedUntil")),
+                eq(DiffJobDocument.class))).thenReturn(Mono.just(UpdateResult.acknowledged(1, 1L, null)));
+        StepVerifier
+                .create(storage.enqueueDiff(name))
+                .verifyComplete();
+    }
+
+    @Test
+    void claimDiff() {
+        final DiffJobDocument document = new DiffJobDocument();
+        document.id = randomAlphanumeric(32);
+        document.generation = 3;
+        document.attempts = 2;
+        when(mongo.findAndModify(
+                argThat(query -> query.getQueryObject().containsKey("$or")),
+                argThat(update -> update.getUpdateObject().get("$set", Document.class).containsKey("claimedUntil")),
+                any(FindAndModifyOptions.class),
+                eq(DiffJobDocument.class))).thenReturn(Mono.just(document));
+        StepVerifier
+                .create(storage.claimDiff(Duration.ofSeconds(60)))
+                .assertNext(job -> {
+                    assertThat(job.getCaseName()).isEqualTo(document.id);
+                    assertThat(job.getGeneration()).isEqualTo(3);
+                    assertThat(job.getAttempts()).isEqualTo(2);
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void completeDiff() {
+        final DiffJob job = new DiffJob(randomAlphanumeric(32), 3, 0);
+        when(mongo.remove(
+                argThat(query -> query.getQueryObject().get("generation").equals(3L)),
+                eq(DiffJobDocument.class))).thenReturn(Mono.just(DeleteResult.acknowledged(1)));
+        StepVerifier
+                .create(storage.completeDiff(job))
+                .verifyComplete();
+        verify(mongo, never()).updateFirst(any(Query.class), any(Update.class), eq(DiffJobDocument.class));
+    }
+
+    @Test
+    void completeSupersededDiff() {
+        final DiffJob job = new DiffJob(randomAlphanumeric(32), 3, 0);
+        when(mongo.remove(any(Query.class), eq(DiffJobDocument.class)))
+                .thenReturn(Mono.just(DeleteResult.acknowledged(0)));
+        when(mongo.updateFirst(
+                argThat(query -> query.getQueryObject().get("id").equals(job.getCaseName())),
+                argThat(update -> update.getUpdateObject().get("$unset", Document.class).containsKey("claimedUntil")),
+                eq(DiffJobDocument.class))).thenReturn(Mono.just(UpdateResult.acknowledged(1, 1L, null)));
+        StepVerifier
+                .create(storage.completeDiff(job))
+                .verifyComplete();
+        // case was queued again while diffed, so the job is released to diff it again
+        verify(mongo).updateFirst(any(Query.class), any(Update.class), eq(DiffJobDocument.class));
+    }
+
+    @Test
+    void retryDiff() {
+        final DiffJob job = new DiffJob(randomAlphanumeric(32), 3, 1);
+        when(mongo.updateFirst(
+                argThat(query -> query.getQueryObject().get("generation").equals(3L)),
+                argThat(update -> update.getUpdateObject().get("$set", Document.class).containsKey("claimedUntil")
+                        && update.getUpdateObject().get("$inc", Document.class).get("attempts").equals(1)),
+                eq(DiffJobDocument.class))).thenReturn(Mono.just(UpdateResult.acknowledged(1, 1L, null)));
+        StepVerifier
+                .create(storage.retryDiff(job, Duration.ofSeconds(2)))
+                .verifyComplete();
+    }
+
+    @Test
+    void retrySupersededDiff() {
+        final DiffJob job = new DiffJob(randomAlphanumeric(32), 3, 1);
+        when(mongo.updateFirst(
+                argThat(query -> query.getQueryObject().containsKey("generation")),
+                any(Update.class),
+                eq(DiffJobDocument.class))).thenReturn(Mono.just(UpdateResult.acknowledged(0, 0L, null)));
+        when(mongo.updateFirst(
+                argThat(query -> !query.getQueryObject().containsKey("generation")),
+                argThat(update -> update.getUpdateObject().get("$unset", Document.class).containsKey("claimedUntil")),
+                eq(DiffJobDocument.class))).thenReturn(Mono.just(UpdateResult.acknowledged(1, 1L, null)));
+        StepVerifier
+                .create(storage.retryDiff(job, Duration.ofSeconds(2)))
+                .verifyComplete();
+        // case was queued again while diffed, so the job is released to diff it again right away
+        verify(mongo, times(2)).updateFirst(any(Query.class), any(Update.class), eq(DiffJobDocument.class));
+    }
+
     @Test
     void getReportByNameNotFound() {
         final String name = randomAlphanumeric(32);
@@ -219,4 +849,4 @@ class DiffingStorageTest {
                 .verifyErrorMessage("ups!");
     }
 
-}
\ No newline at end of file
+}
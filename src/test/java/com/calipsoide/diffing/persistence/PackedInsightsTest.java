@@ -0,0 +1,59 @@
+package com.calipsoide.diffing.persistence;
+
+import com.calipsoide.diffing.business.DiffReport;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static com.calipsoide.diffing.business.DiffReport.Status.NOT_EQUAL;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PackedInsightsTest {
+
+    @Test
+    void roundTripSorted() {
+        final Random random = new Random(42);
+        final int[] runs = new int[20000];
+        int offset = 0;
+        for (int i = 0; i < runs.length; i += 2) {
+            offset += 1 + random.nextInt(1000);
+            runs[i] = offset;
+            runs[i + 1] = 1 + random.nextInt(100);
+            offset += runs[i + 1];
+        }
+        final byte[] packed = PackedInsights.encode(DiffReport.of(NOT_EQUAL, runs));
+        assertThat(packed.length).isLessThan(runs.length * 2); // about 3 bytes per insight
+        assertThat(PackedInsights.decode(packed)).containsExactly(runs);
+    }
+
+    @Test
+    void roundTripUnsortedAndExtremes() {
+        final int[] runs = {Integer.MAX_VALUE - 10, 10, 0, Integer.MAX_VALUE, 5, 0, 5, 0};
+        final byte[] packed = PackedInsights.encode(DiffReport.of(NOT_EQUAL, runs));
+        assertThat(PackedInsights.decode(packed)).containsExactly(runs);
+    }
+
+    @Test
+    void emptyReport() {
+        final byte[] packed = PackedInsights.encode(DiffReport.of(NOT_EQUAL));
+        assertThat(packed).hasSize(1);
+        assertThat(PackedInsights.decode(packed)).isEmpty();
+    }
+
+    @Test
+    void roundTripEdits() {
+        final int[] edits = {0, 0, 0, 5, 3, 2, 8, 0, 300, 1, 305, 4000, Integer.MAX_VALUE - 1, 1, 0, 0};
+        final byte[] packed = PackedInsights.encodeEdits(DiffReport.ofEdits(NOT_EQUAL, edits));
+        assertThat(PackedInsights.decodeEdits(packed)).containsExactly(edits);
+    }
+
+    @Test
+    void truncatedInput() {
+        final byte[] packed = PackedInsights.encode(DiffReport.of(NOT_EQUAL, new int[]{300, 400}));
+        final byte[] truncated = new byte[packed.length - 1];
+        System.arraycopy(packed, 0, truncated, 0, truncated.length);
+        assertThatThrownBy(() -> PackedInsights.decode(truncated)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+}